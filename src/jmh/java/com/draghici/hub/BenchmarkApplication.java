@@ -0,0 +1,20 @@
+package com.draghici.hub;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Arrays;
+
+/* boots the whole application on a random port with the embedded H2 database, shared by the benchmarks */
+public final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    /* the properties are passed as command line arguments, so they override application.properties */
+    public static ConfigurableApplicationContext start(String... properties) {
+        return new SpringApplicationBuilder(HubApplication.class)
+                .properties("server.port=0", "logging.level.root=WARN")
+                .run(Arrays.stream(properties).map(property -> "--" + property).toArray(String[]::new));
+    }
+}
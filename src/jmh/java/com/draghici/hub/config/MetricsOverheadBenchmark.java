@@ -0,0 +1,86 @@
+package com.draghici.hub.config;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.services.ProductService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * cost of the metrics: the same calls with all the instrumentation of application.properties, and with none of it
+ * (no http.server.requests observation, no service timers, no hibernate statistics, no meter registered).
+ * The products are served from the cache, so the instrumentation is a large share of each call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    private final static int CATALOGUE_SIZE = 1000;
+
+    @Param({"true", "false"})
+    public boolean instrumented;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private HttpClient httpClient;
+    private String baseUrl;
+    private String authorization;
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = instrumented ? BenchmarkApplication.start() : BenchmarkApplication.start(
+                "hub.metrics.service-timers.enabled=false",
+                "management.observations.enable.http.server.requests=false",
+                "management.metrics.enable.all=false",
+                "management.prometheus.metrics.export.enabled=false",
+                "spring.jpa.properties.hibernate.generate_statistics=false");
+
+        productService = context.getBean(ProductService.class);
+        firstId = productService.add(new ProductDTO("Product 0", 1.0)).getId();
+        for (int i = 1; i < CATALOGUE_SIZE; i++) {
+            productService.add(new ProductDTO("Product " + i, i));
+        }
+
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/product/";
+        authorization = "Basic " + Base64.getEncoder().encodeToString("user:user".getBytes(StandardCharsets.UTF_8));
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        httpClient.close();
+        context.close();
+    }
+
+    /* the service timer around the cache proxy, a cache hit */
+    @Benchmark
+    public Product getByIdThroughService() {
+        return productService.getById(firstId + ThreadLocalRandom.current().nextInt(CATALOGUE_SIZE));
+    }
+
+    /* the service timer, the http.server.requests observation and the histograms of both */
+    @Benchmark
+    public int getByIdOverHttp() throws Exception {
+        var id = firstId + ThreadLocalRandom.current().nextInt(CATALOGUE_SIZE);
+        var request = HttpRequest.newBuilder(URI.create(baseUrl + id))
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,91 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.config.JacksonProtobufHttpMessageConverter;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the product list of /all encoded and decoded as JSON, CBOR and protobuf, the mappers of the message converters.
+ * The payload size of each encoding is printed by the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductEncodingBenchmark {
+
+    @Param({"json", "cbor", "protobuf"})
+    public String format;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private Object message;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            var product = new Product();
+            product.setId((long) i + 1);
+            product.setName("Product " + Integer.toString(i, 36) + " " + (i % 977));
+            product.setPrice((i % 10_000) / 100.0);
+            product.setVersion((long) (i % 3));
+            products.add(product);
+        }
+        var listType = new TypeReference<List<Product>>() {
+        };
+        message = products;
+        switch (format) {
+            case "json" -> {
+                var mapper = new ObjectMapper();
+                writer = mapper.writerFor(listType);
+                reader = mapper.readerFor(listType);
+            }
+            case "cbor" -> {
+                var mapper = new CBORMapper();
+                writer = mapper.writerFor(listType);
+                reader = mapper.readerFor(listType);
+            }
+            case "protobuf" -> {
+                var mapper = new ProtobufMapper();
+                var schema = new JacksonProtobufHttpMessageConverter(mapper).schema(listType.getType()).orElseThrow();
+                var itemsType = new TypeReference<JacksonProtobufHttpMessageConverter.Items<Product>>() {
+                };
+                var items = new JacksonProtobufHttpMessageConverter.Items<Product>();
+                items.items = products;
+                message = items;
+                writer = mapper.writerFor(itemsType).with(schema);
+                reader = mapper.readerFor(itemsType).with(schema);
+            }
+            default -> throw new IllegalArgumentException(format);
+        }
+        payload = writer.writeValueAsBytes(message);
+        System.out.printf("%n%s payload of %d products: %d bytes%n", format, size, payload.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return writer.writeValueAsBytes(message);
+    }
+
+    @Benchmark
+    public Object deserialize() throws Exception {
+        return reader.readValue(payload);
+    }
+}
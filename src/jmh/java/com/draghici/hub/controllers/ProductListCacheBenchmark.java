@@ -0,0 +1,75 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.services.ProductService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * GET /api/product/all over HTTP, 10k products, serialized on every request or served from the response cache.
+ * Without the cache a gzip request gets the plain JSON: tomcat (server.compression) does not compress
+ * a response with a strong ETag.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductListCacheBenchmark {
+
+    private final static int CATALOGUE_SIZE = 10_000;
+
+    @Param({"false", "true"})
+    public boolean responseCache;
+
+    @Param({"identity", "gzip"})
+    public String encoding;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start("hub.product.response-cache.enabled=" + responseCache);
+
+        var productService = context.getBean(ProductService.class);
+        List<ProductDTO> batch = new ArrayList<>(CATALOGUE_SIZE);
+        for (int i = 0; i < CATALOGUE_SIZE; i++) {
+            batch.add(new ProductDTO("Product " + i, (i % 10_000) / 100.0));
+        }
+        productService.addAll(batch);
+
+        var url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/product/all";
+        var authorization = "Basic " + Base64.getEncoder().encodeToString("user:user".getBytes(StandardCharsets.UTF_8));
+        request = HttpRequest.newBuilder(URI.create(url))
+                .header("Authorization", authorization)
+                .header("Accept-Encoding", encoding)
+                .GET()
+                .build();
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        httpClient.close();
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] getAll() throws Exception {
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
@@ -0,0 +1,95 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.services.ProductService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * resolving the products of a page view over HTTP: 'ids' random ids with one GET /api/product?ids=... (getMany)
+ * or one GET /api/product/{id} per id (getOneByOne). The product cache is off, so every id is read from the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductLookupBenchmark {
+
+    private final static int CATALOGUE_SIZE = 10_000;
+
+    @Param({"10", "50"})
+    public int ids;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private String baseUrl;
+    private String authorization;
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start("spring.cache.type=none");
+
+        var productService = context.getBean(ProductService.class);
+        List<ProductDTO> batch = new ArrayList<>(CATALOGUE_SIZE);
+        for (int i = 0; i < CATALOGUE_SIZE; i++) {
+            batch.add(new ProductDTO("Product " + i, i));
+        }
+        firstId = productService.addAll(batch).getCreated().get(0).getId();
+
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/product";
+        authorization = "Basic " + Base64.getEncoder().encodeToString("user:user".getBytes(StandardCharsets.UTF_8));
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        httpClient.close();
+        context.close();
+    }
+
+    @Benchmark
+    public int getMany() throws Exception {
+        var joiner = new StringJoiner(",");
+        for (int i = 0; i < ids; i++) {
+            joiner.add(Long.toString(randomId()));
+        }
+        return send(baseUrl + "?ids=" + joiner);
+    }
+
+    @Benchmark
+    public int getOneByOne() throws Exception {
+        int status = 0;
+        for (int i = 0; i < ids; i++) {
+            status = send(baseUrl + "/" + randomId());
+        }
+        return status;
+    }
+
+    private long randomId() {
+        return firstId + ThreadLocalRandom.current().nextInt(CATALOGUE_SIZE);
+    }
+
+    private int send(String url) throws Exception {
+        var request = HttpRequest.newBuilder(URI.create(url))
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
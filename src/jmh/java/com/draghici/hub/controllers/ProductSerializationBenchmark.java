@@ -0,0 +1,43 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.beans.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* Jackson serialization of the product lists returned by the controller */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductSerializationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private ObjectMapper objectMapper;
+    private List<Product> products;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        objectMapper = new ObjectMapper();
+        products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            var product = new Product();
+            product.setId((long) i);
+            product.setName("Product " + i);
+            product.setPrice(i * 1.25);
+            products.add(product);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeList() throws Exception {
+        return objectMapper.writeValueAsBytes(products);
+    }
+}
@@ -0,0 +1,76 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.services.ProductService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * GET /api/product/{id} over HTTP with many concurrent clients, on Tomcat platform threads or on virtual threads.
+ * The product cache is off so every request blocks on the database, and tomcat is capped at 50 platform threads.
+ * Pinned virtual threads are printed by -Djdk.tracePinnedThreads.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.tracePinnedThreads=short")
+@Threads(200)
+@State(Scope.Benchmark)
+public class ThreadingLoadBenchmark {
+
+    private final static int CATALOGUE_SIZE = 1000;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private String baseUrl;
+    private String authorization;
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start(
+                "spring.threads.virtual.enabled=" + virtualThreads,
+                "server.tomcat.threads.max=50",
+                "spring.cache.type=none");
+
+        var productService = context.getBean(ProductService.class);
+        firstId = productService.add(new ProductDTO("Product 0", 1.0)).getId();
+        for (int i = 1; i < CATALOGUE_SIZE; i++) {
+            productService.add(new ProductDTO("Product " + i, i));
+        }
+
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/product/";
+        authorization = "Basic " + Base64.getEncoder().encodeToString("user:user".getBytes(StandardCharsets.UTF_8));
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        httpClient.close();
+        context.close();
+    }
+
+    @Benchmark
+    public int getById() throws Exception {
+        var id = firstId + ThreadLocalRandom.current().nextInt(CATALOGUE_SIZE);
+        var request = HttpRequest.newBuilder(URI.create(baseUrl + id))
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,78 @@
+package com.draghici.hub.exceptions;
+
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the expected error paths: the exception the service throws and its translation by the handler.
+ * The exceptions are thrown STACK_DEPTH frames deep, like under the filters and proxies of a request.
+ * With 'stackTrace' every error is a new exception that fills in its stack trace, as before the stackless ProductException
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GlobalExceptionHandlerBenchmark {
+
+    private final static int STACK_DEPTH = 128;
+
+    private final static ProductException VALIDATION_EXCEPTION = new ProductException("A product with negative id cannot exist", 422);
+
+    @Param({"false", "true"})
+    private boolean stackTrace;
+
+    private GlobalExceptionHandler exceptionHandler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // measure the error path, not the appenders
+        Configurator.setLevel(GlobalExceptionHandler.class, org.apache.logging.log4j.Level.ERROR);
+        exceptionHandler = new GlobalExceptionHandler();
+    }
+
+    @Benchmark
+    public ResponseEntity<HubException> handleNotFound() {
+        try {
+            throwNotFound(STACK_DEPTH);
+            return null;
+        } catch (ProductException ex) {
+            return exceptionHandler.handleProductException(ex);
+        }
+    }
+
+    /* a preallocated validation error, as thrown by ProductServiceImpl */
+    @Benchmark
+    public ResponseEntity<HubException> handleValidationError() {
+        try {
+            throwValidationError(STACK_DEPTH);
+            return null;
+        } catch (ProductException ex) {
+            return exceptionHandler.handleProductException(ex);
+        }
+    }
+
+    private void throwNotFound(int depth) {
+        if (depth > 0) {
+            throwNotFound(depth - 1);
+            return;
+        }
+        throw stackTrace
+                ? new ProductException("Product with id 42 not found", 404, null)
+                : new ProductException("Product with id 42 not found", 404);
+    }
+
+    private void throwValidationError(int depth) {
+        if (depth > 0) {
+            throwValidationError(depth - 1);
+            return;
+        }
+        throw stackTrace
+                ? new ProductException("A product with negative id cannot exist", 422, null)
+                : VALIDATION_EXCEPTION;
+    }
+}
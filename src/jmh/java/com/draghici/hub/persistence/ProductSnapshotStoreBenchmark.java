@@ -0,0 +1,55 @@
+package com.draghici.hub.persistence;
+
+import com.draghici.hub.BenchmarkApplication;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * startup time of the whole application from a catalogue snapshot, by catalogue size:
+ * restore into the empty H2 database, then the build of the in-memory indexes, until the application is ready.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ProductSnapshotStoreBenchmark {
+
+    @Param({"0", "100000", "1000000"})
+    public int products;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("snapshot-benchmark");
+        try (var writer = CatalogueSnapshot.writer(directory.resolve(ProductSnapshotStore.SNAPSHOT_FILE), 0)) {
+            for (int id = 1; id <= products; id++) {
+                writer.write(id, "Product " + Integer.toString(id, 36) + " " + (id % 977), (id % 10_000) / 100.0, 0);
+            }
+            writer.complete();
+        }
+    }
+
+    /* the shutdown snapshot rewrites the same rows */
+    @TearDown(Level.Invocation)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext startup() {
+        context = BenchmarkApplication.start(
+                "hub.product.snapshot.enabled=true",
+                "hub.product.snapshot.directory=" + directory,
+                "hub.product.snapshot.interval=1h");
+        return context;
+    }
+}
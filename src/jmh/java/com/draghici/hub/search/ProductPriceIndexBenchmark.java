@@ -0,0 +1,77 @@
+package com.draghici.hub.search;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductPrice;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* ProductPriceIndex against sorting and filtering the loaded Product entities, which is what findAll() allowed before */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ProductPriceIndexBenchmark {
+
+    @Param({"1000000"})
+    private int catalogueSize;
+
+    private ProductPriceIndex priceIndex;
+    private List<Product> products;
+    private SplittableRandom random;
+    private long version;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        priceIndex = new ProductPriceIndex(null);
+        products = new ArrayList<>(catalogueSize);
+        random = new SplittableRandom(42);
+        for (long id = 1; id <= catalogueSize; id++) {
+            double price = random.nextInt(1_000_000) / 100.0;
+            priceIndex.add(id, price, 0L);
+
+            var product = new Product();
+            product.setId(id);
+            product.setPrice(price);
+            products.add(product);
+        }
+    }
+
+    @Benchmark
+    public int countInRange() {
+        return priceIndex.count(100.0, 200.0);
+    }
+
+    @Benchmark
+    public List<ProductPrice> cheapest100() {
+        return priceIndex.cheapest(100);
+    }
+
+    @Benchmark
+    public List<ProductPrice> range100() {
+        return priceIndex.range(100.0, 200.0, 100);
+    }
+
+    /* a writer moves a random product to a random price, one segment and the segment table are copied */
+    @Benchmark
+    public int updatePrice() {
+        priceIndex.add(1 + random.nextInt(catalogueSize), random.nextInt(1_000_000) / 100.0, ++version);
+        return priceIndex.size();
+    }
+
+    @Benchmark
+    public List<Product> cheapest100BySortingEntities() {
+        return products.stream().sorted(Comparator.comparingDouble(Product::getPrice).thenComparing(Product::getId)).limit(100).toList();
+    }
+
+    @Benchmark
+    public long countInRangeByScanningEntities() {
+        return products.stream().filter(product -> product.getPrice() >= 100.0 && product.getPrice() <= 200.0).count();
+    }
+}
@@ -0,0 +1,48 @@
+package com.draghici.hub.search;
+
+import com.draghici.hub.dto.ProductSearchHit;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/* ProductSearchIndex alone, on a generated catalogue of realistic product names */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class ProductSearchIndexBenchmark {
+
+    private final static String[] BRANDS = {"Acme", "Globex", "Initech", "Umbrella", "Stark", "Wayne", "Hooli", "Vandelay", "Soylent", "Tyrell"};
+    private final static String[] ADJECTIVES = {"Wireless", "Portable", "Ergonomic", "Compact", "Premium", "Smart", "Vintage", "Heavy Duty", "Foldable", "Waterproof",
+            "Digital", "Classic", "Ultra Slim", "Rechargeable", "Adjustable"};
+    private final static String[] NOUNS = {"Mouse", "Keyboard", "Headphones", "Speaker", "Charger", "Backpack", "Lamp", "Kettle", "Blender", "Monitor",
+            "Camera", "Tripod", "Thermos", "Drill", "Router", "Watch", "Jacket", "Umbrella", "Notebook", "Chair"};
+
+    @Param({"1000000", "3000000"})
+    private int catalogueSize;
+
+    // a rare term, a common term and a term with a typo
+    @Param({"stark kettle 4217", "wireless mouse", "ergonmic chiar"})
+    private String term;
+
+    private ProductSearchIndex searchIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        searchIndex = new ProductSearchIndex(null);
+        var random = new SplittableRandom(42);
+        for (int id = 1; id <= catalogueSize; id++) {
+            searchIndex.add(id, BRANDS[random.nextInt(BRANDS.length)] + " " + ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+                    + NOUNS[random.nextInt(NOUNS.length)] + " " + random.nextInt(10_000), 0L);
+        }
+    }
+
+    @Benchmark
+    public List<ProductSearchHit> search() {
+        return searchIndex.search(term, 10);
+    }
+}
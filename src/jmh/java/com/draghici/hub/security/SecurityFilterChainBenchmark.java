@@ -0,0 +1,78 @@
+package com.draghici.hub.security;
+
+import com.draghici.hub.BenchmarkApplication;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * one request through the whole security filter chain built in Security, the controller is not invoked.
+ * Without the credential cache (a ttl of 0) the BCrypt verification runs on every authenticated request
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecurityFilterChainBenchmark {
+
+    private final static FilterChain NO_OP_CHAIN = (request, response) -> {
+    };
+
+    @Param({"false", "true"})
+    private boolean credentialCache;
+
+    private ConfigurableApplicationContext context;
+    private Filter securityFilterChain;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = credentialCache ? BenchmarkApplication.start() : BenchmarkApplication.start("hub.security.credential-cache.ttl=0s");
+        securityFilterChain = context.getBean("springSecurityFilterChain", Filter.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /* valid credentials, verified once then served from the credential cache when it is enabled */
+    @Benchmark
+    public int authenticated() throws Exception {
+        return filter(basicAuth("user", "user"));
+    }
+
+    /* wrong password, the BCrypt verification runs on every request */
+    @Benchmark
+    public int badCredentials() throws Exception {
+        return filter(basicAuth("user", "wrong"));
+    }
+
+    @Benchmark
+    public int anonymous() throws Exception {
+        return filter(null);
+    }
+
+    private int filter(String authorization) throws Exception {
+        var request = new MockHttpServletRequest("GET", "/api/product/1");
+        request.setServletPath("/api/product/1");
+        if (authorization != null) {
+            request.addHeader("Authorization", authorization);
+        }
+        var response = new MockHttpServletResponse();
+        securityFilterChain.doFilter(request, response, NO_OP_CHAIN);
+        return response.getStatus();
+    }
+
+    private static String basicAuth(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
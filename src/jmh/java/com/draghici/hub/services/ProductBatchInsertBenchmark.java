@@ -0,0 +1,58 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductDTO;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * rows inserted per second by the bulk endpoint (ProductService.addAll, 'batchSize' rows in one transaction)
+ * against one add() per row, each in its own transaction. Both scores are in rows per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductBatchInsertBenchmark {
+
+    private final static int BATCH_SIZE = 1000;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private List<ProductDTO> batch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start();
+        productService = context.getBean(ProductService.class);
+
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new ProductDTO("New product " + i, 9.99));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Product addOneByOne() {
+        return productService.add(new ProductDTO("New product", 9.99));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public ProductBatchResult addBatch() {
+        return productService.addAll(batch);
+    }
+}
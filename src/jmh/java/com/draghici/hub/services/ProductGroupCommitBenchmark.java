@@ -0,0 +1,47 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductDTO;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ProductService.add from 64 concurrent callers, each insert in its own transaction or in the group commit.
+ * H2 runs in memory so a commit does not wait for the disk, a database that fsyncs its log gains more.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class ProductGroupCommitBenchmark {
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start(
+                "hub.product.group-commit.enabled=" + groupCommit,
+                "hub.product.group-commit.max-delay=2ms");
+        productService = context.getBean(ProductService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Product add() {
+        return productService.add(new ProductDTO("New product", 9.99));
+    }
+}
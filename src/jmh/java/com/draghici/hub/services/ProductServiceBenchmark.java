@@ -0,0 +1,58 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductDTO;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/* ProductService through the spring proxies (cache, transactions) against the embedded H2 database */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductServiceBenchmark {
+
+    private final static int CATALOGUE_SIZE = 10_000;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start();
+        productService = context.getBean(ProductService.class);
+
+        firstId = productService.add(new ProductDTO("Product 0", 1.0)).getId();
+        for (int i = 1; i < CATALOGUE_SIZE; i++) {
+            productService.add(new ProductDTO("Product " + i, i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Product getById() {
+        return productService.getById(firstId + ThreadLocalRandom.current().nextInt(CATALOGUE_SIZE));
+    }
+
+    @Benchmark
+    public Product add() {
+        return productService.add(new ProductDTO("New product", 9.99));
+    }
+
+    @Benchmark
+    public Product update() {
+        var random = ThreadLocalRandom.current();
+        return productService.update(firstId + random.nextInt(CATALOGUE_SIZE), new ProductDTO("Updated product", random.nextDouble(100)));
+    }
+}
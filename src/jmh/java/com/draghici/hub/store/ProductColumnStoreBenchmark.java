@@ -0,0 +1,82 @@
+package com.draghici.hub.store;
+
+import com.draghici.hub.BenchmarkApplication;
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.services.ProductService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the reads of ProductService from the database (JPA) or from the off-heap column store, 100k products.
+ * getAll is serialized as the /all endpoint does, into a null stream. Run with the gc profiler (the default
+ * jmh.profiler) for the allocation per operation and the collection time; the heap used after a full GC
+ * is printed by the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ProductColumnStoreBenchmark {
+
+    private static final int PRODUCTS = 100_000;
+
+    @Param({"false", "true"})
+    public boolean columnStore;
+
+    private ConfigurableApplicationContext context;
+    private ProductService productService;
+    private ObjectMapper objectMapper;
+    private long firstId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = BenchmarkApplication.start(
+                "hub.product.column-store.enabled=" + columnStore,
+                "spring.cache.type=none");
+        productService = context.getBean(ProductService.class);
+        objectMapper = context.getBean(ObjectMapper.class);
+
+        List<ProductDTO> batch = new ArrayList<>(1000);
+        for (int i = 0; i < PRODUCTS; i++) {
+            batch.add(new ProductDTO("Product " + Integer.toString(i, 36) + " " + (i % 977), (i % 10_000) / 100.0));
+            if (batch.size() == 1000) {
+                productService.addAll(batch);
+                batch.clear();
+            }
+        }
+        firstId = productService.getAll().get(0).getId();
+
+        System.gc();
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("%nheap used after a full GC: %d MB, column store off-heap: %d MB%n",
+                heap >> 20, context.getBean(ProductColumnStore.class).offHeapBytes() >> 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void getAll() throws IOException {
+        Object body = productService.getAllAsJson().map(Object.class::cast).orElseGet(productService::getAll);
+        objectMapper.writeValue(OutputStream.nullOutputStream(), body);
+    }
+
+    @Benchmark
+    public Product getById() {
+        return productService.getById(firstId + ThreadLocalRandom.current().nextInt(PRODUCTS));
+    }
+}
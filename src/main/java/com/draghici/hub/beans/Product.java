@@ -1,20 +1,49 @@
 package com.draghici.hub.beans;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
 @Data
-@Table(name = "P_PRODUCTS")
+@Table(name = "P_PRODUCTS", indexes = {
+        // name prefix (LIKE 'abc%') and price range lookups of ProductRepository.queryProducts
+        @Index(name = "IDX_P_PRODUCTS_NAME", columnList = "name"),
+        @Index(name = "IDX_P_PRODUCTS_PRICE", columnList = "price"),
+        // delta sync of ProductRepository.getProductsChangedBetween, in (mod_seq, id) order
+        @Index(name = "IDX_P_PRODUCTS_MOD_SEQ", columnList = "mod_seq, id")
+})
 public class Product {
 
+    /* pooled sequence: ids are reserved in blocks so the inserts can be sent in JDBC batches */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_seq")
+    @SequenceGenerator(name = "product_seq", sequenceName = "P_PRODUCTS_SEQ", allocationSize = 50)
+    @JsonProperty(index = 1)
     Long id;
 
     @Column(name = "name", nullable = false)
+    @JsonProperty(index = 2)
     String name;
 
     @Column(name = "price", nullable = false)
+    @JsonProperty(index = 3)
     double price;
+
+    /* optimistic lock, incremented on every update. It is also the ETag of the product */
+    @Version
+    @Column(name = "version", nullable = false)
+    @JsonProperty(index = 4)
+    Long version;
+
+    /*
+     * modification sequence of the last insert or update, for the delta sync (see ProductChangeTracker).
+     * Not part of the API. The rows inserted without it get 0, the delta sync orders them by id
+     */
+    @JsonIgnore
+    @ColumnDefault("0")
+    @Column(name = "mod_seq", nullable = false)
+    long modSeq;
 }
@@ -0,0 +1,33 @@
+package com.draghici.hub.beans;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/*
+ * a deleted product, reported by the delta sync until it is compacted (see ProductChangeTracker).
+ * The product ids are never reused, so a product has at most one tombstone
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "P_PRODUCT_TOMBSTONES", indexes = {
+        @Index(name = "IDX_P_PRODUCT_TOMBSTONES_MOD_SEQ", columnList = "mod_seq")
+})
+public class ProductTombstone {
+
+    @Id
+    @Column(name = "product_id")
+    Long productId;
+
+    // modification sequence of the deletion
+    @Column(name = "mod_seq", nullable = false)
+    long modSeq;
+
+    @Column(name = "deleted_at", nullable = false)
+    Instant deletedAt;
+}
@@ -0,0 +1,41 @@
+package com.draghici.hub.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.boot.autoconfigure.cache.CacheProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/*
+ * enables the spring cache abstraction, backed by Caffeine.
+ * Size, TTL and statistics of each cache are configured with 'spring.cache.caffeine.spec'.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /* products read by id, evicted by the write paths of ProductServiceImpl */
+    public final static String PRODUCTS_CACHE = "products";
+
+    /*
+     * a synchronous Caffeine cache loads a missing entry inside a ConcurrentHashMap bin lock (a synchronized block),
+     * which pins the carrier of a virtual thread for the whole database query.
+     * The async mode only installs a future under the lock and runs the load on a virtual thread.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public CacheManagerCustomizer<CaffeineCacheManager> virtualThreadsCacheCustomizer(CacheProperties cacheProperties) {
+        return cacheManager -> {
+            var caffeine = Caffeine.from(cacheProperties.getCaffeine().getSpec())
+                    .executor(Executors.newVirtualThreadPerTaskExecutor());
+            cacheManager.setCaffeine(caffeine);
+            cacheManager.setAsyncCacheMode(true);
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.draghici.hub.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufMapper;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/*
+ * binary encodings of the request and response bodies, next to JSON, picked by the Accept and Content-Type headers:
+ * 'application/cbor' (binary JSON, same documents as JSON) and 'application/x-protobuf' (schema generated from the classes).
+ * They come after the JSON converter, so a client without a preference still gets JSON.
+ */
+@Configuration
+@Profile("!reactive")
+public class ContentNegotiationConfig implements WebMvcConfigurer {
+
+    private final Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    public ContentNegotiationConfig(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+        this.objectMapperBuilder = objectMapperBuilder;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        // spring adds a CBOR converter of its own, without the jackson settings of spring boot
+        converters.removeIf(converter -> converter instanceof MappingJackson2CborHttpMessageConverter);
+        converters.add(new MappingJackson2CborHttpMessageConverter(objectMapperBuilder.factory(new CBORFactory()).build()));
+        converters.add(new JacksonProtobufHttpMessageConverter(new ProtobufMapper()));
+    }
+}
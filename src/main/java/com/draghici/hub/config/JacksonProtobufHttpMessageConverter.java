@@ -0,0 +1,161 @@
+package com.draghici.hub.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufMapper;
+import com.fasterxml.jackson.dataformat.protobuf.schema.ProtobufSchema;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * the request and response bodies as Protocol Buffers messages, for 'application/x-protobuf'.
+ *
+ * The schema of a type is generated from its Jackson properties, once. The field numbers are pinned by the
+ * @JsonProperty(index) of every property, so reordering or adding a field does not break the clients:
+ * a type without them has no schema. A list is not a message, it is sent as the 'items' repeated field of a wrapper message.
+ * The generated schema of a type is returned by schema(), for the clients that generate their classes with protoc.
+ */
+public class JacksonProtobufHttpMessageConverter extends AbstractGenericHttpMessageConverter<Object> {
+
+    public final static MediaType APPLICATION_PROTOBUF = new MediaType("application", "x-protobuf");
+
+    private final ProtobufMapper protobufMapper;
+
+    // an empty Optional for the types without a schema (maps, arrays, scalars)
+    private final Map<JavaType, Optional<ProtobufSchema>> schemas = new ConcurrentHashMap<>();
+
+    public JacksonProtobufHttpMessageConverter(ProtobufMapper protobufMapper) {
+        super(APPLICATION_PROTOBUF);
+        this.protobufMapper = protobufMapper;
+    }
+
+    /* the message sent for a list of T */
+    public static class Items<T> {
+
+        @JsonProperty(index = 1)
+        public List<T> items;
+
+        public Items() {
+        }
+
+        Items(List<T> items) {
+            this.items = items;
+        }
+    }
+
+    public Optional<ProtobufSchema> schema(Type type) {
+        return schema(messageType(protobufMapper.constructType(type)));
+    }
+
+    @Override
+    public boolean canRead(Type type, Class<?> contextClass, MediaType mediaType) {
+        return canRead(mediaType) && schema(type).isPresent();
+    }
+
+    /*
+     * a body declared as an Object is checked by its class.
+     * A list declared without its element type is checked when it is written, from its first element
+     */
+    @Override
+    public boolean canWrite(Type type, Class<?> clazz, MediaType mediaType) {
+        if (!canWrite(mediaType)) {
+            return false;
+        }
+        var javaType = protobufMapper.constructType(type == null || type == Object.class ? clazz : type);
+        if (javaType.isCollectionLikeType() && javaType.getContentType().hasRawClass(Object.class)) {
+            return true;
+        }
+        return schema(messageType(javaType)).isPresent();
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return true;
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        var javaType = protobufMapper.constructType(type);
+        var messageType = messageType(javaType);
+        var schema = schema(messageType).orElseThrow(() -> new HttpMessageNotReadableException("No protobuf schema for " + javaType, inputMessage));
+        try {
+            Object message = protobufMapper.readerFor(messageType).with(schema).readValue(inputMessage.getBody());
+            if (messageType == javaType) {
+                return message;
+            }
+            var items = ((Items<?>) message).items;
+            return items != null ? items : List.of();
+        } catch (IOException e) {
+            throw new HttpMessageNotReadableException("Protobuf message not readable: " + e.getMessage(), e, inputMessage);
+        }
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        return read(clazz, null, inputMessage);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected void writeInternal(Object value, Type type, HttpOutputMessage outputMessage) throws IOException {
+        var javaType = protobufMapper.constructType(type != null ? type : value.getClass());
+        if (value instanceof Collection<?> collection) {
+            var elementType = javaType.isCollectionLikeType() ? javaType.getContentType() : null;
+            if ((elementType == null || elementType.hasRawClass(Object.class)) && !collection.isEmpty()) {
+                elementType = protobufMapper.constructType(collection.iterator().next().getClass());
+            }
+            javaType = protobufMapper.getTypeFactory().constructCollectionType(List.class, elementType);
+        } else if (javaType.hasRawClass(Object.class)) {
+            javaType = protobufMapper.constructType(value.getClass());
+        }
+        var messageType = messageType(javaType);
+        var schema = schema(messageType).orElseThrow(() -> new HttpMessageNotWritableException("No protobuf schema for " + messageType));
+        Object message = messageType == javaType ? value : new Items<>(List.copyOf((Collection) value));
+        protobufMapper.writerFor(messageType).with(schema).writeValue(outputMessage.getBody(), message);
+    }
+
+    /* the Items wrapper of a collection, the type itself otherwise */
+    private JavaType messageType(JavaType javaType) {
+        if (javaType.isCollectionLikeType()) {
+            return protobufMapper.getTypeFactory().constructParametricType(Items.class, javaType.getContentType());
+        }
+        return javaType;
+    }
+
+    private Optional<ProtobufSchema> schema(JavaType messageType) {
+        return schemas.computeIfAbsent(messageType, type -> {
+            if (type.isPrimitive() || type.isArrayType() || type.isMapLikeType() || type.isEnumType() || type.getRawClass().getName().startsWith("java.")) {
+                return Optional.empty();
+            }
+            if (!pinned(type)) {
+                logger.debug("No protobuf schema for " + type + ": its properties have no @JsonProperty(index)");
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(protobufMapper.generateSchemaFor(type));
+            } catch (JsonMappingException | IllegalArgumentException | IllegalStateException e) {
+                logger.debug("No protobuf schema for " + type + ": " + e.getMessage());
+                return Optional.empty();
+            }
+        });
+    }
+
+    /* the generator falls back to the declaration order when the properties have no index */
+    private boolean pinned(JavaType type) {
+        var properties = protobufMapper.getSerializationConfig().introspect(type).findProperties();
+        return !properties.isEmpty() && properties.stream().allMatch(property -> property.getMetadata().hasIndex());
+    }
+}
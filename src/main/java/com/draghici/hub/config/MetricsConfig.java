@@ -0,0 +1,49 @@
+package com.draghici.hub.config;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/*
+ * application metrics, next to the ones of spring boot (http.server.requests, hikaricp, hibernate, cache).
+ * All of them are exported on /actuator/prometheus.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /*
+     * times the public methods of the beans annotated with @Timed.
+     * The advisor runs before the cache and transaction ones, so a call served from the cache is timed too
+     * (the TimedAspect of micrometer cannot be ordered, it would only see the cache misses).
+     * The meter registry is looked up on the first call, an advisor is created before the other beans.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    @ConditionalOnProperty(name = "hub.metrics.service-timers.enabled", matchIfMissing = true)
+    public static Advisor timedBeansAdvisor(ObjectProvider<MeterRegistry> meterRegistry) {
+        var pointcut = new StaticMethodMatcherPointcut() {
+            @Override
+            public boolean matches(Method method, Class<?> targetClass) {
+                return Modifier.isPublic(method.getModifiers())
+                        && method.getDeclaringClass() != Object.class
+                        && AnnotatedElementUtils.hasAnnotation(targetClass, Timed.class);
+            }
+        };
+        var advisor = new DefaultPointcutAdvisor(pointcut, new TimedMethodInterceptor(meterRegistry));
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+}
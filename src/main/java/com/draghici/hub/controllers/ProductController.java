@@ -1,38 +1,298 @@
 package com.draghici.hub.controllers;
 
 import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductChanges;
 import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductLookupResult;
+import com.draghici.hub.dto.ProductPage;
+import com.draghici.hub.dto.ProductPrice;
+import com.draghici.hub.dto.ProductSearchHit;
+import com.draghici.hub.config.JacksonProtobufHttpMessageConverter;
+import com.draghici.hub.events.ProductChangeFeed;
 import com.draghici.hub.services.ProductService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import lombok.AllArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/product")
+@Profile("!reactive")
 @AllArgsConstructor
 public class ProductController {
 
+    private final static String APPLICATION_NDJSON = "application/x-ndjson";
+    private final static String PREFER = "Prefer";
+    private final static String RETURN_MINIMAL = "return=minimal";
+    // the encodings of the catalogue, JSON first so that a wildcard gets it
+    private final static List<MediaType> REPRESENTATIONS = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF);
+
     private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final ProductListCache listCache;
+    private final ProductChangeFeed changeFeed;
 
     @Operation(
             summary = "Get the list of products. Auth required",
-            description = "Returns the list of products",
+            description = "Returns the list of products, or 304 when the If-None-Match ETag of the catalogue did not change. " +
+                    "The list is gzip or deflate encoded when the Accept-Encoding header allows it",
             security = @SecurityRequirement(name = "basicAuth"))
     @GetMapping("/all")
-    List<Product> listProduct() {
-        return productService.getAll();
+    @ApiResponse(responseCode = "200", content = @Content(array = @ArraySchema(schema = @Schema(implementation = Product.class))))
+    ResponseEntity<Object> listProduct(WebRequest request) {
+        // the version is read before the rows, so a concurrent write can only make the ETag older than the body
+        var catalogueVersion = productService.getCatalogueVersion();
+        // the cached bytes and the column store view are JSON, a binary encoding gets the products converted for it
+        var mediaType = representation(request.getHeader(HttpHeaders.ACCEPT));
+        var json = MediaType.APPLICATION_JSON.equals(mediaType);
+        if (!listCache.isEnabled() || !json) {
+            var etag = ProductETags.ofCatalogue(catalogueVersion, json || mediaType == null ? null : mediaType.getSubtype());
+            if (request.checkNotModified(etag)) {
+                return null;
+            }
+            var response = ResponseEntity.ok().eTag(etag).varyBy(HttpHeaders.ACCEPT);
+            if (json) {
+                return response.body(products());
+            }
+            // the encoding of the tag, spring answers 406 when the client accepts none of them
+            if (mediaType != null) {
+                response.contentType(mediaType);
+            }
+            return response.body(productService.getAll());
+        }
+
+        var encoding = ProductListCache.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (request.checkNotModified(ProductETags.ofCatalogue(catalogueVersion, encoding.token()))) {
+            return null;
+        }
+        var entry = listCache.get(catalogueVersion, this::products);
+        var response = ResponseEntity.ok()
+                .eTag(ProductETags.ofCatalogue(entry.catalogueVersion(), encoding.token()))
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON);
+        if (encoding.token() != null) {
+            response.header(HttpHeaders.CONTENT_ENCODING, encoding.token());
+        }
+        // the cached bytes are written as they are by the byte array converter
+        return response.body(entry.bytes(encoding));
+    }
+
+    /*
+     * the encoding the client prefers: the first media type of the Accept header with the highest quality,
+     * JSON for a wildcard. Null when the client accepts none of them, spring answers 406 for the converted products
+     */
+    static MediaType representation(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        double best = 0;
+        MediaType representation = null;
+        try {
+            for (var mediaType : MediaType.parseMediaTypes(accept)) {
+                double quality = mediaType.getQualityValue();
+                if (quality <= best) {
+                    continue;
+                }
+                for (var candidate : REPRESENTATIONS) {
+                    if (mediaType.isCompatibleWith(candidate)) {
+                        best = quality;
+                        representation = candidate;
+                        break;
+                    }
+                }
+            }
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+        return representation;
+    }
+
+    /* with the column store the products are written without creating the entities */
+    private Object products() {
+        return productService.getAllAsJson().map(Object.class::cast).orElseGet(productService::getAll);
+    }
+
+    @Operation(
+            summary = "Get a page of products. Auth required",
+            description = "Returns up to 'limit' products with an id greater than 'after' and the cursor of the next page",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/page")
+    ProductPage listProductPage(@RequestParam(name = "after", required = false) Long after,
+                                @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return productService.getPage(after, limit);
+    }
+
+    @Operation(
+            summary = "Get the product changes. Auth required",
+            description = "Returns the products inserted or updated and the ids of the products deleted since the token of the previous call, " +
+                    "up to 'limit' changes, and the token of the next call. Without a token all the products are returned. " +
+                    "An expired token answers 410, the client syncs again without a token",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/changes")
+    ProductChanges listChanges(@RequestParam(name = "since", required = false) String since,
+                               @RequestParam(name = "limit", defaultValue = "1000") int limit) {
+        return productService.getChanges(since, limit);
+    }
+
+    @Operation(
+            summary = "Query products. Auth required",
+            description = "Returns up to 'limit' products with a name starting with 'namePrefix' and a price between 'minPrice' and 'maxPrice', " +
+                    "sorted by 'sort' (id, name or price, prefixed by '-' for a descending order)",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/query")
+    List<Product> queryProducts(@RequestParam(name = "namePrefix", required = false) String namePrefix,
+                                @RequestParam(name = "minPrice", required = false) Double minPrice,
+                                @RequestParam(name = "maxPrice", required = false) Double maxPrice,
+                                @RequestParam(name = "sort", required = false) String sort,
+                                @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return productService.query(namePrefix, minPrice, maxPrice, sort, limit);
+    }
+
+    @Operation(
+            summary = "Count products by price. Auth required",
+            description = "Returns the number of products with a price between 'minPrice' and 'maxPrice'",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/price/count")
+    int countProductsByPrice(@RequestParam(name = "minPrice", required = false) Double minPrice,
+                             @RequestParam(name = "maxPrice", required = false) Double maxPrice) {
+        return productService.countByPrice(minPrice, maxPrice);
+    }
+
+    @Operation(
+            summary = "List products by price. Auth required",
+            description = "Returns the id and price of up to 'limit' products with a price between 'minPrice' and 'maxPrice', the cheapest first",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/price/range")
+    List<ProductPrice> listProductsByPrice(@RequestParam(name = "minPrice", required = false) Double minPrice,
+                                           @RequestParam(name = "maxPrice", required = false) Double maxPrice,
+                                           @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return productService.getByPrice(minPrice, maxPrice, limit);
+    }
+
+    @Operation(
+            summary = "List the cheapest products. Auth required",
+            description = "Returns the id and price of the 'limit' cheapest products",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/price/cheapest")
+    List<ProductPrice> listCheapestProducts(@RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return productService.getCheapest(limit);
+    }
+
+    @Operation(
+            summary = "List the most expensive products. Auth required",
+            description = "Returns the id and price of the 'limit' most expensive products",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/price/most-expensive")
+    List<ProductPrice> listMostExpensiveProducts(@RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return productService.getMostExpensive(limit);
+    }
+
+    @Operation(
+            summary = "Search products. Auth required",
+            description = "Returns up to 'limit' products with a name close to 'q', best matches first. Typos are tolerated",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping("/search")
+    List<ProductSearchHit> searchProducts(@RequestParam(name = "q") String term,
+                                          @RequestParam(name = "limit", defaultValue = "10") int limit) {
+        return productService.search(term, limit);
+    }
+
+    @Operation(
+            summary = "Export all products. Auth required",
+            description = "Streams the whole catalogue as newline-delimited JSON, one product per line",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON)
+    ResponseEntity<StreamingResponseBody> exportProducts() {
+        // let the servlet buffer decide when to flush and keep the response stream open for the container
+        var writer = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        StreamingResponseBody body = outputStream -> {
+            try (var generator = writer.createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                productService.exportAll(product -> {
+                    try {
+                        writer.writeValue(generator, product);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        return ResponseEntity.ok().body(body);
     }
 
     @Operation(
             summary = "Get a product. Auth required. Only admin role",
-            description = "Get product by id",
+            description = "Get product by id, or 304 when the If-None-Match ETag matches its version and encoding",
             security = @SecurityRequirement(name = "basicAuth"))
     @GetMapping("/{id}")
-    Product getOne(@PathVariable("id") Long id) {
-        return productService.getById(id);
+    ResponseEntity<Product> getOne(@PathVariable("id") Long id,
+                                   @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept) {
+        // a matching If-None-Match is answered with 304 by spring, before the body is written
+        var product = productService.getById(id);
+        // each encoding has bytes of its own so a tag of its own, as the catalogue
+        var mediaType = representation(accept);
+        var json = MediaType.APPLICATION_JSON.equals(mediaType);
+        var response = ResponseEntity.ok()
+                .eTag(ProductETags.of(product, json || mediaType == null ? null : mediaType.getSubtype()))
+                .varyBy(HttpHeaders.ACCEPT);
+        if (mediaType != null && !json) {
+            response.contentType(mediaType);
+        }
+        return response.body(product);
+    }
+
+    @Operation(
+            summary = "Follow the product changes. Auth required",
+            description = "Server-Sent Events stream of the created, updated and deleted products, in the commit order. " +
+                    "Reconnecting with the Last-Event-ID header resumes after that event; " +
+                    "a 'reset' event means changes were missed and the catalogue must be read again",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    SseEmitter events(@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId) {
+        return changeFeed.subscribe(lastEventId);
+    }
+
+    @Operation(
+            summary = "Get many products. Auth required",
+            description = "Returns the products of up to 10000 comma separated ids in one call, in the order of the ids. " +
+                    "The missing and invalid ids are listed in 'failures', with the error of a single get",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @GetMapping(params = "ids")
+    ProductLookupResult getMany(@RequestParam("ids") List<Long> ids) {
+        return productService.getByIds(ids);
+    }
+
+    @Operation(
+            summary = "Get many products. Auth required",
+            description = "Same as GET /api/product?ids=..., with the ids as a list in the request body, for the lists too long for a URL",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @PostMapping("/lookup")
+    ProductLookupResult lookup(@RequestBody List<Long> ids) {
+        return productService.getByIds(ids);
     }
 
     @Operation(
@@ -44,13 +304,33 @@ public class ProductController {
         return productService.add(productDto);
     }
 
+    @Operation(
+            summary = "Add a batch of products. Auth required. Only admin role",
+            description = "Add up to 10000 new products in one transaction, the invalid ones are reported by index",
+            security = @SecurityRequirement(name = "basicAuth"))
+    @PostMapping("/batch")
+    ProductBatchResult addBatch(@RequestBody List<ProductDTO> productDtos) {
+        return productService.addAll(productDtos);
+    }
+
     @Operation(
             summary = "Update product. Auth required. Only admin role",
-            description = "Update existing product",
+            description = "Update existing product. With an If-Match ETag, the update fails with 412 if the product was modified meanwhile. " +
+                    "With 'Prefer: return=minimal' the answer is a 204 without the updated product",
             security = @SecurityRequirement(name = "basicAuth"))
     @PatchMapping("/{id}")
-    Product update(@PathVariable("id") Long id, @RequestBody ProductDTO productDto) {
-        return productService.update(id, productDto);
+    ResponseEntity<Product> update(@PathVariable("id") Long id, @RequestBody ProductDTO productDto,
+                                   @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                   @RequestHeader(name = PREFER, required = false) String prefer) {
+        var expectedVersion = ProductETags.expectedVersion(ifMatch);
+        if (!RETURN_MINIMAL.equalsIgnoreCase(prefer)) {
+            return ResponseEntity.ok(productService.update(id, productDto, expectedVersion));
+        }
+
+        productService.updateInPlace(id, productDto, expectedVersion);
+        // a successful conditional update moved the product exactly one version ahead
+        var etag = expectedVersion == null ? null : ProductETags.ofVersion(expectedVersion + 1);
+        return ResponseEntity.noContent().eTag(etag).build();
     }
 
     @Operation(
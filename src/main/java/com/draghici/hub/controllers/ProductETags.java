@@ -0,0 +1,73 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.beans.Product;
+
+/*
+ * strong ETags of the product resources.
+ * A product is tagged with its @Version, the catalogue with the version kept by the service,
+ * prefixed by an id of this instance since that version restarts at 0 with the application.
+ */
+final class ProductETags {
+
+    // never the version of a product, an If-Match that cannot match strongly is turned into it
+    final static long UNMATCHABLE_VERSION = -1L;
+
+    private final static String INSTANCE = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    private ProductETags() {
+    }
+
+    static String of(Product product) {
+        return product.getVersion() == null ? null : ofVersion(product.getVersion());
+    }
+
+    static String ofVersion(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /* the tag of a product in a binary representation, the variant is its media subtype, null for JSON */
+    static String of(Product product, String variant) {
+        if (variant == null || product.getVersion() == null) {
+            return of(product);
+        }
+        return "\"" + product.getVersion() + "-" + variant + "\"";
+    }
+
+    static String ofCatalogue(long catalogueVersion) {
+        return "\"" + INSTANCE + "-" + catalogueVersion + "\"";
+    }
+
+    /*
+     * a binary or a compressed representation has bytes of its own, so a strong tag of its own.
+     * The variant is the media subtype or the content encoding, null for the identity JSON
+     */
+    static String ofCatalogue(long catalogueVersion, String variant) {
+        if (variant == null) {
+            return ofCatalogue(catalogueVersion);
+        }
+        return "\"" + INSTANCE + "-" + catalogueVersion + "-" + variant + "\"";
+    }
+
+    /*
+     * reads the version expected by an If-Match header, from the tag of any representation of the product.
+     * Return null when any version is accepted ('*' or no header).
+     */
+    static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        var etag = ifMatch.trim();
+        // a weak or a list of tags is not supported, it fails the precondition
+        if (etag.length() < 3 || etag.charAt(0) != '"' || etag.charAt(etag.length() - 1) != '"') {
+            return UNMATCHABLE_VERSION;
+        }
+        // the variant of a binary representation follows the version
+        int end = etag.indexOf('-', 2);
+        try {
+            return Long.parseLong(etag.substring(1, end < 0 ? etag.length() - 1 : end));
+        } catch (NumberFormatException e) {
+            return UNMATCHABLE_VERSION;
+        }
+    }
+}
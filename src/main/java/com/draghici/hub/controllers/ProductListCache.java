@@ -0,0 +1,206 @@
+package com.draghici.hub.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * the serialized /all response of the latest catalogue version, enabled with 'hub.product.response-cache.enabled'.
+ *
+ * The JSON bytes are built by the first request after a change of the catalogue, the gzip and deflate variants
+ * by the first request that accepts them. The other requests copy the bytes to the response as they are.
+ * A build runs once: the requests that arrive meanwhile wait for it instead of serializing the list again.
+ * They wait on a ReentrantLock, a virtual thread parked on a monitor would pin its carrier for the whole findAll().
+ */
+@Component
+@Profile("!reactive")
+class ProductListCache {
+
+    private final static Logger logger = LogManager.getLogger(ProductListCache.class);
+
+    enum Encoding {
+        IDENTITY(null), GZIP("gzip"), DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        /* the Content-Encoding value, null for the identity */
+        String token() {
+            return token;
+        }
+    }
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+
+    private volatile Entry entry;
+    // held by the request building the entry
+    private final ReentrantLock buildLock = new ReentrantLock();
+
+    ProductListCache(ObjectMapper objectMapper, @Value("${hub.product.response-cache.enabled:true}") boolean enabled) {
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * the entry of the given catalogue version, or of a later one.
+     * The version is read before the products, so the entry can be tagged older than its bytes, never newer.
+     */
+    Entry get(long catalogueVersion, Supplier<Object> products) {
+        var current = entry;
+        if (current != null && current.catalogueVersion >= catalogueVersion) {
+            return current;
+        }
+        buildLock.lock();
+        try {
+            current = entry;
+            if (current != null && current.catalogueVersion >= catalogueVersion) {
+                return current;
+            }
+            long start = System.nanoTime();
+            try {
+                current = new Entry(catalogueVersion, objectMapper.writeValueAsBytes(products.get()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            entry = current;
+            logger.debug("Product list of catalogue version {} serialized in {} bytes, {} ms", catalogueVersion, current.json.length, (System.nanoTime() - start) / 1_000_000);
+            return current;
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    /*
+     * the coding picked from an Accept-Encoding header: gzip, then deflate, then none.
+     * A coding with q=0 is refused, '*' stands for the codings not listed.
+     */
+    static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return Encoding.IDENTITY;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (var part : acceptEncoding.split(",")) {
+            var parameters = part.split(";");
+            var coding = parameters[0].trim().toLowerCase(Locale.ROOT);
+            double quality = quality(parameters);
+            switch (coding) {
+                case "gzip", "x-gzip" -> gzip = Math.max(gzip, quality);
+                case "deflate" -> deflate = Math.max(deflate, quality);
+                case "*" -> any = quality;
+                default -> {
+                }
+            }
+        }
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+        if (gzip > 0 && gzip >= deflate) {
+            return Encoding.GZIP;
+        }
+        return deflate > 0 ? Encoding.DEFLATE : Encoding.IDENTITY;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            var parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /* the bytes of one catalogue version, the compressed variants made on first use */
+    static final class Entry {
+
+        private final long catalogueVersion;
+        private final byte[] json;
+        private volatile byte[] gzip;
+        private volatile byte[] deflate;
+        // held while a compressed variant is made
+        private final ReentrantLock lock = new ReentrantLock();
+
+        Entry(long catalogueVersion, byte[] json) {
+            this.catalogueVersion = catalogueVersion;
+            this.json = json;
+        }
+
+        long catalogueVersion() {
+            return catalogueVersion;
+        }
+
+        byte[] bytes(Encoding encoding) {
+            return switch (encoding) {
+                case IDENTITY -> json;
+                case GZIP -> gzip != null ? gzip : gzip();
+                case DEFLATE -> deflate != null ? deflate : deflate();
+            };
+        }
+
+        private byte[] gzip() {
+            lock.lock();
+            try {
+                if (gzip == null) {
+                    var out = new ByteArrayOutputStream(json.length / 4);
+                    try (var gzipOut = new GZIPOutputStream(out, 64 * 1024)) {
+                        gzipOut.write(json);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    gzip = out.toByteArray();
+                }
+                return gzip;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /* the HTTP deflate coding is the zlib format, with its header and checksum */
+        private byte[] deflate() {
+            lock.lock();
+            try {
+                if (deflate == null) {
+                    var out = new ByteArrayOutputStream(json.length / 4);
+                    var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                    try (var deflateOut = new DeflaterOutputStream(out, deflater, 64 * 1024)) {
+                        deflateOut.write(json);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        deflater.end();
+                    }
+                    deflate = out.toByteArray();
+                }
+                return deflate;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
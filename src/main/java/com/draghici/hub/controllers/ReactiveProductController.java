@@ -0,0 +1,70 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductPage;
+import com.draghici.hub.services.ReactiveProductService;
+import lombok.AllArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/*
+ * the /api/product contract of ProductController on WebFlux, active with the 'reactive' profile.
+ * The errors are translated by the same GlobalExceptionHandler.
+ */
+@RestController
+@RequestMapping("/api/product")
+@Profile("reactive")
+@AllArgsConstructor
+public class ReactiveProductController {
+
+    private final ReactiveProductService productService;
+
+    /* streamed as a JSON array, with backpressure down to the database cursor */
+    @GetMapping("/all")
+    Flux<Product> listProduct() {
+        return productService.getAll();
+    }
+
+    @GetMapping("/page")
+    Mono<ProductPage> listProductPage(@RequestParam(name = "after", required = false) Long after,
+                                      @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return productService.getPage(after, limit);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    Flux<Product> exportProducts() {
+        return productService.getAll();
+    }
+
+    @GetMapping("/{id}")
+    Mono<Product> getOne(@PathVariable("id") Long id) {
+        return productService.getById(id);
+    }
+
+    @PostMapping()
+    Mono<Product> add(@RequestBody ProductDTO productDto) {
+        return productService.add(productDto);
+    }
+
+    @PostMapping("/batch")
+    Mono<ProductBatchResult> addBatch(@RequestBody List<ProductDTO> productDtos) {
+        return productService.addAll(productDtos);
+    }
+
+    @PatchMapping("/{id}")
+    Mono<Product> update(@PathVariable("id") Long id, @RequestBody ProductDTO productDto) {
+        return productService.update(id, productDto);
+    }
+
+    @DeleteMapping("/{id}")
+    Mono<Void> deleteById(@PathVariable("id") Long id) {
+        return productService.delete(id);
+    }
+}
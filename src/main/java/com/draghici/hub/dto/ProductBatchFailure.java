@@ -0,0 +1,19 @@
+package com.draghici.hub.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* a rejected item of a batch, 'index' is its position in the request body */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBatchFailure {
+    @JsonProperty(index = 1)
+    int index;
+    @JsonProperty(index = 2)
+    String errorMessage;
+    @JsonProperty(index = 3)
+    int errorCode;
+}
@@ -0,0 +1,19 @@
+package com.draghici.hub.dto;
+
+import com.draghici.hub.beans.Product;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductBatchResult {
+    @JsonProperty(index = 1)
+    List<Product> created;
+    @JsonProperty(index = 2)
+    List<ProductBatchFailure> failures;
+}
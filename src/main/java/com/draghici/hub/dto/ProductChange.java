@@ -0,0 +1,24 @@
+package com.draghici.hub.dto;
+
+import com.draghici.hub.events.ProductChangedEvent;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/* a committed product change of the change feed, numbered in the commit order. Immutable, it is shared by all the subscribers */
+@Getter
+@AllArgsConstructor
+public class ProductChange {
+
+    private final long sequence;
+    private final ProductChangedEvent.Type type;
+    private final long productId;
+
+    // the current name, also on a price-only update. Null when the product was deleted
+    private final String name;
+    private final Double price;
+
+    public static ProductChange of(long sequence, ProductChangedEvent event) {
+        var deleted = event.getType() == ProductChangedEvent.Type.DELETED;
+        return new ProductChange(sequence, event.getType(), event.getProductId(), event.getName(), deleted ? null : event.getPrice());
+    }
+}
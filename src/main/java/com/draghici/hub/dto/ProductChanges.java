@@ -0,0 +1,27 @@
+package com.draghici.hub.dto;
+
+import com.draghici.hub.beans.Product;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/*
+ * the products inserted or updated and the ids of the products deleted since a change token, in the order of the changes.
+ * 'nextToken' is the token of the next call, 'more' tells that more changes are waiting after this page.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductChanges {
+    @JsonProperty(index = 1)
+    List<Product> products;
+    @JsonProperty(index = 2)
+    List<Long> deletedIds;
+    @JsonProperty(index = 3)
+    String nextToken;
+    @JsonProperty(index = 4)
+    boolean more;
+}
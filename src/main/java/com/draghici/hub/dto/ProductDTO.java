@@ -1,5 +1,6 @@
 package com.draghici.hub.dto;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -10,6 +11,8 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ProductDTO {
+    @JsonProperty(index = 1)
     String name;
+    @JsonProperty(index = 2)
     double price;
 }
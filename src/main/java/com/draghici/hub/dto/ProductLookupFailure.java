@@ -0,0 +1,19 @@
+package com.draghici.hub.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/* a requested id that could not be resolved, with the error that ProductService.getById would have thrown for it */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductLookupFailure {
+    @JsonProperty(index = 1)
+    Long id;
+    @JsonProperty(index = 2)
+    String errorMessage;
+    @JsonProperty(index = 3)
+    int errorCode;
+}
@@ -0,0 +1,20 @@
+package com.draghici.hub.dto;
+
+import com.draghici.hub.beans.Product;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/* the products found, in the order of the requested ids, and the ids that were not */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductLookupResult {
+    @JsonProperty(index = 1)
+    List<Product> products;
+    @JsonProperty(index = 2)
+    List<ProductLookupFailure> failures;
+}
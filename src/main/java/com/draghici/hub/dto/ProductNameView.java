@@ -0,0 +1,11 @@
+package com.draghici.hub.dto;
+
+/* id, name and version of a product, read without loading the entity */
+public interface ProductNameView {
+
+    Long getId();
+
+    String getName();
+
+    Long getVersion();
+}
@@ -0,0 +1,23 @@
+package com.draghici.hub.dto;
+
+import com.draghici.hub.beans.Product;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/*
+ * one page of the keyset-paginated product listing.
+ * 'nextCursor' is the id to pass as 'after' for the next page, or null when the last page was reached.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPage {
+    @JsonProperty(index = 1)
+    List<Product> products;
+    @JsonProperty(index = 2)
+    Long nextCursor;
+}
@@ -0,0 +1,17 @@
+package com.draghici.hub.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductPrice {
+
+    @JsonProperty(index = 1)
+    Long id;
+    @JsonProperty(index = 2)
+    double price;
+}
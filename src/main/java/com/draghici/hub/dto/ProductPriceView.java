@@ -0,0 +1,11 @@
+package com.draghici.hub.dto;
+
+/* id, price and version of a product, read without loading the entity */
+public interface ProductPriceView {
+
+    Long getId();
+
+    double getPrice();
+
+    Long getVersion();
+}
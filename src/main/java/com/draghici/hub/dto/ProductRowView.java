@@ -0,0 +1,13 @@
+package com.draghici.hub.dto;
+
+/* all the columns of a product, read without loading the entity */
+public interface ProductRowView {
+
+    Long getId();
+
+    String getName();
+
+    double getPrice();
+
+    Long getVersion();
+}
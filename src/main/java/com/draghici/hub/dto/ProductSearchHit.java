@@ -0,0 +1,21 @@
+package com.draghici.hub.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductSearchHit {
+
+    @JsonProperty(index = 1)
+    Long id;
+    @JsonProperty(index = 2)
+    String name;
+
+    // share of the n-grams of the search term found in the name, from 0 to 1
+    @JsonProperty(index = 3)
+    double score;
+}
@@ -0,0 +1,273 @@
+package com.draghici.hub.events;
+
+import com.draghici.hub.dto.ProductChange;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Server-Sent Events feed of the committed product changes (/api/product/events).
+ *
+ * Each change gets the next sequence number and is kept in a ring buffer of the last 'buffer-size' changes.
+ * The event id is '<epoch>.<sequence>', the epoch is the start time of the application: a client reconnecting with
+ * the Last-Event-ID of this run resumes right after it, otherwise it gets a 'reset' event and must read the catalogue again.
+ *
+ * The write path only stores the change and wakes the dispatcher thread, it never waits for a subscriber.
+ * The dispatcher hands each subscriber with something to send to a virtual thread, which writes the changes from
+ * the subscriber's own position in the ring: a slow client delays nobody else. A client that falls behind the ring
+ * gets a 'reset' event and continues from the latest change.
+ */
+@Component
+@Profile("!reactive")
+public class ProductChangeFeed {
+
+    private final static Logger logger = LogManager.getLogger(ProductChangeFeed.class);
+
+    final static String RESET_EVENT = "reset";
+
+    private final long epoch = System.currentTimeMillis();
+    private final ProductChange[] ring;
+    private final int mask;
+    private final long timeoutMillis;
+    private final long heartbeatNanos;
+
+    // serializes the writers only, the subscribers never take it
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // sequence of the latest change in the ring, 0 before the first one
+    private volatile long published;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    private final Counter resets;
+
+    public ProductChangeFeed(MeterRegistry meterRegistry,
+                             @Value("${hub.product.change-feed.buffer-size:8192}") int bufferSize,
+                             @Value("${hub.product.change-feed.timeout:30m}") Duration timeout,
+                             @Value("${hub.product.change-feed.heartbeat:15s}") Duration heartbeat) {
+        // a power of 2, so the slot of a sequence is a mask
+        int capacity = Integer.highestOneBit(Math.max(bufferSize - 1, 1)) << 1;
+        this.ring = new ProductChange[capacity];
+        this.mask = capacity - 1;
+        this.timeoutMillis = timeout.toMillis();
+        this.heartbeatNanos = heartbeat.toNanos();
+
+        Gauge.builder("hub.product.change.feed.subscribers", subscribers, Set::size)
+                .description("Open connections of the product change feed")
+                .register(meterRegistry);
+        Gauge.builder("hub.product.change.feed.sequence", this, feed -> feed.published)
+                .description("Sequence of the latest product change")
+                .register(meterRegistry);
+        resets = Counter.builder("hub.product.change.feed.resets")
+                .description("Subscribers that missed changes and were told to read the catalogue again")
+                .register(meterRegistry);
+
+        dispatcher = Thread.ofPlatform().name("product-change-feed").daemon().start(this::dispatchLoop);
+        logger.info("Product change feed started, the last {} changes can be resumed", capacity);
+    }
+
+    /* the write was committed, or there was no transaction */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        appendLock.lock();
+        try {
+            long sequence = published + 1;
+            ring[(int) sequence & mask] = ProductChange.of(sequence, event);
+            published = sequence;
+        } finally {
+            appendLock.unlock();
+        }
+        LockSupport.unpark(dispatcher);
+    }
+
+    /*
+     * a new connection, live from the latest change or resumed after 'lastEventId'.
+     * The changes sent before spring starts the response are buffered by the emitter
+     */
+    public SseEmitter subscribe(String lastEventId) {
+        return subscribe(lastEventId, new SseEmitter(timeoutMillis));
+    }
+
+    SseEmitter subscribe(String lastEventId, SseEmitter emitter) {
+        var subscriber = new Subscriber(emitter);
+        var latest = published;
+        var resumeAfter = resumeAfter(lastEventId, latest);
+        if (resumeAfter < 0) {
+            subscriber.resetDue = true;
+            subscriber.cursor = latest;
+        } else {
+            subscriber.cursor = resumeAfter;
+        }
+
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        subscriber.wake(false);
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        LockSupport.unpark(dispatcher);
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        subscribers.clear();
+        senders.shutdown();
+    }
+
+    /*
+     * the sequence to resume after, the latest one without an id.
+     * -1 when the changes after the id are not all in the ring: another run, a malformed id or a change already overwritten
+     */
+    private long resumeAfter(String lastEventId, long latest) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return latest;
+        }
+        int dot = lastEventId.indexOf('.');
+        try {
+            if (dot < 0 || Long.parseLong(lastEventId, 0, dot, 10) != epoch) {
+                return -1;
+            }
+            long sequence = Long.parseLong(lastEventId, dot + 1, lastEventId.length(), 10);
+            return sequence <= latest && latest - sequence <= ring.length ? sequence : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String eventId(long sequence) {
+        return epoch + "." + sequence;
+    }
+
+    /* wakes the subscribers once per burst of changes, and every 'heartbeat' so the idle connections are kept open */
+    private void dispatchLoop() {
+        long dispatched = 0;
+        long lastHeartbeat = System.nanoTime();
+        while (running) {
+            LockSupport.parkNanos(this, heartbeatNanos);
+            long now = System.nanoTime();
+            var heartbeat = now - lastHeartbeat >= heartbeatNanos;
+            if (heartbeat) {
+                lastHeartbeat = now;
+            }
+            long sequence = published;
+            if (sequence == dispatched && !heartbeat) {
+                continue;
+            }
+            dispatched = sequence;
+            for (var subscriber : subscribers) {
+                subscriber.wake(heartbeat);
+            }
+        }
+    }
+
+    /* a connection and its position in the ring. Only one sender at a time works on it */
+    private final class Subscriber implements Runnable {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // sequence of the last change sent, only read and written by the sender
+        private long cursor;
+        private volatile boolean resetDue;
+        private volatile boolean heartbeatDue;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void wake(boolean heartbeat) {
+            if (heartbeat) {
+                heartbeatDue = true;
+            }
+            if (running && scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        /* a change published after the last check is sent by this run, or schedules the next one */
+        @Override
+        public void run() {
+            try {
+                do {
+                    send();
+                    scheduled.set(false);
+                } while (pending() && scheduled.compareAndSet(false, true));
+            } catch (IOException | IllegalStateException e) {
+                // the client is gone, or the emitter was completed
+                subscribers.remove(this);
+                scheduled.set(false);
+                logger.debug("Change feed subscriber disconnected: {}", e.getMessage());
+            }
+        }
+
+        private boolean pending() {
+            return running && subscribers.contains(this) && (cursor < published || resetDue || heartbeatDue);
+        }
+
+        private void send() throws IOException {
+            if (resetDue) {
+                reset();
+            }
+            long latest = published;
+            var sent = false;
+            while (cursor < latest) {
+                long next = cursor + 1;
+                var change = ring[(int) next & mask];
+                if (change == null || change.getSequence() != next) {
+                    // overwritten by a newer change, this subscriber fell behind the ring
+                    reset();
+                    latest = cursor;
+                    break;
+                }
+                emitter.send(SseEmitter.event()
+                        .id(eventId(next))
+                        .name(change.getType().name().toLowerCase(Locale.ROOT))
+                        .data(change, MediaType.APPLICATION_JSON));
+                cursor = next;
+                sent = true;
+            }
+            if (heartbeatDue) {
+                heartbeatDue = false;
+                if (!sent) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                }
+            }
+        }
+
+        /* the changes in between are lost, the client reads the catalogue again and continues from the latest change */
+        private void reset() throws IOException {
+            resetDue = false;
+            resets.increment();
+            long latest = published;
+            emitter.send(SseEmitter.event().id(eventId(latest)).name(RESET_EVENT).data(latest));
+            cursor = latest;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.draghici.hub.events;
+
+import com.draghici.hub.beans.Product;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/*
+ * published by ProductServiceImpl for every write of a product.
+ * The listeners keep their in-memory views of the catalogue up to date, after the commit of the write.
+ * The events of two concurrent writes can reach a listener in any order: the version tells the latest one.
+ */
+@Getter
+@AllArgsConstructor
+public class ProductChangedEvent {
+
+    public enum Type {CREATED, UPDATED, DELETED}
+
+    private final Type type;
+    private final long productId;
+
+    // the committed name, null when the product was deleted
+    private final String name;
+
+    // 0 when the product was deleted
+    private final double price;
+
+    // the committed version of the product, 0 when it was deleted
+    private final long version;
+
+    // the modification sequence of the write (see ProductChangeTracker)
+    private final long modSeq;
+
+    public static ProductChangedEvent created(Product product) {
+        return new ProductChangedEvent(Type.CREATED, product.getId(), product.getName(), product.getPrice(), product.getVersion(), product.getModSeq());
+    }
+
+    public static ProductChangedEvent updated(long productId, String name, double price, long version, long modSeq) {
+        return new ProductChangedEvent(Type.UPDATED, productId, name, price, version, modSeq);
+    }
+
+    public static ProductChangedEvent deleted(long productId, long modSeq) {
+        return new ProductChangedEvent(Type.DELETED, productId, null, 0.0d, 0L, modSeq);
+    }
+}
@@ -16,13 +16,13 @@ public class GlobalExceptionHandler {
     /*
      * handles the custom 'ProductException' exceptions.
      * Return the received error code.
+     * The WARN lines are rate limited by a BurstFilter in the log4j configuration.
      */
     @ExceptionHandler(ProductException.class)
     ResponseEntity<HubException> handleProductException(ProductException ex) {
         logger.warn(ex.getMessage());
 
-        var exceptionResponse = new HubException(ex.getMessage(), ex.getErrorCode());
-        return ResponseEntity.status(ex.getErrorCode()).body(exceptionResponse);
+        return ResponseEntity.status(ex.getErrorCode()).body(ex.getHubException());
     }
 
     /*
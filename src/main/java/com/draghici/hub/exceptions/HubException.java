@@ -1,12 +1,14 @@
 package com.draghici.hub.exceptions;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
 
-@Data
-@AllArgsConstructor
+/* the error body of the API. Immutable: the preallocated ProductExceptions share one instance across all the requests */
+@Value
 public class HubException {
 
+    @JsonProperty(index = 1)
     String errorMessage;
+    @JsonProperty(index = 2)
     int errorCode;
 }
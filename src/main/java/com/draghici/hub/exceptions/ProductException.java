@@ -7,13 +7,23 @@ public class ProductException extends RuntimeException {
 
     private final int errorCode;
 
+    // the response body, built with the exception so that a preallocated exception also preallocates its body
+    private final HubException hubException;
+
+    /*
+     * expected business errors (not found, validation) are stackless:
+     * they are thrown on hot paths and a stack trace would never be read.
+     * Such an exception is immutable, so it can be preallocated and thrown by many threads.
+     */
     public ProductException(String message, int errorCode) {
-        super(message);
+        super(message, null, false, false);
         this.errorCode = errorCode;
+        this.hubException = new HubException(message, errorCode);
     }
 
     public ProductException(String message, int errorCode, Throwable cause) {
         super(message, cause);
         this.errorCode = errorCode;
+        this.hubException = new HubException(message, errorCode);
     }
 }
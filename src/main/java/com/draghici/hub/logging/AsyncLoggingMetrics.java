@@ -0,0 +1,47 @@
+package com.draghici.hub.logging;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.async.AsyncLoggerConfig;
+import org.apache.logging.log4j.core.jmx.RingBufferAdmin;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/* state of the async logging pipeline, exported over JMX when the 'async-logging' profile is active */
+@Component
+@Profile("async-logging")
+@ManagedResource(objectName = "com.draghici.hub:type=AsyncLogging", description = "Async logging ring buffer")
+public class AsyncLoggingMetrics {
+
+    @ManagedAttribute(description = "Slots of the ring buffer")
+    public long getBufferSize() {
+        var ringBuffer = ringBuffer();
+        return ringBuffer == null ? 0 : ringBuffer.getBufferSize();
+    }
+
+    @ManagedAttribute(description = "Events waiting to be written by the appenders")
+    public long getQueuedEvents() {
+        var ringBuffer = ringBuffer();
+        return ringBuffer == null ? 0 : ringBuffer.getBufferSize() - ringBuffer.getRemainingCapacity();
+    }
+
+    @ManagedAttribute(description = "Events dropped because the ring buffer was full")
+    public long getDiscardedEvents() {
+        return CountingDiscardingQueueFullPolicy.getDiscardedEvents();
+    }
+
+    /* looked up on every call, a reconfiguration replaces the ring buffer. All the async loggers share it,
+     * it does not exist when the active configuration is not the async one */
+    private static RingBufferAdmin ringBuffer() {
+        if (!(LogManager.getContext(false) instanceof LoggerContext context)) {
+            return null;
+        }
+        var configuration = context.getConfiguration();
+        if (!(configuration.getRootLogger() instanceof AsyncLoggerConfig)) {
+            return null;
+        }
+        return configuration.getAsyncLoggerConfigDelegate().createRingBufferAdmin(context.getName(), "");
+    }
+}
@@ -0,0 +1,46 @@
+package com.draghici.hub.logging;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.ThreadContext;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/*
+ * stamps every request with a correlation id in the log4j thread context, printed by the layouts as %X{correlationId}.
+ * The id of the caller is reused when it looks sane, otherwise a new one is generated. It is echoed in the response.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CorrelationIdFilter extends OncePerRequestFilter {
+
+    public final static String CORRELATION_ID_HEADER = "X-Correlation-ID";
+    public final static String CORRELATION_ID_KEY = "correlationId";
+
+    private final static Pattern VALID_CORRELATION_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        var correlationId = request.getHeader(CORRELATION_ID_HEADER);
+        if (correlationId == null || !VALID_CORRELATION_ID.matcher(correlationId).matches()) {
+            correlationId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        }
+
+        ThreadContext.put(CORRELATION_ID_KEY, correlationId);
+        response.setHeader(CORRELATION_ID_HEADER, correlationId);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ThreadContext.remove(CORRELATION_ID_KEY);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.draghici.hub.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.async.AsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.DefaultAsyncQueueFullPolicy;
+import org.apache.logging.log4j.core.async.EventRoute;
+import org.apache.logging.log4j.util.PropertiesUtil;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * what the async loggers do when their ring buffer is full.
+ * The events at 'log4j2.discardThreshold' or less severe are dropped and counted, the others wait for a free slot.
+ * Selected with 'log4j2.asyncQueueFullPolicy' in log4j2.component.properties.
+ */
+public class CountingDiscardingQueueFullPolicy implements AsyncQueueFullPolicy {
+
+    private final static LongAdder DISCARDED_EVENTS = new LongAdder();
+
+    private final Level threshold;
+    private final AsyncQueueFullPolicy delegate = new DefaultAsyncQueueFullPolicy();
+
+    public CountingDiscardingQueueFullPolicy() {
+        var thresholdName = PropertiesUtil.getProperties().getStringProperty("log4j2.discardThreshold", "DEBUG");
+        this.threshold = Level.toLevel(thresholdName, Level.DEBUG);
+    }
+
+    @Override
+    public EventRoute getRoute(long backgroundThreadId, Level level) {
+        if (level.isLessSpecificThan(threshold)) {
+            DISCARDED_EVENTS.increment();
+            return EventRoute.DISCARD;
+        }
+        return delegate.getRoute(backgroundThreadId, level);
+    }
+
+    public static long getDiscardedEvents() {
+        return DISCARDED_EVENTS.sum();
+    }
+}
@@ -0,0 +1,14 @@
+package com.draghici.hub.logging;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+/* markers used by the log4j filters to tell the high volume lines apart from the audit ones */
+public final class LogMarkers {
+
+    /* the "API Request: ..." line written at the start of every service call */
+    public final static Marker API_REQUEST = MarkerManager.getMarker("API_REQUEST");
+
+    private LogMarkers() {
+    }
+}
@@ -0,0 +1,75 @@
+package com.draghici.hub.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.config.Node;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.filter.AbstractFilter;
+import org.apache.logging.log4j.message.Message;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * keeps one event out of 'oneIn' among the events carrying 'marker', the other events are not affected.
+ * Usage: <SamplingFilter marker="API_REQUEST" oneIn="10"/>
+ */
+@Plugin(name = "SamplingFilter", category = Node.CATEGORY, elementType = Filter.ELEMENT_TYPE, printObject = true)
+public final class SamplingFilter extends AbstractFilter {
+
+    private final String marker;
+    private final long oneIn;
+    private final AtomicLong counter = new AtomicLong();
+
+    private SamplingFilter(String marker, long oneIn) {
+        super(Result.NEUTRAL, Result.DENY);
+        this.marker = marker;
+        this.oneIn = oneIn;
+    }
+
+    @PluginFactory
+    public static SamplingFilter createFilter(@PluginAttribute("marker") String marker,
+                                              @PluginAttribute(value = "oneIn", defaultLong = 1) long oneIn) {
+        if (marker == null) {
+            LOGGER.error("A marker must be provided for SamplingFilter");
+            return null;
+        }
+        return new SamplingFilter(marker, Math.max(1, oneIn));
+    }
+
+    @Override
+    public Result filter(LogEvent event) {
+        return filter(event.getMarker());
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Message msg, Throwable t) {
+        return filter(marker);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, Object msg, Throwable t) {
+        return filter(marker);
+    }
+
+    @Override
+    public Result filter(Logger logger, Level level, Marker marker, String msg, Object... params) {
+        return filter(marker);
+    }
+
+    private Result filter(Marker eventMarker) {
+        if (eventMarker == null || !eventMarker.isInstanceOf(marker)) {
+            return Result.NEUTRAL;
+        }
+        return counter.getAndIncrement() % oneIn == 0 ? onMatch : onMismatch;
+    }
+
+    @Override
+    public String toString() {
+        return "marker=" + marker + ", oneIn=" + oneIn;
+    }
+}
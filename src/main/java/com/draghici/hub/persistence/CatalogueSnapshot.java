@@ -0,0 +1,209 @@
+package com.draghici.hub.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/*
+ * binary snapshot of the P_PRODUCTS rows, in a single file.
+ *
+ * Layout (big-endian): a 32 bytes header (magic, format version, sequence of the first change log to replay, row count),
+ * the rows (id, version, price, name length, UTF-8 name) and the CRC32C of the rows.
+ * A snapshot is written to a temporary file, synced and renamed, so a reader never sees a partial one.
+ * It is read through memory-mapped windows: the rows are decoded straight from the page cache, without read() copies.
+ */
+public final class CatalogueSnapshot {
+
+    static final long MAGIC = 0x4855_4250_534E_4150L; // "HUBPSNAP"
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    // id, version, price and the name length
+    private static final int ROW_FIXED_SIZE = 8 + 8 + 8 + 4;
+    private static final int CRC_SIZE = 4;
+
+    // a mapped window is at most 2 GB, a smaller one keeps the address space reserved at once small
+    private static final long WINDOW_SIZE = 256L << 20;
+
+    private CatalogueSnapshot() {
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(long id, String name, double price, long version);
+    }
+
+    /* logSequence: the change logs from this sequence on are replayed on top of the snapshot */
+    public record Header(long logSequence, long rows) {
+    }
+
+    public static Writer writer(Path file, long logSequence) throws IOException {
+        return new Writer(file, logSequence);
+    }
+
+    public static Header readHeader(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + CRC_SIZE) {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            return header(channel, file);
+        }
+    }
+
+    /* decodes all the rows, after checking the header and the CRC */
+    public static Header read(Path file, RowConsumer consumer) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + CRC_SIZE) {
+                throw new IOException("Snapshot " + file + " is truncated");
+            }
+            var result = header(channel, file);
+            long rowsEnd = size - CRC_SIZE;
+            verify(channel, rowsEnd, file);
+
+            var rows = new Window(channel, rowsEnd);
+            byte[] name = new byte[256];
+            for (long row = 0; row < result.rows(); row++) {
+                var buffer = rows.require(ROW_FIXED_SIZE);
+                long id = buffer.getLong();
+                long version = buffer.getLong();
+                double price = buffer.getDouble();
+                int length = buffer.getInt();
+                if (length > name.length) {
+                    name = new byte[Math.max(length, name.length * 2)];
+                }
+                rows.require(length).get(name, 0, length);
+                consumer.accept(id, new String(name, 0, length, StandardCharsets.UTF_8), price, version);
+            }
+            if (rows.position() != rowsEnd) {
+                throw new IOException("Snapshot " + file + " does not match its row count");
+            }
+            return result;
+        }
+    }
+
+    private static Header header(FileChannel channel, Path file) throws IOException {
+        var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getLong() != MAGIC || header.getInt() != FORMAT_VERSION) {
+            throw new IOException("Snapshot " + file + " has an unknown format");
+        }
+        header.getInt();
+        return new Header(header.getLong(), header.getLong());
+    }
+
+    private static void verify(FileChannel channel, long rowsEnd, Path file) throws IOException {
+        var crc = new CRC32C();
+        for (long position = HEADER_SIZE; position < rowsEnd; position += WINDOW_SIZE) {
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, rowsEnd - position)));
+        }
+        var stored = channel.map(FileChannel.MapMode.READ_ONLY, rowsEnd, CRC_SIZE).getInt();
+        if (stored != (int) crc.getValue()) {
+            throw new IOException("Snapshot " + file + " is corrupted, its CRC does not match");
+        }
+    }
+
+    /* a sliding read-only mapping: a row that does not fit in the current window starts the next one */
+    private static final class Window {
+
+        private final FileChannel channel;
+        private final long end;
+        private long base = HEADER_SIZE;
+        private MappedByteBuffer buffer;
+
+        Window(FileChannel channel, long end) throws IOException {
+            this.channel = channel;
+            this.end = end;
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW_SIZE, end - base));
+        }
+
+        ByteBuffer require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                base += buffer.position();
+                if (end - base < bytes) {
+                    throw new IOException("Snapshot row past the end of the file");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(Math.max(WINDOW_SIZE, bytes), end - base));
+            }
+            return buffer;
+        }
+
+        long position() {
+            return base + buffer.position();
+        }
+    }
+
+    /* the rows are encoded in a direct buffer, flushed to the file when full. complete() publishes the snapshot */
+    public static final class Writer implements Closeable {
+
+        private final Path file;
+        private final Path temporary;
+        private final long logSequence;
+        private final FileChannel channel;
+        private final CRC32C crc = new CRC32C();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+        private long rows;
+        private boolean completed;
+
+        private Writer(Path file, long logSequence) throws IOException {
+            this.file = file;
+            this.temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            this.logSequence = logSequence;
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(HEADER_SIZE);
+        }
+
+        public void write(long id, String name, double price, long version) throws IOException {
+            var bytes = name.getBytes(StandardCharsets.UTF_8);
+            int size = ROW_FIXED_SIZE + bytes.length;
+            if (buffer.remaining() < size) {
+                flush();
+                if (buffer.capacity() < size) {
+                    buffer = ByteBuffer.allocateDirect(size);
+                }
+            }
+            buffer.putLong(id).putLong(version).putDouble(price).putInt(bytes.length).put(bytes);
+            rows++;
+        }
+
+        /* writes the header and the CRC, syncs the file and renames it over the previous snapshot */
+        public Header complete() throws IOException {
+            flush();
+            channel.write(ByteBuffer.allocate(CRC_SIZE).putInt(0, (int) crc.getValue()));
+            var header = ByteBuffer.allocate(HEADER_SIZE)
+                    .putLong(MAGIC).putInt(FORMAT_VERSION).putInt(0).putLong(logSequence).putLong(rows)
+                    .flip();
+            channel.write(header, 0);
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            completed = true;
+            return new Header(logSequence, rows);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /* an incomplete snapshot is discarded, the previous one stays in place */
+        @Override
+        public void close() throws IOException {
+            if (!completed) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
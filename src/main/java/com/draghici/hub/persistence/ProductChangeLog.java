@@ -0,0 +1,170 @@
+package com.draghici.hub.persistence;
+
+import com.draghici.hub.events.ProductChangedEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/*
+ * append-only log of the committed product changes, in numbered files ('changes-<sequence>.log').
+ *
+ * A record is framed by its length and its CRC32C: a record cut by a crash is detected and ends the replay of its file.
+ * A snapshot rotates to a new file first, the files before it are deleted once the snapshot is published.
+ * The records are written without fsync, they survive a crash of the process but not of the machine.
+ */
+public class ProductChangeLog implements Closeable {
+
+    private final static Logger logger = LogManager.getLogger(ProductChangeLog.class);
+
+    private static final Pattern FILE_NAME = Pattern.compile("changes-(\\d{19})\\.log");
+
+    // length and CRC, then the type, id, price, committed version and name length
+    private static final int FRAME_SIZE = 4 + 4;
+    private static final int RECORD_FIXED_SIZE = 1 + 8 + 8 + 8 + 4;
+
+    private static final ProductChangedEvent.Type[] TYPES = ProductChangedEvent.Type.values();
+
+    private final Path directory;
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer buffer = ByteBuffer.allocate(1024);
+    private FileChannel channel;
+    private long sequence = -1;
+
+    public ProductChangeLog(Path directory) {
+        this.directory = directory;
+    }
+
+    /* the sequences of the log files in the directory, ascending */
+    public List<Long> sequences() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> FILE_NAME.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /* replays the records of one file in order. Return the number of records */
+    public long replay(long sequence, Consumer<ProductChangedEvent> consumer) throws IOException {
+        var file = file(sequence);
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long count = 0;
+            byte[] name = new byte[256];
+            while (records.remaining() >= FRAME_SIZE) {
+                int length = records.getInt();
+                int stored = records.getInt();
+                if (length < RECORD_FIXED_SIZE || length > records.remaining()) {
+                    break;
+                }
+                var record = records.slice(records.position(), length);
+                var check = new CRC32C();
+                check.update(record.duplicate());
+                if ((int) check.getValue() != stored) {
+                    break;
+                }
+                records.position(records.position() + length);
+
+                var type = TYPES[record.get()];
+                long id = record.getLong();
+                double price = record.getDouble();
+                long version = record.getLong();
+                int nameLength = record.getInt();
+                String productName = null;
+                if (nameLength >= 0) {
+                    if (nameLength > name.length) {
+                        name = new byte[nameLength];
+                    }
+                    record.get(name, 0, nameLength);
+                    productName = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+                }
+                consumer.accept(new ProductChangedEvent(type, id, productName, price, version, 0L));
+                count++;
+            }
+            if (records.hasRemaining()) {
+                logger.warn("Change log {} ends with an incomplete record, the {} bytes after record {} are ignored", file, records.remaining(), count);
+            }
+            return count;
+        }
+    }
+
+    /* the next changes are appended to a new file. Return its sequence */
+    public synchronized long rotate() throws IOException {
+        long next = sequence + 1;
+        var previous = channel;
+        channel = FileChannel.open(file(next), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        sequence = next;
+        if (previous != null) {
+            previous.close();
+        }
+        return next;
+    }
+
+    /* continues after the given sequence, the existing files are kept */
+    public synchronized long open(long lastSequence) throws IOException {
+        sequence = lastSequence;
+        return rotate();
+    }
+
+    public synchronized void append(ProductChangedEvent event) throws IOException {
+        if (channel == null) {
+            throw new IOException("The change log is closed");
+        }
+        var name = event.getName() == null ? null : event.getName().getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_FIXED_SIZE + (name == null ? 0 : name.length);
+        if (buffer.capacity() < FRAME_SIZE + length) {
+            buffer = ByteBuffer.allocate(FRAME_SIZE + length);
+        }
+        buffer.clear().position(FRAME_SIZE);
+        buffer.put((byte) event.getType().ordinal())
+                .putLong(event.getProductId())
+                .putDouble(event.getPrice())
+                .putLong(event.getVersion())
+                .putInt(name == null ? -1 : name.length);
+        if (name != null) {
+            buffer.put(name);
+        }
+        crc.reset();
+        crc.update(buffer.array(), FRAME_SIZE, length);
+        buffer.putInt(0, length).putInt(4, (int) crc.getValue()).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /* deletes the files before the given sequence, their changes are in the snapshot */
+    public void deleteBefore(long sequence) throws IOException {
+        for (long existing : sequences()) {
+            if (existing < sequence) {
+                Files.deleteIfExists(file(existing));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private Path file(long sequence) {
+        return directory.resolve(String.format("changes-%019d.log", sequence));
+    }
+}
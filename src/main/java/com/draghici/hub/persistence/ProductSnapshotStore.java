@@ -0,0 +1,341 @@
+package com.draghici.hub.persistence;
+
+import com.draghici.hub.events.ProductChangedEvent;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * persistent snapshot of the catalogue, enabled with 'hub.product.snapshot.enabled'.
+ *
+ * The P_PRODUCTS rows are written to a binary snapshot every 'interval' and on shutdown, the committed changes
+ * in between are appended to the change log. At startup, before the web server and the in-memory indexes,
+ * an empty P_PRODUCTS is filled back from the snapshot and the changes logged after it, with JDBC batch inserts
+ * committed batch by batch: a failed restore deletes the rows it inserted, but a crash in the middle leaves them.
+ * A database that already has products is the reference, it is left as is.
+ */
+@Component
+@Profile("!reactive")
+public class ProductSnapshotStore implements SmartInitializingSingleton {
+
+    private final static Logger logger = LogManager.getLogger(ProductSnapshotStore.class);
+
+    static final String SNAPSHOT_FILE = "products.snapshot";
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+    private static final String INSERT = "INSERT INTO P_PRODUCTS (id, name, price, version, mod_seq) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT = "SELECT id, name, price, version FROM P_PRODUCTS ORDER BY id";
+
+    // allocationSize of the product id sequence: hibernate hands out the 50 ids below the value it reads
+    private static final int SEQUENCE_INCREMENT = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Path directory;
+    private final Duration interval;
+    private final ProductChangeLog changeLog;
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean recording;
+
+    public ProductSnapshotStore(JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${hub.product.snapshot.enabled:false}") boolean enabled,
+                                @Value("${hub.product.snapshot.directory:data/snapshot}") Path directory,
+                                @Value("${hub.product.snapshot.interval:10m}") Duration interval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.directory = directory;
+        this.interval = interval;
+        this.changeLog = new ProductChangeLog(directory);
+    }
+
+    public record Restored(long products, long changes, long millis) {
+    }
+
+    /* every singleton exists, the schema is created, the web server is not started yet */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (enabled) {
+            try {
+                start();
+            } catch (IOException e) {
+                throw new UncheckedIOException("The catalogue snapshot could not be restored from " + directory, e);
+            }
+        }
+    }
+
+    /* restores the catalogue, then records the changes and takes the periodic snapshots */
+    public Restored start() throws IOException {
+        Files.createDirectories(directory);
+        var restored = restore();
+
+        var snapshot = directory.resolve(SNAPSHOT_FILE);
+        long last = Files.exists(snapshot) ? CatalogueSnapshot.readHeader(snapshot).logSequence() - 1 : -1;
+        for (long sequence : changeLog.sequences()) {
+            last = Math.max(last, sequence);
+        }
+        changeLog.open(last);
+        recording = true;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("product-snapshot").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::scheduledSnapshot, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        return restored;
+    }
+
+    /*
+     * the changes are applied to the rows while they are read from the snapshot, each row is inserted once.
+     * Every JDBC batch is committed on its own: one transaction over the whole catalogue took twice as long in H2.
+     * The change log replay is idempotent: a change carries the committed version of the product,
+     * and a change not newer than the snapshot row or an earlier change is ignored.
+     */
+    public Restored restore() throws IOException {
+        long start = System.nanoTime();
+        var snapshot = directory.resolve(SNAPSHOT_FILE);
+        var header = Files.exists(snapshot) ? CatalogueSnapshot.readHeader(snapshot) : null;
+
+        long existing = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM P_PRODUCTS", Long.class);
+        if (existing > 0) {
+            logger.warn("P_PRODUCTS already has {} products, the catalogue snapshot is not restored", existing);
+            return new Restored(0, 0, 0);
+        }
+
+        Map<Long, Change> changes = new HashMap<>();
+        long replayed = 0;
+        for (long sequence : changeLog.sequences()) {
+            if (header == null || sequence >= header.logSequence()) {
+                replayed += changeLog.replay(sequence, event -> apply(changes, event));
+            }
+        }
+
+        long inserted;
+        try {
+            inserted = insert(snapshot, header, changes);
+        } catch (RuntimeException e) {
+            // the table was empty, a partial restore would be taken for the reference at the next start
+            jdbcTemplate.update("DELETE FROM P_PRODUCTS");
+            if (e instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw e;
+        }
+
+        var restored = new Restored(inserted, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.info("{} products restored from the catalogue snapshot and {} logged changes in {} ms", restored.products(), restored.changes(), restored.millis());
+        return restored;
+    }
+
+    private long insert(Path snapshot, CatalogueSnapshot.Header header, Map<Long, Change> changes) {
+        var insert = new BulkInsert();
+        if (header != null) {
+            try {
+                CatalogueSnapshot.read(snapshot, (id, name, price, version) -> {
+                    var change = changes.remove(id);
+                    if (change == null || (!change.deleted && change.version <= version)) {
+                        insert.add(id, name, price, version);
+                    } else if (!change.deleted) {
+                        insert.add(id, change.name != null ? change.name : name, change.price, change.version);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // created after the snapshot
+        changes.forEach((id, change) -> {
+            if (change.created && !change.deleted) {
+                insert.add(id, change.name, change.price, change.version);
+            }
+        });
+        insert.flush();
+
+        if (insert.maxId > 0) {
+            jdbcTemplate.execute("ALTER SEQUENCE P_PRODUCTS_SEQ RESTART WITH " + (insert.maxId + SEQUENCE_INCREMENT));
+        }
+        return insert.count;
+    }
+
+    /*
+     * rotates the change log first, then reads the table: a change committed before the read is in the snapshot,
+     * and may also be in the new log, but a change committed after the read is always in the new log
+     */
+    public synchronized CatalogueSnapshot.Header snapshot() throws IOException {
+        long start = System.nanoTime();
+        long sequence = changeLog.rotate();
+        CatalogueSnapshot.Header header;
+        try (var writer = CatalogueSnapshot.writer(directory.resolve(SNAPSHOT_FILE), sequence)) {
+            jdbcTemplate.query(connection -> {
+                var statement = connection.prepareStatement(SELECT);
+                statement.setFetchSize(INSERT_BATCH_SIZE);
+                return statement;
+            }, resultSet -> {
+                try {
+                    writer.write(resultSet.getLong(1), resultSet.getString(2), resultSet.getDouble(3), resultSet.getLong(4));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            header = writer.complete();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        changeLog.deleteBefore(sequence);
+
+        logger.info("Catalogue snapshot of {} products written in {} ms", header.rows(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return header;
+    }
+
+    /* the write was committed, or there was no transaction */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (!recording) {
+            return;
+        }
+        try {
+            changeLog.append(event);
+        } catch (IOException e) {
+            logger.error("The change of product {} could not be logged, a restore before the next snapshot misses it", event.getProductId(), e);
+        }
+    }
+
+    /* a last snapshot, so the next start has no change to replay */
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        if (!recording) {
+            return;
+        }
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        try {
+            snapshot();
+        } finally {
+            recording = false;
+            changeLog.close();
+        }
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Catalogue snapshot failed, the change log keeps growing until the next one", e);
+        }
+    }
+
+    private static void apply(Map<Long, Change> changes, ProductChangedEvent event) {
+        var change = changes.get(event.getProductId());
+        switch (event.getType()) {
+            case CREATED -> {
+                if (change == null) {
+                    changes.put(event.getProductId(), new Change(true, event.getName(), event.getPrice(), event.getVersion()));
+                }
+            }
+            case UPDATED -> {
+                if (change == null) {
+                    changes.put(event.getProductId(), new Change(false, event.getName(), event.getPrice(), event.getVersion()));
+                } else if (!change.deleted && event.getVersion() > change.version) {
+                    // the events of concurrent updates are logged in their commit order, not in their version order
+                    change.name = event.getName() != null ? event.getName() : change.name;
+                    change.price = event.getPrice();
+                    change.version = event.getVersion();
+                }
+            }
+            case DELETED -> {
+                change = new Change(false, null, 0.0d, 0L);
+                change.deleted = true;
+                changes.put(event.getProductId(), change);
+            }
+        }
+    }
+
+    /* the state of a product after the logged changes, at the committed version of the latest one */
+    private static final class Change {
+
+        private final boolean created;
+        private String name;
+        private double price;
+        private long version;
+        private boolean deleted;
+
+        Change(boolean created, String name, double price, long version) {
+            this.created = created;
+            this.name = name;
+            this.price = price;
+            this.version = version;
+        }
+    }
+
+    /*
+     * collects the rows in primitive arrays, sent and committed as one JDBC batch every INSERT_BATCH_SIZE rows.
+     * The rows are numbered 1, 2, ... in the modification sequence, the delta sync pages through them and continues after
+     */
+    private final class BulkInsert {
+
+        private final long[] ids = new long[INSERT_BATCH_SIZE];
+        private final String[] names = new String[INSERT_BATCH_SIZE];
+        private final double[] prices = new double[INSERT_BATCH_SIZE];
+        private final long[] versions = new long[INSERT_BATCH_SIZE];
+        private int size;
+        private long count;
+        private long maxId;
+
+        void add(long id, String name, double price, long version) {
+            ids[size] = id;
+            names[size] = name;
+            prices[size] = price;
+            versions[size] = version;
+            maxId = Math.max(maxId, id);
+            if (++size == INSERT_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (size == 0) {
+                return;
+            }
+            int rows = size;
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement statement, int i) throws SQLException {
+                    statement.setLong(1, ids[i]);
+                    statement.setString(2, names[i]);
+                    statement.setDouble(3, prices[i]);
+                    statement.setLong(4, versions[i]);
+                    statement.setLong(5, count + i + 1);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return rows;
+                }
+            }));
+            count += rows;
+            size = 0;
+        }
+    }
+}
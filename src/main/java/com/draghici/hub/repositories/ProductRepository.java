@@ -1,11 +1,24 @@
 package com.draghici.hub.repositories;
 
 import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductNameView;
+import com.draghici.hub.dto.ProductPriceView;
+import com.draghici.hub.dto.ProductRowView;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
@@ -13,4 +26,75 @@ public interface ProductRepository extends JpaRepository<Product, Long> {
     @Query("SELECT p FROM Product p WHERE p.id = :id")
     Optional<Product> getProductById(Long id);
 
+    /* one IN list, the caller bounds its size. The entities are read-only, they are never changed in the session */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT p FROM Product p WHERE p.id IN :ids")
+    List<Product> getProductsByIds(Collection<Long> ids);
+
+    /* keyset pagination on the primary key, the cost does not depend on how deep the page is */
+    @Query("SELECT p FROM Product p WHERE p.id > :after ORDER BY p.id")
+    List<Product> getProductsAfter(Long after, Limit limit);
+
+    /*
+     * products with a name starting with 'namePrefix' (a LIKE pattern ending with '%') and a price in [minPrice, maxPrice].
+     * Both predicates are sargable, the database picks the name or the price index.
+     */
+    @Query("SELECT p FROM Product p WHERE p.name LIKE :namePattern ESCAPE '\\' AND p.price BETWEEN :minPrice AND :maxPrice")
+    List<Product> queryProducts(String namePattern, double minPrice, double maxPrice, Sort sort, Limit limit);
+
+    /* forward-only cursor over the whole table, must be consumed inside a transaction and closed */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Product p ORDER BY p.id")
+    Stream<Product> streamAll();
+
+    /* same cursor with the id, the name and the version only, the projections are not managed so nothing accumulates in the session */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p.id AS id, p.name AS name, p.version AS version FROM Product p ORDER BY p.id")
+    Stream<ProductNameView> streamAllNames();
+
+    /* every column, in id order, without managed entities */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p.id AS id, p.name AS name, p.price AS price, p.version AS version FROM Product p ORDER BY p.id")
+    Stream<ProductRowView> streamAllRows();
+
+    /* the columns of one product, read back after its update in the same transaction */
+    @Query("SELECT p.id AS id, p.name AS name, p.price AS price, p.version AS version FROM Product p WHERE p.id = :id")
+    ProductRowView getRowById(Long id);
+
+    /* id, price and version in the order of the price index, ties broken by id */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p.id AS id, p.price AS price, p.version AS version FROM Product p ORDER BY p.price, p.id")
+    Stream<ProductPriceView> streamAllPrices();
+
+    /*
+     * the products inserted or updated after (after, afterId) and up to 'upTo', in the order of the changes.
+     * The rows sharing a sequence are ordered by id. Read-only entities
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT p FROM Product p WHERE (p.modSeq > :after OR (p.modSeq = :after AND p.id > :afterId)) AND p.modSeq <= :upTo ORDER BY p.modSeq, p.id")
+    List<Product> getProductsChangedBetween(long after, long afterId, long upTo, Limit limit);
+
+    @Query("SELECT COALESCE(MAX(p.modSeq), 0) FROM Product p")
+    long getLastModSeq();
+
+    /*
+     * updates a product in one statement, without loading it. A null name keeps the current one.
+     * With a non null 'version' only that version is updated.
+     * Return the number of updated rows
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Product p SET p.name = COALESCE(:name, p.name), p.price = :price, p.version = p.version + 1, p.modSeq = :modSeq " +
+            "WHERE p.id = :id AND (:version IS NULL OR p.version = :version)")
+    int updateProductById(Long id, String name, double price, Long version, long modSeq);
+
+    /* Return the number of deleted rows */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM Product p WHERE p.id = :id")
+    int deleteProductById(Long id);
+
 }
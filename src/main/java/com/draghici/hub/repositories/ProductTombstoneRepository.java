@@ -0,0 +1,43 @@
+package com.draghici.hub.repositories;
+
+import com.draghici.hub.beans.ProductTombstone;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public interface ProductTombstoneRepository extends JpaRepository<ProductTombstone, Long> {
+
+    /* a plain insert, save() would select the row first because the id is assigned */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO P_PRODUCT_TOMBSTONES (product_id, mod_seq, deleted_at) VALUES (:productId, :modSeq, :deletedAt)", nativeQuery = true)
+    int insertTombstone(long productId, long modSeq, Instant deletedAt);
+
+    /* the deletions after (after, afterId) and up to 'upTo', in the order of the changes of getProductsChangedBetween */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("SELECT t FROM ProductTombstone t WHERE (t.modSeq > :after OR (t.modSeq = :after AND t.productId > :afterId)) AND t.modSeq <= :upTo ORDER BY t.modSeq, t.productId")
+    List<ProductTombstone> getTombstonesBetween(long after, long afterId, long upTo, Limit limit);
+
+    @Query("SELECT COALESCE(MAX(t.modSeq), 0) FROM ProductTombstone t")
+    long getLastModSeq();
+
+    /* the latest deletion before 'before', null when there is none */
+    @Query("SELECT MAX(t.modSeq) FROM ProductTombstone t WHERE t.deletedAt < :before")
+    Long getLastModSeqBefore(Instant before);
+
+    /* Return the number of deleted tombstones */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM ProductTombstone t WHERE t.modSeq <= :modSeq")
+    int deleteTombstonesThrough(long modSeq);
+}
@@ -0,0 +1,182 @@
+package com.draghici.hub.repositories;
+
+import com.draghici.hub.beans.Product;
+import io.r2dbc.spi.Readable;
+import io.r2dbc.spi.Result;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * non-blocking access to P_PRODUCTS for the 'reactive' profile.
+ * The ids come from P_PRODUCTS_SEQ with the same pooled blocks as hibernate, so both modes can share the table.
+ */
+@Repository
+@Profile("reactive")
+@RequiredArgsConstructor
+public class ReactiveProductRepository {
+
+    // matches the allocationSize of Product.id
+    private final static int ALLOCATION_SIZE = 50;
+    private final static int FETCH_SIZE = 500;
+    private final static String COLUMNS = "SELECT id, name, price, version FROM P_PRODUCTS";
+
+    private final DatabaseClient databaseClient;
+
+    // current block of ids, the ids are taken with a CAS. Replaced once used up
+    private volatile IdBlock block = new IdBlock(1, 0);
+    // the sequence read that refills 'refilling', shared by all the callers waiting for it. Guarded by 'this'
+    private Mono<Void> refill;
+    private IdBlock refilling;
+
+    public Flux<Product> findAll() {
+        return databaseClient.sql(COLUMNS + " ORDER BY id")
+                .filter(statement -> statement.fetchSize(FETCH_SIZE))
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    public Flux<Product> findAfter(long after, int limit) {
+        return databaseClient.sql(COLUMNS + " WHERE id > :after ORDER BY id LIMIT :limit")
+                .bind("after", after)
+                .bind("limit", limit)
+                .map(ReactiveProductRepository::toProduct)
+                .all();
+    }
+
+    public Mono<Product> findById(long id) {
+        return databaseClient.sql(COLUMNS + " WHERE id = :id")
+                .bind("id", id)
+                .map(ReactiveProductRepository::toProduct)
+                .one();
+    }
+
+    public Mono<Product> insert(Product product) {
+        return nextId().flatMap(id -> databaseClient.sql("INSERT INTO P_PRODUCTS (id, name, price) VALUES (:id, :name, :price)")
+                .bind("id", id)
+                .bind("name", product.getName())
+                .bind("price", product.getPrice())
+                .fetch()
+                .rowsUpdated()
+                .then(Mono.fromSupplier(() -> {
+                    product.setId(id);
+                    product.setVersion(0L);
+                    return product;
+                })));
+    }
+
+    /* one batched INSERT statement on a single connection, the caller provides the transaction */
+    public Flux<Product> insertAll(List<Product> products) {
+        return Flux.fromIterable(products)
+                .concatMap(product -> nextId().map(id -> {
+                    product.setId(id);
+                    return product;
+                }))
+                .collectList()
+                .flatMapMany(withIds -> databaseClient.inConnectionMany(connection -> {
+                    var statement = connection.createStatement("INSERT INTO P_PRODUCTS (id, name, price) VALUES ($1, $2, $3)");
+                    for (int i = 0; i < withIds.size(); i++) {
+                        if (i > 0) {
+                            statement.add();
+                        }
+                        var product = withIds.get(i);
+                        statement.bind(0, product.getId()).bind(1, product.getName()).bind(2, product.getPrice());
+                        product.setVersion(0L);
+                    }
+                    return Flux.from(statement.execute()).flatMap(Result::getRowsUpdated);
+                }).thenMany(Flux.fromIterable(withIds)));
+    }
+
+    /* a null name keeps the current one. Return the number of updated rows */
+    public Mono<Long> update(long id, String name, double price) {
+        var spec = databaseClient.sql("UPDATE P_PRODUCTS SET name = COALESCE(:name, name), price = :price, version = version + 1 WHERE id = :id")
+                .bind("id", id)
+                .bind("price", price);
+        spec = name == null ? spec.bindNull("name", String.class) : spec.bind("name", name);
+        return spec.fetch().rowsUpdated();
+    }
+
+    /* Return the number of deleted rows */
+    public Mono<Long> deleteById(long id) {
+        return databaseClient.sql("DELETE FROM P_PRODUCTS WHERE id = :id")
+                .bind("id", id)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    /*
+     * hands out the ids of the current block, a new block is read from the sequence once it is used up.
+     * Like hibernate's pooled optimizer, the sequence value 'v' reserves the ids (v - 49 .. v].
+     * The callers that find the block used up wait for a single sequence read, no block is reserved and lost.
+     */
+    private Mono<Long> nextId() {
+        return Mono.defer(() -> {
+            var current = block;
+            long id = current.take();
+            return id > 0 ? Mono.just(id) : refill(current).then(nextId());
+        });
+    }
+
+    /* completes once 'usedUp' is replaced, the first caller starts the sequence read and the others join it */
+    private synchronized Mono<Void> refill(IdBlock usedUp) {
+        if (block != usedUp) {
+            return Mono.empty();
+        }
+        if (refilling != usedUp) {
+            refilling = usedUp;
+            refill = databaseClient.sql("SELECT NEXT VALUE FOR P_PRODUCTS_SEQ")
+                    .map(row -> row.get(0, Long.class))
+                    .one()
+                    .doOnNext(this::useBlock)
+                    // a failed read is not kept, the next caller tries again
+                    .doOnError(error -> forgetRefill(usedUp))
+                    .then()
+                    .cache();
+        }
+        return refill;
+    }
+
+    private synchronized void useBlock(long sequenceValue) {
+        block = new IdBlock(Math.max(1, sequenceValue - ALLOCATION_SIZE + 1), sequenceValue);
+    }
+
+    private synchronized void forgetRefill(IdBlock usedUp) {
+        if (refilling == usedUp) {
+            refilling = null;
+            refill = null;
+        }
+    }
+
+    /* the ids [next, last], never reused once taken */
+    private static final class IdBlock {
+
+        private final AtomicLong next;
+        private final long last;
+
+        IdBlock(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+
+        /* Return the next id, or 0 when the block is used up */
+        long take() {
+            long id = next.getAndIncrement();
+            return id <= last ? id : 0;
+        }
+    }
+
+    private static Product toProduct(Readable row) {
+        var product = new Product();
+        product.setId(row.get("id", Long.class));
+        product.setName(row.get("name", String.class));
+        product.setPrice(row.get("price", Double.class));
+        product.setVersion(row.get("version", Long.class));
+        return product;
+    }
+}
@@ -0,0 +1,121 @@
+package com.draghici.hub.search;
+
+import java.util.Arrays;
+
+/*
+ * open addressing map from long keys to non negative double values, each with a long version, without boxing.
+ * Not thread safe, ProductPriceIndex only uses it from its writers.
+ */
+final class LongDoubleHashMap {
+
+    final static double MISSING = -1.0d;
+
+    private long[] keys;
+    private double[] values;
+    private long[] versions;
+    private int size;
+
+    LongDoubleHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new double[capacity];
+        versions = new long[capacity];
+        Arrays.fill(values, MISSING);
+    }
+
+    double get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (values[slot] == MISSING) {
+                return MISSING;
+            }
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+    }
+
+    /* the version of the key, or -1 when it is missing */
+    long version(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (values[slot] == MISSING) {
+                return -1L;
+            }
+            if (keys[slot] == key) {
+                return versions[slot];
+            }
+        }
+    }
+
+    void put(long key, double value, long version) {
+        if ((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            if (values[slot] == MISSING) {
+                keys[slot] = key;
+                values[slot] = value;
+                versions[slot] = version;
+                size++;
+                return;
+            }
+            if (keys[slot] == key) {
+                values[slot] = value;
+                versions[slot] = version;
+                return;
+            }
+        }
+    }
+
+    /* backward shift deletion, so the probe chains stay without tombstones */
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != MISSING && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (values[slot] == MISSING) {
+            return;
+        }
+
+        size--;
+        for (int next = (slot + 1) & mask; values[next] != MISSING; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            // move the entry back if its home slot is not between the hole and its current slot
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                versions[slot] = versions[next];
+                slot = next;
+            }
+        }
+        values[slot] = MISSING;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        var oldKeys = keys;
+        var oldValues = values;
+        var oldVersions = versions;
+        keys = new long[oldKeys.length * 2];
+        values = new double[oldValues.length * 2];
+        versions = new long[oldVersions.length * 2];
+        Arrays.fill(values, MISSING);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i], oldVersions[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,69 @@
+package com.draghici.hub.search;
+
+import java.util.Arrays;
+
+/*
+ * open addressing set of long values, without boxing. Only grows, there is no remove.
+ * Not thread safe, the indexes guard it with their write lock.
+ */
+final class LongHashSet {
+
+    // a slot is free when its flag is not set, so any long can be stored
+    private long[] values;
+    private boolean[] used;
+    private int size;
+
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        values = new long[capacity];
+        used = new boolean[capacity];
+    }
+
+    boolean contains(long value) {
+        int mask = values.length - 1;
+        for (int slot = hash(value) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (values[slot] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void add(long value) {
+        if ((size + 1) * 2 > values.length) {
+            resize();
+        }
+        int mask = values.length - 1;
+        int slot = hash(value) & mask;
+        for (; used[slot]; slot = (slot + 1) & mask) {
+            if (values[slot] == value) {
+                return;
+            }
+        }
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        var oldValues = values;
+        var oldUsed = used;
+        values = new long[oldValues.length * 2];
+        used = new boolean[oldUsed.length * 2];
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldUsed[i]) {
+                add(oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
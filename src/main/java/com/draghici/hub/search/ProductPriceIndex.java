@@ -0,0 +1,419 @@
+package com.draghici.hub.search;
+
+import com.draghici.hub.dto.ProductPrice;
+import com.draghici.hub.events.ProductChangedEvent;
+import com.draghici.hub.repositories.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * in-memory index of the product prices, for the range counts and the cheapest / most expensive products.
+ *
+ * The (price, id) pairs are kept sorted in segments of primitive arrays, so a query is a binary search and a scan.
+ * The segments are never modified: a write copies the segment it changes and publishes a new snapshot,
+ * the readers keep working on the snapshot they started with and never wait for a writer.
+ * The index is built once the application is ready, then kept up to date by the ProductChangedEvents.
+ * An entry keeps the committed version of its price: an event not newer than the entry is ignored,
+ * so two updates applied out of order or an update already read by build() leave the latest price.
+ * The ids are never reused: the deleted ones are remembered and a late creation or update of them is ignored.
+ */
+@Component
+@Profile("!reactive")
+@RequiredArgsConstructor
+public class ProductPriceIndex {
+
+    private final static Logger logger = LogManager.getLogger(ProductPriceIndex.class);
+
+    // a write copies at most 2 * SEGMENT_SIZE entries, a full segment is split in two
+    private final static int SEGMENT_SIZE = 512;
+
+    private final ProductRepository productRepository;
+
+    // serializes the writers only, the readers never take it
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // product id -> indexed price and its version, to find the entry of a product on update and delete. Only used by the writers
+    private LongDoubleHashMap priceByProduct = new LongDoubleHashMap(1024);
+    // the ids of the deleted products, their entries are missing from priceByProduct. Only used by the writers
+    private final LongHashSet deletedIds = new LongHashSet(64);
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /* the products are read in price order, so the segments are filled without sorting */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        long start = System.nanoTime();
+        writeLock.lock();
+        try (var products = productRepository.streamAllPrices()) {
+            var prices = new LongDoubleHashMap(1024);
+            List<Segment> segments = new ArrayList<>();
+            var segmentPrices = new double[SEGMENT_SIZE];
+            var segmentIds = new long[SEGMENT_SIZE];
+            int size = 0;
+            for (var iterator = products.iterator(); iterator.hasNext(); size++) {
+                var product = iterator.next();
+                if (size == SEGMENT_SIZE) {
+                    segments.add(new Segment(segmentPrices, segmentIds));
+                    segmentPrices = new double[SEGMENT_SIZE];
+                    segmentIds = new long[SEGMENT_SIZE];
+                    size = 0;
+                }
+                segmentPrices[size] = product.getPrice();
+                segmentIds[size] = product.getId();
+                prices.put(product.getId(), product.getPrice(), product.getVersion());
+            }
+            if (size > 0) {
+                segments.add(new Segment(Arrays.copyOf(segmentPrices, size), Arrays.copyOf(segmentIds, size)));
+            }
+
+            priceByProduct = prices;
+            snapshot = new Snapshot(segments.toArray(new Segment[0]));
+        } finally {
+            writeLock.unlock();
+        }
+        logger.info("Price index built with {} products in {} ms", size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /* the write was committed, or there was no transaction */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        switch (event.getType()) {
+            case CREATED, UPDATED -> add(event.getProductId(), event.getPrice(), event.getVersion());
+            case DELETED -> remove(event.getProductId());
+        }
+    }
+
+    /*
+     * indexes a product, or moves it to the price of a newer version. The readers see the old or the new price, never none.
+     * A version not newer than the indexed one is ignored, as well as a product already deleted
+     */
+    public void add(long productId, double price, long version) {
+        writeLock.lock();
+        try {
+            double currentPrice = priceByProduct.get(productId);
+            if (currentPrice == LongDoubleHashMap.MISSING ? deletedIds.contains(productId) : priceByProduct.version(productId) >= version) {
+                return;
+            }
+
+            if (currentPrice != price) {
+                var next = snapshot;
+                if (currentPrice != LongDoubleHashMap.MISSING) {
+                    next = next.without(currentPrice, productId);
+                }
+                snapshot = next.with(price, productId);
+            }
+            priceByProduct.put(productId, price, version);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void remove(long productId) {
+        writeLock.lock();
+        try {
+            deletedIds.add(productId);
+            double currentPrice = priceByProduct.get(productId);
+            if (currentPrice != LongDoubleHashMap.MISSING) {
+                snapshot = snapshot.without(currentPrice, productId);
+                priceByProduct.remove(productId);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    /* number of products with a price between 'minPrice' and 'maxPrice', both included */
+    public int count(double minPrice, double maxPrice) {
+        var current = snapshot;
+        return Math.max(0, current.rank(maxPrice, true) - current.rank(minPrice, false));
+    }
+
+    /* the first 'limit' products with a price between 'minPrice' and 'maxPrice', the cheapest first */
+    public List<ProductPrice> range(double minPrice, double maxPrice, int limit) {
+        var current = snapshot;
+        return current.ascending(current.rank(minPrice, false), maxPrice, limit);
+    }
+
+    public List<ProductPrice> cheapest(int limit) {
+        return snapshot.ascending(0, Double.MAX_VALUE, limit);
+    }
+
+    public List<ProductPrice> mostExpensive(int limit) {
+        return snapshot.descending(limit);
+    }
+
+    /* orders the entries by price, then by id */
+    private static int compare(double price, long id, double otherPrice, long otherId) {
+        int byPrice = Double.compare(price, otherPrice);
+        return byPrice != 0 ? byPrice : Long.compare(id, otherId);
+    }
+
+    /* immutable, sorted (price, id) pairs */
+    private static final class Segment {
+
+        private final double[] prices;
+        private final long[] ids;
+
+        Segment(double[] prices, long[] ids) {
+            this.prices = prices;
+            this.ids = ids;
+        }
+
+        int size() {
+            return prices.length;
+        }
+
+        /* index of the entry, or -(insertion point) - 1 like Arrays.binarySearch */
+        int indexOf(double price, long id) {
+            int low = 0;
+            int high = prices.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(prices[middle], ids[middle], price, id);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        Segment with(int index, double price, long id) {
+            var newPrices = new double[prices.length + 1];
+            var newIds = new long[ids.length + 1];
+            System.arraycopy(prices, 0, newPrices, 0, index);
+            System.arraycopy(ids, 0, newIds, 0, index);
+            newPrices[index] = price;
+            newIds[index] = id;
+            System.arraycopy(prices, index, newPrices, index + 1, prices.length - index);
+            System.arraycopy(ids, index, newIds, index + 1, ids.length - index);
+            return new Segment(newPrices, newIds);
+        }
+
+        Segment without(int index) {
+            var newPrices = new double[prices.length - 1];
+            var newIds = new long[ids.length - 1];
+            System.arraycopy(prices, 0, newPrices, 0, index);
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(prices, index + 1, newPrices, index, newPrices.length - index);
+            System.arraycopy(ids, index + 1, newIds, index, newIds.length - index);
+            return new Segment(newPrices, newIds);
+        }
+
+        Segment slice(int from, int to) {
+            return new Segment(Arrays.copyOfRange(prices, from, to), Arrays.copyOfRange(ids, from, to));
+        }
+    }
+
+    /*
+     * immutable list of non empty segments, in (price, id) order.
+     * The last entry of each segment and the number of entries before it are copied aside for the binary searches.
+     */
+    private static final class Snapshot {
+
+        final static Snapshot EMPTY = new Snapshot(new Segment[0]);
+
+        private final Segment[] segments;
+        private final double[] lastPrices;
+        private final long[] lastIds;
+        // starts[i] entries come before segments[i], starts[segments.length] is the size
+        private final int[] starts;
+
+        Snapshot(Segment[] segments) {
+            this(segments, new double[segments.length], new long[segments.length], new int[segments.length + 1]);
+            for (int s = 0; s < segments.length; s++) {
+                setSegment(s, segments[s]);
+            }
+        }
+
+        private Snapshot(Segment[] segments, double[] lastPrices, long[] lastIds, int[] starts) {
+            this.segments = segments;
+            this.lastPrices = lastPrices;
+            this.lastIds = lastIds;
+            this.starts = starts;
+        }
+
+        int size() {
+            return starts[segments.length];
+        }
+
+        /* number of entries with a price lower than 'price', or lower or equal when 'inclusive' */
+        int rank(double price, boolean inclusive) {
+            int low = 0;
+            int high = segments.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (before(lastPrices[middle], price, inclusive)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low == segments.length) {
+                return size();
+            }
+
+            var prices = segments[low].prices;
+            int from = 0;
+            int to = prices.length;
+            while (from < to) {
+                int middle = (from + to) >>> 1;
+                if (before(prices[middle], price, inclusive)) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            return starts[low] + from;
+        }
+
+        List<ProductPrice> ascending(int fromRank, double maxPrice, int limit) {
+            List<ProductPrice> prices = new ArrayList<>(Math.max(0, Math.min(limit, size() - fromRank)));
+            if (fromRank >= size()) {
+                return prices;
+            }
+
+            int s = segmentAt(fromRank);
+            for (int index = fromRank - starts[s]; s < segments.length; s++, index = 0) {
+                var segment = segments[s];
+                for (; index < segment.size(); index++) {
+                    if (prices.size() == limit || segment.prices[index] > maxPrice) {
+                        return prices;
+                    }
+                    prices.add(new ProductPrice(segment.ids[index], segment.prices[index]));
+                }
+            }
+            return prices;
+        }
+
+        List<ProductPrice> descending(int limit) {
+            List<ProductPrice> prices = new ArrayList<>(Math.min(limit, size()));
+            for (int s = segments.length - 1; s >= 0; s--) {
+                var segment = segments[s];
+                for (int index = segment.size() - 1; index >= 0; index--) {
+                    if (prices.size() == limit) {
+                        return prices;
+                    }
+                    prices.add(new ProductPrice(segment.ids[index], segment.prices[index]));
+                }
+            }
+            return prices;
+        }
+
+        /* the entries after the last segment go in the last one */
+        Snapshot with(double price, long id) {
+            if (segments.length == 0) {
+                return new Snapshot(new Segment[]{new Segment(new double[]{price}, new long[]{id})});
+            }
+
+            int s = Math.min(segmentOf(price, id), segments.length - 1);
+            var segment = segments[s];
+            int index = segment.indexOf(price, id);
+            if (index >= 0) {
+                return this;
+            }
+
+            segment = segment.with(-index - 1, price, id);
+            if (segment.size() < 2 * SEGMENT_SIZE) {
+                return replace(s, segment);
+            }
+            return replace(s, segment.slice(0, SEGMENT_SIZE), segment.slice(SEGMENT_SIZE, segment.size()));
+        }
+
+        /* an emptied segment is dropped */
+        Snapshot without(double price, long id) {
+            int s = segmentOf(price, id);
+            if (s == segments.length) {
+                return this;
+            }
+
+            var segment = segments[s];
+            int index = segment.indexOf(price, id);
+            if (index < 0) {
+                return this;
+            }
+            return segment.size() == 1 ? replace(s) : replace(s, segment.without(index));
+        }
+
+        /* first segment whose last entry is not before (price, id), segments.length when there is none */
+        private int segmentOf(double price, long id) {
+            int low = 0;
+            int high = segments.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (compare(lastPrices[middle], lastIds[middle], price, id) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /* segment holding the entry at 'rank', the segments are never empty */
+        private int segmentAt(int rank) {
+            int s = Arrays.binarySearch(starts, 0, segments.length, rank);
+            return s >= 0 ? s : -s - 2;
+        }
+
+        /*
+         * a copy of the snapshot with segments[s] replaced by 'replacement', which can be empty or hold 2 segments.
+         * The other segments are not dereferenced, their last entries are copied and their starts shifted
+         */
+        private Snapshot replace(int s, Segment... replacement) {
+            int length = segments.length - 1 + replacement.length;
+            int after = segments.length - s - 1;
+            var next = new Snapshot(new Segment[length], new double[length], new long[length], new int[length + 1]);
+
+            System.arraycopy(segments, 0, next.segments, 0, s);
+            System.arraycopy(lastPrices, 0, next.lastPrices, 0, s);
+            System.arraycopy(lastIds, 0, next.lastIds, 0, s);
+            System.arraycopy(starts, 0, next.starts, 0, s + 1);
+            for (int r = 0; r < replacement.length; r++) {
+                next.setSegment(s + r, replacement[r]);
+            }
+
+            int from = s + replacement.length;
+            System.arraycopy(segments, s + 1, next.segments, from, after);
+            System.arraycopy(lastPrices, s + 1, next.lastPrices, from, after);
+            System.arraycopy(lastIds, s + 1, next.lastIds, from, after);
+            int shift = next.starts[from] - starts[s + 1];
+            for (int i = 1; i <= after; i++) {
+                next.starts[from + i] = starts[s + 1 + i] + shift;
+            }
+            return next;
+        }
+
+        /* only while the snapshot is being built, it is immutable once published */
+        private void setSegment(int s, Segment segment) {
+            segments[s] = segment;
+            lastPrices[s] = segment.prices[segment.size() - 1];
+            lastIds[s] = segment.ids[segment.size() - 1];
+            starts[s + 1] = starts[s] + segment.size();
+        }
+
+        private static boolean before(double price, double bound, boolean inclusive) {
+            return inclusive ? price <= bound : price < bound;
+        }
+    }
+}
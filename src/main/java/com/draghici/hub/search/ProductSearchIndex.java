@@ -0,0 +1,468 @@
+package com.draghici.hub.search;
+
+import com.draghici.hub.dto.ProductSearchHit;
+import com.draghici.hub.events.ProductChangedEvent;
+import com.draghici.hub.repositories.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * in-memory inverted index of the trigrams of the product names, for a fuzzy search-as-you-type.
+ *
+ * Each product gets a dense int document number, a posting list is an int[] of document numbers in ascending order.
+ * A write never rewrites a posting list: an updated name gets a new document and the old one is marked as deleted,
+ * the deleted documents are dropped when they are more than the live ones.
+ * The index is built once the application is ready, then kept up to date by the ProductChangedEvents.
+ * A document keeps the committed version of its product: an event not newer than the document is ignored,
+ * so two renames applied out of order or a rename already read by build() leave the latest name.
+ * The ids are never reused: the deleted ones are remembered and a late creation or update of them is ignored.
+ */
+@Component
+@Profile("!reactive")
+@RequiredArgsConstructor
+public class ProductSearchIndex {
+
+    private final static Logger logger = LogManager.getLogger(ProductSearchIndex.class);
+
+    // a name matches when it contains at least half of the trigrams of the term, so a typo still finds it
+    private final static double MIN_SIMILARITY = 0.5d;
+    private final static int MIN_COMPACTION_GARBAGE = 1024;
+    private final static Comparator<ProductSearchHit> RANKING = Comparator
+            .comparingDouble(ProductSearchHit::getScore).reversed()
+            .thenComparingInt(hit -> hit.getName().length())
+            .thenComparingLong(ProductSearchHit::getId);
+
+    private final ProductRepository productRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // document -> product id, version and original name, a null name marks a deleted document.
+    // The name lengths rank the hits without dereferencing the names
+    private long[] productIds = new long[1024];
+    private long[] versions = new long[1024];
+    private String[] names = new String[1024];
+    private int[] nameLengths = new int[1024];
+    private int documents;
+    private int deletedDocuments;
+    // the ids of the deleted products, they have no live document
+    private final LongHashSet deletedIds = new LongHashSet(64);
+
+    // product id -> live document, trigram -> slot of its posting list
+    private final LongIntHashMap documentByProduct = new LongIntHashMap(1024);
+    private final LongIntHashMap postingsByGram = new LongIntHashMap(1024);
+    private int[][] postings = new int[1024][];
+    private int[] postingSizes = new int[1024];
+    private int grams;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try (var products = productRepository.streamAllNames()) {
+            products.forEach(product -> put(product.getId(), product.getName(), product.getVersion()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Search index built with {} products and {} trigrams in {} ms", size(), grams, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /* the write was committed, or there was no transaction */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        switch (event.getType()) {
+            case CREATED, UPDATED -> add(event.getProductId(), event.getName(), event.getVersion());
+            case DELETED -> remove(event.getProductId());
+        }
+    }
+
+    /*
+     * indexes a product, or replaces its name with the one of a newer version. A null name keeps the current one.
+     * A version not newer than the indexed one is ignored, as well as a product already deleted
+     */
+    public void add(long productId, String name, long version) {
+        lock.writeLock().lock();
+        try {
+            int existing = documentByProduct.get(productId);
+            if (existing == LongIntHashMap.MISSING ? name == null || deletedIds.contains(productId) : versions[existing] >= version) {
+                return;
+            }
+            if (name == null) {
+                versions[existing] = version;
+                return;
+            }
+            put(productId, name, version);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long productId) {
+        lock.writeLock().lock();
+        try {
+            deletedIds.add(productId);
+            delete(productId);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents - deletedDocuments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * ranks the products by the share of the trigrams of 'term' found in their name, then by the shortest name.
+     * A name with at least 'm' of the 'q' trigrams must appear in one of the q - m + 1 shortest posting lists (pigeonhole).
+     * The passes start with m = q, which walks the shortest list only, and lower m until 'limit' hits are found:
+     * the names with fewer matches cannot rank better, so the long posting lists are rarely walked.
+     */
+    public List<ProductSearchHit> search(String term, int limit) {
+        var termGrams = termGrams(term);
+        if (termGrams.length == 0) {
+            return List.of();
+        }
+        int gramCount = termGrams.length;
+        int minMatches = (int) Math.ceil(gramCount * MIN_SIMILARITY);
+
+        lock.readLock().lock();
+        try {
+            // posting lists of the term, the shortest first. A trigram missing from the index can never match
+            var lists = new int[gramCount][];
+            var sizes = new int[gramCount];
+            int listCount = 0;
+            for (long gram : termGrams) {
+                int slot = postingsByGram.get(gram);
+                if (slot != LongIntHashMap.MISSING && postingSizes[slot] > 0) {
+                    lists[listCount] = postings[slot];
+                    sizes[listCount++] = postingSizes[slot];
+                }
+            }
+            lists = Arrays.copyOf(lists, listCount);
+            sortBySize(lists, sizes);
+
+            var top = new TopHits(limit);
+            for (int matches = listCount; matches >= minMatches && !top.isFull(); matches--) {
+                offerMatching(lists, sizes, matches, top);
+            }
+            return top.toHits(gramCount);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * offers the live documents with exactly 'matches' trigrams of the term, the ones with more were offered by a previous pass.
+     * The q - matches + 1 shortest lists are walked together, the others are probed with a galloping search.
+     */
+    private void offerMatching(int[][] lists, int[] sizes, int matches, TopHits top) {
+        int gramCount = lists.length;
+        int walkedLists = gramCount - matches + 1;
+        var cursors = new int[gramCount];
+        while (true) {
+            int document = Integer.MAX_VALUE;
+            for (int c = 0; c < walkedLists; c++) {
+                if (cursors[c] < sizes[c]) {
+                    document = Math.min(document, lists[c][cursors[c]]);
+                }
+            }
+            if (document == Integer.MAX_VALUE) {
+                return;
+            }
+
+            int found = 0;
+            for (int c = 0; c < walkedLists; c++) {
+                if (cursors[c] < sizes[c] && lists[c][cursors[c]] == document) {
+                    found++;
+                    cursors[c]++;
+                }
+            }
+            // all the hits of a pass have the same matches, a full top is only entered by a shorter name
+            if (found > matches || !top.accepts(document, matches)) {
+                continue;
+            }
+            for (int c = walkedLists; c < gramCount && found <= matches && found + gramCount - c >= matches; c++) {
+                cursors[c] = advance(lists[c], sizes[c], cursors[c], document);
+                if (cursors[c] < sizes[c] && lists[c][cursors[c]] == document) {
+                    found++;
+                }
+            }
+            if (found == matches && names[document] != null) {
+                top.offer(document, matches);
+            }
+        }
+    }
+
+    private void put(long productId, String name, long version) {
+        // an update that keeps the name, the document is kept as is
+        int existing = documentByProduct.get(productId);
+        if (existing != LongIntHashMap.MISSING && name.equals(names[existing])) {
+            versions[existing] = version;
+            return;
+        }
+        delete(productId);
+
+        if (documents == productIds.length) {
+            productIds = Arrays.copyOf(productIds, documents * 2);
+            versions = Arrays.copyOf(versions, documents * 2);
+            names = Arrays.copyOf(names, documents * 2);
+            nameLengths = Arrays.copyOf(nameLengths, documents * 2);
+        }
+        int document = documents++;
+        productIds[document] = productId;
+        versions[document] = version;
+        names[document] = name;
+        nameLengths[document] = name.length();
+        documentByProduct.put(productId, document);
+
+        for (long gram : nameGrams(name)) {
+            append(gram, document);
+        }
+    }
+
+    private void delete(long productId) {
+        int document = documentByProduct.get(productId);
+        if (document != LongIntHashMap.MISSING) {
+            documentByProduct.remove(productId);
+            names[document] = null;
+            deletedDocuments++;
+        }
+    }
+
+    /* the new documents are always the highest, so the posting lists stay sorted */
+    private void append(long gram, int document) {
+        int slot = postingsByGram.get(gram);
+        if (slot == LongIntHashMap.MISSING) {
+            if (grams == postings.length) {
+                postings = Arrays.copyOf(postings, grams * 2);
+                postingSizes = Arrays.copyOf(postingSizes, grams * 2);
+            }
+            slot = grams++;
+            postings[slot] = new int[4];
+            postingsByGram.put(gram, slot);
+        }
+
+        var list = postings[slot];
+        int size = postingSizes[slot];
+        if (size > 0 && list[size - 1] == document) {
+            return;
+        }
+        if (size == list.length) {
+            list = postings[slot] = Arrays.copyOf(list, size + (size >> 1) + 1);
+        }
+        list[size] = document;
+        postingSizes[slot] = size + 1;
+    }
+
+    /* once more than half of the documents are deleted, renumbers the live ones from 0 and drops the rest from the posting lists */
+    private void compactIfNeeded() {
+        if (deletedDocuments <= MIN_COMPACTION_GARBAGE || deletedDocuments <= documents - deletedDocuments) {
+            return;
+        }
+
+        var renumbered = new int[documents];
+        int live = 0;
+        for (int document = 0; document < documents; document++) {
+            if (names[document] == null) {
+                renumbered[document] = -1;
+                continue;
+            }
+            renumbered[document] = live;
+            productIds[live] = productIds[document];
+            versions[live] = versions[document];
+            names[live] = names[document];
+            nameLengths[live] = nameLengths[document];
+            documentByProduct.put(productIds[live], live);
+            live++;
+        }
+        Arrays.fill(names, live, documents, null);
+
+        for (int slot = 0; slot < grams; slot++) {
+            var list = postings[slot];
+            int size = 0;
+            for (int i = 0; i < postingSizes[slot]; i++) {
+                int document = renumbered[list[i]];
+                if (document >= 0) {
+                    list[size++] = document;
+                }
+            }
+            postingSizes[slot] = size;
+        }
+
+        logger.info("Search index compacted from {} to {} documents", documents, live);
+        documents = live;
+        deletedDocuments = 0;
+    }
+
+    /*
+     * the best documents seen so far, without allocating: the worst one is found by a scan, 'limit' is small.
+     * The ranking keys are copied in, so finding the worst one only reads these arrays.
+     */
+    private class TopHits {
+
+        private final int[] documents;
+        private final int[] matches;
+        private final int[] hitNameLengths;
+        private final long[] ids;
+        private int size;
+        private int worst;
+
+        TopHits(int limit) {
+            documents = new int[limit];
+            matches = new int[limit];
+            hitNameLengths = new int[limit];
+            ids = new long[limit];
+        }
+
+        boolean isFull() {
+            return size == documents.length;
+        }
+
+        boolean accepts(int document, int documentMatches) {
+            return !isFull() || isBetter(documentMatches, nameLengths[document], productIds[document], worst);
+        }
+
+        void offer(int document, int documentMatches) {
+            if (!accepts(document, documentMatches)) {
+                return;
+            }
+            int nameLength = nameLengths[document];
+            long id = productIds[document];
+            int slot = worst;
+            if (!isFull()) {
+                slot = size++;
+            }
+            documents[slot] = document;
+            matches[slot] = documentMatches;
+            hitNameLengths[slot] = nameLength;
+            ids[slot] = id;
+
+            worst = 0;
+            for (int i = 1; i < size; i++) {
+                if (isBetter(matches[worst], hitNameLengths[worst], ids[worst], i)) {
+                    worst = i;
+                }
+            }
+        }
+
+        List<ProductSearchHit> toHits(int gramCount) {
+            var hits = new ArrayList<ProductSearchHit>(size);
+            for (int i = 0; i < size; i++) {
+                hits.add(new ProductSearchHit(ids[i], names[documents[i]], (double) matches[i] / gramCount));
+            }
+            hits.sort(RANKING);
+            return hits;
+        }
+
+        /* same order as RANKING */
+        private boolean isBetter(int documentMatches, int nameLength, long id, int other) {
+            if (documentMatches != matches[other]) {
+                return documentMatches > matches[other];
+            }
+            if (nameLength != hitNameLengths[other]) {
+                return nameLength < hitNameLengths[other];
+            }
+            return id < ids[other];
+        }
+    }
+
+    /* insertion sort of the posting lists by size, a term has a few trigrams */
+    private static void sortBySize(int[][] lists, int[] sizes) {
+
+        for (int i = 1; i < lists.length; i++) {
+            var list = lists[i];
+            int size = sizes[i];
+            int j = i - 1;
+            for (; j >= 0 && sizes[j] > size; j--) {
+                lists[j + 1] = lists[j];
+                sizes[j + 1] = sizes[j];
+            }
+            lists[j + 1] = list;
+            sizes[j + 1] = size;
+        }
+    }
+
+    /* the first position from 'from' with a document >= 'target', by a galloping search */
+    private static int advance(int[] list, int size, int from, int target) {
+        // the next candidate is usually close, a few steps are cheaper than a search
+        int end = Math.min(from + 8, size);
+        while (from < end && list[from] < target) {
+            from++;
+        }
+        if (from == size || list[from] >= target) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        while (low + step < size && list[low + step] < target) {
+            low += step;
+            step <<= 1;
+        }
+        int position = Arrays.binarySearch(list, low + 1, Math.min(low + step + 1, size), target);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /* the trigrams of a name, padded by a space on both sides so the start and the end of the words count */
+    static long[] nameGrams(String name) {
+        return grams(" " + normalize(name) + " ");
+    }
+
+    /* only the start of the term is padded, the last word is usually still being typed */
+    static long[] termGrams(String term) {
+        return term == null ? new long[0] : grams(" " + normalize(term));
+    }
+
+    /* lower case letters and digits, any other run of characters becomes a single space */
+    static String normalize(String text) {
+        var normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            } else if (!normalized.isEmpty() && normalized.charAt(normalized.length() - 1) != ' ') {
+                normalized.append(' ');
+            }
+        }
+        int end = normalized.length();
+        return end > 0 && normalized.charAt(end - 1) == ' ' ? normalized.substring(0, end - 1) : normalized.toString();
+    }
+
+    /* the distinct trigrams of 'text', each one packed in a long (3 x 16 bits) */
+    private static long[] grams(String text) {
+        if (text.length() < 3) {
+            return new long[0];
+        }
+        var grams = new long[text.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int distinct = 1;
+        for (int i = 1; i < grams.length; i++) {
+            if (grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return distinct == grams.length ? grams : Arrays.copyOf(grams, distinct);
+    }
+}
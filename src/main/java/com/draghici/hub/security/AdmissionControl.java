@@ -0,0 +1,119 @@
+package com.draghici.hub.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * the limiters of the admission control, one per principal and endpoint (see AdmissionLimiter).
+ * They are kept in a bounded cache and dropped after 'idle-expiry' without requests, a dropped limiter starts full again.
+ * A limiter evicted with requests in flight is parked until the next request of its key takes it back:
+ * a new limiter would let 'max-concurrency' more requests in next to the running ones.
+ */
+public class AdmissionControl {
+
+    final static String RATE = "rate";
+    final static String CONCURRENCY = "concurrency";
+
+    // the endpoints come from the client, past this many rejection meters the new ones are counted under OTHER_ENDPOINT
+    final static int MAX_REJECTION_METERS = 200;
+    final static String OTHER_ENDPOINT = "other";
+
+    private final boolean enabled;
+    private final double ratePerSecond;
+    private final int burst;
+    private final int maxConcurrency;
+    private final int minConcurrency;
+    private final long targetLatencyNanos;
+
+    private final Cache<String, AdmissionLimiter> limiters;
+    // the limiters evicted with requests in flight, few and short-lived
+    private final ConcurrentMap<String, AdmissionLimiter> parked = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    // one counter per reason and endpoint, looked up without building the meter id on every rejection
+    private final ConcurrentMap<String, Counter> rejections = new ConcurrentHashMap<>();
+
+    public AdmissionControl(MeterRegistry meterRegistry,
+                            boolean enabled,
+                            double ratePerSecond,
+                            int burst,
+                            int maxConcurrency,
+                            Duration targetLatency,
+                            int minConcurrency,
+                            long maxLimiters,
+                            Duration idleExpiry) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.maxConcurrency = maxConcurrency;
+        this.minConcurrency = minConcurrency;
+        // a null target latency keeps the limits fixed
+        this.targetLatencyNanos = targetLatency == null ? 0L : targetLatency.toNanos();
+        this.limiters = Caffeine.newBuilder()
+                .expireAfterAccess(idleExpiry)
+                .maximumSize(maxLimiters)
+                .evictionListener((String key, AdmissionLimiter limiter, RemovalCause cause) -> {
+                    if (limiter != null && limiter.getInFlight() > 0) {
+                        parked.put(key, limiter);
+                    }
+                })
+                .build();
+
+        Gauge.builder("hub.admission.limiters", limiters, Cache::estimatedSize)
+                .description("Principal and endpoint pairs with a limiter")
+                .register(meterRegistry);
+        Gauge.builder("hub.admission.in.flight", this, AdmissionControl::inFlight)
+                .description("Requests in progress, over all the limiters")
+                .register(meterRegistry);
+        Gauge.builder("hub.admission.concurrency.limit.min", this, AdmissionControl::lowestConcurrencyLimit)
+                .description("Lowest concurrency limit of the limiters, below the maximum once the adaptive mode lowered it")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    AdmissionLimiter limiter(String principal, String endpoint) {
+        return limiters.get(principal + ' ' + endpoint, this::newLimiter);
+    }
+
+    /* the parked limiter of the key, or a new one. The parked limiters whose requests all completed are dropped */
+    private AdmissionLimiter newLimiter(String key) {
+        var limiter = parked.remove(key);
+        if (!parked.isEmpty()) {
+            parked.values().removeIf(idle -> idle.getInFlight() == 0);
+        }
+        return limiter != null ? limiter : new AdmissionLimiter(ratePerSecond, burst, maxConcurrency, minConcurrency, targetLatencyNanos, System.nanoTime());
+    }
+
+    void rejected(String endpoint, String reason) {
+        var counter = rejections.get(reason + ' ' + endpoint);
+        if (counter == null) {
+            var tag = rejections.size() < MAX_REJECTION_METERS ? endpoint : OTHER_ENDPOINT;
+            counter = rejections.computeIfAbsent(reason + ' ' + tag, key -> Counter.builder("hub.admission.rejected")
+                    .description("Requests rejected with a 429 before they reached the controllers")
+                    .tag("reason", reason)
+                    .tag("endpoint", tag)
+                    .register(meterRegistry));
+        }
+        counter.increment();
+    }
+
+    private double inFlight() {
+        return limiters.asMap().values().stream().mapToInt(AdmissionLimiter::getInFlight).sum()
+                + parked.values().stream().mapToInt(AdmissionLimiter::getInFlight).sum();
+    }
+
+    private double lowestConcurrencyLimit() {
+        return limiters.asMap().values().stream().mapToInt(AdmissionLimiter::getConcurrencyLimit).min().orElse(maxConcurrency);
+    }
+}
@@ -0,0 +1,162 @@
+package com.draghici.hub.security;
+
+import com.draghici.hub.exceptions.HubException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * admission control of the API, the last filter of the security chain: the principal is known,
+ * and a rejected request never reaches a controller or the database.
+ * A request over the rate or the concurrency limit of its principal on its endpoint fails fast with a 429 and a Retry-After.
+ * The slot is given back when the request returns, or when the response completes for a streamed or async one
+ * (the export, the server-sent events), so a long response holds its slot as long as it runs.
+ * The time of an async request depends on its client, it is not a latency sample of the adaptive mode.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private final static Logger logger = LogManager.getLogger(AdmissionControlFilter.class);
+
+    private final static String API_PATH = "/api/";
+    private final static int HTTP_TOO_MANY_REQUESTS = 429;
+    // a concurrency slot is freed by a running request, there is no better guess
+    private final static long CONCURRENCY_RETRY_AFTER_SECONDS = 1;
+
+    private final AdmissionControl admissionControl;
+    private final ObjectMapper objectMapper;
+
+    public AdmissionControlFilter(AdmissionControl admissionControl, ObjectMapper objectMapper) {
+        this.admissionControl = admissionControl;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !path(request).startsWith(API_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        var endpoint = endpoint(request);
+        var limiter = admissionControl.limiter(principal(request), endpoint);
+
+        if (!limiter.tryEnter()) {
+            reject(response, endpoint, AdmissionControl.CONCURRENCY, CONCURRENCY_RETRY_AFTER_SECONDS);
+            return;
+        }
+        long start = System.nanoTime();
+        long wait = limiter.tryTake(start);
+        if (wait > 0) {
+            limiter.exit();
+            reject(response, endpoint, AdmissionControl.RATE, Math.max(1, (wait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new SlotRelease(limiter));
+            } else {
+                long end = System.nanoTime();
+                limiter.exit(end, end - start);
+            }
+        }
+    }
+
+    /*
+     * the method and the decoded path, each segment with a digit replaced by {id} so all the products share one limiter.
+     * The path is decoded so an encoded character does not make another endpoint of the same handler
+     */
+    static String endpoint(HttpServletRequest request) {
+        var path = path(request);
+        var endpoint = new StringBuilder(request.getMethod().length() + path.length() + 1).append(request.getMethod()).append(' ');
+        int start = 1;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            endpoint.append('/');
+            var segment = path.substring(start, end);
+            endpoint.append(segment.chars().anyMatch(Character::isDigit) ? "{id}" : segment);
+            start = end + 1;
+        }
+        return endpoint.toString();
+    }
+
+    private static String path(HttpServletRequest request) {
+        return UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+    }
+
+    /* every API path requires an authentication, the address only covers a chain configured otherwise */
+    private static String principal(HttpServletRequest request) {
+        var authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null && authentication.isAuthenticated() ? authentication.getName() : request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, String endpoint, String reason, long retryAfterSeconds) throws IOException {
+        admissionControl.rejected(endpoint, reason);
+        logger.debug("Request to {} rejected by the {} limit, retry after {} s", endpoint, reason, retryAfterSeconds);
+
+        response.setStatus(HTTP_TOO_MANY_REQUESTS);
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(),
+                new HubException("Too many requests, please retry after " + retryAfterSeconds + " seconds", HTTP_TOO_MANY_REQUESTS));
+    }
+
+    /* gives the slot of an async request back once, when its response ends whichever way */
+    private static final class SlotRelease implements AsyncListener {
+
+        private final AdmissionLimiter limiter;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        SlotRelease(AdmissionLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // a new async cycle of the same request, the listener must be added again to be called
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limiter.exit();
+            }
+        }
+    }
+}
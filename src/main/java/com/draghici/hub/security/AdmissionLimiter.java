@@ -0,0 +1,104 @@
+package com.draghici.hub.security;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * rate and concurrency limit of one principal on one endpoint, without locks.
+ *
+ * The rate is a token bucket written as GCRA: a single 'theoretical arrival time' moves by one interval per admitted
+ * request, a request is rejected when it would move more than 'burst' intervals ahead of now.
+ * The concurrency is a counter of the requests in progress, checked against the current limit.
+ * In the adaptive mode a request slower than the target latency cuts the limit by 10% (at most once per target latency),
+ * a fast request of a full limiter raises it by one, back up to the configured maximum.
+ * The rate follows the same ratio, so a lowered limit also spaces the requests out.
+ */
+final class AdmissionLimiter {
+
+    private final long intervalNanos;
+    private final int burst;
+    private final int maxConcurrency;
+    private final int minConcurrency;
+    // 0 when the limits are fixed
+    private final long targetLatencyNanos;
+
+    private final AtomicLong theoreticalArrival;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger concurrencyLimit;
+    private final AtomicLong lastDecrease;
+
+    AdmissionLimiter(double ratePerSecond, int burst, int maxConcurrency, int minConcurrency, long targetLatencyNanos, long now) {
+        this.intervalNanos = Math.max(1L, (long) (1_000_000_000d / ratePerSecond));
+        this.burst = burst;
+        this.maxConcurrency = maxConcurrency;
+        this.minConcurrency = Math.min(minConcurrency, maxConcurrency);
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.theoreticalArrival = new AtomicLong(now);
+        this.concurrencyLimit = new AtomicInteger(maxConcurrency);
+        this.lastDecrease = new AtomicLong(now - targetLatencyNanos);
+    }
+
+    /* takes a slot of the concurrency limit. Return false when all of them are taken */
+    boolean tryEnter() {
+        for (; ; ) {
+            int running = inFlight.get();
+            if (running >= concurrencyLimit.get()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /* takes a token. Return 0 when it was taken, otherwise the nanoseconds until the next one */
+    long tryTake(long now) {
+        long interval = intervalNanos * maxConcurrency / concurrencyLimit.get();
+        long tolerance = interval * burst;
+        for (; ; ) {
+            long arrival = theoreticalArrival.get();
+            long next = Math.max(arrival, now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /* gives the slot back without a latency sample, the request was not run */
+    void exit() {
+        inFlight.decrementAndGet();
+    }
+
+    /* gives the slot back, the latency of the request adapts the limit */
+    void exit(long now, long latencyNanos) {
+        int running = inFlight.getAndDecrement();
+        if (targetLatencyNanos > 0) {
+            adapt(now, latencyNanos, running);
+        }
+    }
+
+    int getConcurrencyLimit() {
+        return concurrencyLimit.get();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void adapt(long now, long latencyNanos, int running) {
+        int limit = concurrencyLimit.get();
+        if (latencyNanos > targetLatencyNanos) {
+            // the slow requests of one burst count once
+            long last = lastDecrease.get();
+            if (now - last >= targetLatencyNanos && lastDecrease.compareAndSet(last, now)) {
+                concurrencyLimit.compareAndSet(limit, Math.max(minConcurrency, limit * 9 / 10));
+            }
+        } else if (running >= limit && limit < maxConcurrency) {
+            concurrencyLimit.compareAndSet(limit, limit + 1);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.draghici.hub.security;
+
+import lombok.AllArgsConstructor;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/*
+ * runs the expensive password verification of the delegate (BCrypt) only on a cache miss.
+ * Failed attempts are never cached, they always reach the delegate.
+ * Every request gets an Authentication of its own, built from the cached principal and authorities:
+ * the ProviderManager sets the details and erases the credentials of the token it gets back.
+ */
+@AllArgsConstructor
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    private final AuthenticationProvider delegate;
+    private final CredentialCache credentialCache;
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        if (!(authentication.getCredentials() instanceof String password)) {
+            return delegate.authenticate(authentication);
+        }
+
+        var username = authentication.getName();
+        var cached = credentialCache.get(username, password);
+        if (cached != null) {
+            var result = UsernamePasswordAuthenticationToken.authenticated(cached.getPrincipal(), null, cached.getAuthorities());
+            result.setDetails(authentication.getDetails());
+            return result;
+        }
+
+        // read before the verification, a change of the user meanwhile keeps its outcome out of the cache
+        long generation = credentialCache.generation(username);
+        var result = delegate.authenticate(authentication);
+        if (result != null && result.isAuthenticated()) {
+            credentialCache.put(username, password, result, generation);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+}
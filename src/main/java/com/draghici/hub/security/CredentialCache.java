@@ -0,0 +1,96 @@
+package com.draghici.hub.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.core.Authentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * short-lived cache of the successful credential verifications.
+ * The entries are keyed by an HMAC of username + password with a random per-process key,
+ * so the raw password is never kept in memory and a cache dump cannot be brute forced offline.
+ * Each user has a generation, moved by evict(): a verification started before a change of the user
+ * (a new password) is not cached once it completes.
+ */
+public class CredentialCache {
+
+    private final static String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final Cache<String, Authentication> cache;
+    private final Mac prototypeMac;
+    // username -> number of evictions, only the users that were changed have one
+    private final ConcurrentMap<String, Long> generations = new ConcurrentHashMap<>();
+
+    public CredentialCache(Duration ttl, long maxSize) {
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maxSize)
+                .build();
+
+        var key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        try {
+            prototypeMac = Mac.getInstance(HMAC_ALGORITHM);
+            prototypeMac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize the credential cache", e);
+        }
+    }
+
+    public Authentication get(String username, String password) {
+        return cache.getIfPresent(keyOf(username, password));
+    }
+
+    /* the generation to read before a verification and to give back to put() */
+    public long generation(String username) {
+        return generations.getOrDefault(username, 0L);
+    }
+
+    /*
+     * caches a verification unless the user was changed since 'generation' was read.
+     * The generation is checked again after the put: an evict() that ran in between may have missed the new entry
+     */
+    public void put(String username, String password, Authentication authentication, long generation) {
+        if (generation(username) != generation) {
+            return;
+        }
+        var key = keyOf(username, password);
+        cache.put(key, authentication);
+        if (generation(username) != generation) {
+            cache.invalidate(key);
+        }
+    }
+
+    /* drops all the cached verifications of a user, called when the user is changed or removed */
+    public void evict(String username) {
+        generations.merge(username, 1L, Long::sum);
+        cache.asMap().values().removeIf(authentication -> authentication.getName().equals(username));
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private String keyOf(String username, String password) {
+        Mac mac;
+        try {
+            // a cloned Mac skips the provider lookup and the key setup
+            mac = (Mac) prototypeMac.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(password.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(mac.doFinal());
+    }
+}
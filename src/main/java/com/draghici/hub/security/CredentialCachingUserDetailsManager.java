@@ -0,0 +1,49 @@
+package com.draghici.hub.security;
+
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+/* in memory users that drop their cached credential verifications on every change */
+public class CredentialCachingUserDetailsManager extends InMemoryUserDetailsManager {
+
+    private final CredentialCache credentialCache;
+
+    public CredentialCachingUserDetailsManager(CredentialCache credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
+    @Override
+    public void createUser(UserDetails user) {
+        super.createUser(user);
+        credentialCache.evict(user.getUsername());
+    }
+
+    @Override
+    public void updateUser(UserDetails user) {
+        super.updateUser(user);
+        credentialCache.evict(user.getUsername());
+    }
+
+    @Override
+    public void deleteUser(String username) {
+        super.deleteUser(username);
+        credentialCache.evict(username);
+    }
+
+    @Override
+    public void changePassword(String oldPassword, String newPassword) {
+        super.changePassword(oldPassword, newPassword);
+        var currentUser = SecurityContextHolder.getContext().getAuthentication();
+        if (currentUser != null) {
+            credentialCache.evict(currentUser.getName());
+        }
+    }
+
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        var updatedUser = super.updatePassword(user, newPassword);
+        credentialCache.evict(user.getUsername());
+        return updatedUser;
+    }
+}
@@ -0,0 +1,52 @@
+package com.draghici.hub.security;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.ReactiveAuthenticationManagerAdapter;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+
+import static org.springframework.security.config.Customizer.withDefaults;
+
+/*
+ * the rules of Security for the reactive variant of the API.
+ * It reuses the users and the credential cache, the BCrypt verifications of the cache misses run on the bounded elastic scheduler.
+ */
+@Configuration
+@EnableWebFluxSecurity
+@Profile("reactive")
+public class ReactiveSecurity {
+
+    @Bean
+    public ReactiveAuthenticationManager reactiveAuthenticationManager(AuthenticationProvider authenticationProvider) {
+        return new ReactiveAuthenticationManagerAdapter(new ProviderManager(authenticationProvider));
+    }
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+        http.authorizeExchange(exchange ->
+                exchange.pathMatchers(
+                        "/v3/**",
+                        "/swagger-ui/**"
+                ).permitAll()
+
+                .pathMatchers("/actuator/health").permitAll()
+                .pathMatchers("/actuator/**").hasAnyAuthority("ADMIN")
+                .pathMatchers(HttpMethod.POST, "/api/product").hasAnyAuthority("ADMIN")
+                .pathMatchers(HttpMethod.POST, "/api/product/batch").hasAnyAuthority("ADMIN")
+                .pathMatchers(HttpMethod.PATCH, "/api/product/{id}").hasAnyAuthority("ADMIN")
+                .pathMatchers(HttpMethod.DELETE, "/api/product/{id}").hasAnyAuthority("ADMIN")
+                .anyExchange().authenticated()
+        ).httpBasic(withDefaults());
+
+        http.csrf(ServerHttpSecurity.CsrfSpec::disable);
+
+        return http.build();
+    }
+}
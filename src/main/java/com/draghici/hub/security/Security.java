@@ -1,11 +1,18 @@
 package com.draghici.hub.security;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.enums.SecuritySchemeType;
 import io.swagger.v3.oas.annotations.security.SecurityScheme;
 import io.swagger.v3.oas.annotations.servers.Server;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -13,13 +20,14 @@ import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.access.intercept.AuthorizationFilter;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 import static org.springframework.security.config.Customizer.withDefaults;
 
-@EnableWebSecurity
 @Component
 @SecurityScheme(
         name = "basicAuth",
@@ -40,9 +48,15 @@ public class Security {
     }
 
     @Bean
-    public UserDetailsService userDetailsService() {
+    public CredentialCache credentialCache(@Value("${hub.security.credential-cache.ttl:60s}") Duration ttl,
+                                           @Value("${hub.security.credential-cache.max-size:10000}") long maxSize) {
+        return new CredentialCache(ttl, maxSize);
+    }
+
+    @Bean
+    public UserDetailsService userDetailsService(CredentialCache credentialCache) {
         var passwordEncoder = passwordEncoder();
-        InMemoryUserDetailsManager manager = new InMemoryUserDetailsManager();
+        var manager = new CredentialCachingUserDetailsManager(credentialCache);
 
         var admin = User.withUsername("admin")
                 .password(passwordEncoder.encode("admin"))
@@ -58,8 +72,43 @@ public class Security {
         return manager;
     }
 
+    /*
+     * the BCrypt verification runs only the first time a username/password pair is seen within the cache TTL.
+     * Its duration is recorded by the 'hub.security.password.verification' timer
+     */
+    @Bean
+    public AuthenticationProvider authenticationProvider(UserDetailsService userDetailsService,
+                                                         PasswordEncoder passwordEncoder,
+                                                         CredentialCache credentialCache,
+                                                         MeterRegistry meterRegistry) {
+        var daoProvider = new DaoAuthenticationProvider(new TimedPasswordEncoder(passwordEncoder, meterRegistry));
+        daoProvider.setUserDetailsService(userDetailsService);
+        return new CachingAuthenticationProvider(daoProvider, credentialCache);
+    }
+
+    /*
+     * per principal and endpoint token bucket and concurrency limit of the API, see AdmissionControlFilter.
+     * The adaptive mode lowers the limits while the requests are slower than 'target-latency'
+     */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    @Profile("!reactive")
+    public AdmissionControl admissionControl(MeterRegistry meterRegistry,
+                                             @Value("${hub.admission.enabled:false}") boolean enabled,
+                                             @Value("${hub.admission.rate:100}") double rate,
+                                             @Value("${hub.admission.burst:200}") int burst,
+                                             @Value("${hub.admission.max-concurrency:20}") int maxConcurrency,
+                                             @Value("${hub.admission.adaptive.enabled:false}") boolean adaptive,
+                                             @Value("${hub.admission.adaptive.target-latency:250ms}") Duration targetLatency,
+                                             @Value("${hub.admission.adaptive.min-concurrency:2}") int minConcurrency,
+                                             @Value("${hub.admission.max-limiters:10000}") long maxLimiters,
+                                             @Value("${hub.admission.idle-expiry:10m}") Duration idleExpiry) {
+        return new AdmissionControl(meterRegistry, enabled, rate, burst, maxConcurrency,
+                adaptive ? targetLatency : null, minConcurrency, maxLimiters, idleExpiry);
+    }
+
+    @Bean
+    @Profile("!reactive")
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, AdmissionControl admissionControl, ObjectMapper objectMapper) throws Exception {
         http.authorizeHttpRequests(ahr ->
                 ahr.requestMatchers(
                         "/h2-console/**",
@@ -70,9 +119,13 @@ public class Security {
                         "/swagger-resources/**"
                 ).permitAll()
 
+                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/actuator/**").hasAnyAuthority("ADMIN")
                 .requestMatchers(HttpMethod.GET, "/api/product").authenticated()
                 .requestMatchers(HttpMethod.GET, "/api/product/{id}").authenticated()
+                .requestMatchers(HttpMethod.POST, "/api/product/lookup").authenticated()
                 .requestMatchers(HttpMethod.POST, "/api/product").hasAnyAuthority("ADMIN")
+                .requestMatchers(HttpMethod.POST, "/api/product/batch").hasAnyAuthority("ADMIN")
                 .requestMatchers(HttpMethod.PATCH, "/api/product/{id}").hasAnyAuthority("ADMIN")
                 .requestMatchers(HttpMethod.DELETE, "/api/product/{id}").hasAnyAuthority("ADMIN")
                 .anyRequest().authenticated()
@@ -80,7 +133,20 @@ public class Security {
 
         http.csrf(AbstractHttpConfigurer::disable);
 
+        // after the authorization, only the authenticated and allowed requests are counted.
+        // Not a bean, spring boot would also register it outside of the security chain
+        if (admissionControl.isEnabled()) {
+            http.addFilterAfter(new AdmissionControlFilter(admissionControl, objectMapper), AuthorizationFilter.class);
+        }
+
         return http.build();
     }
 
-}
\ No newline at end of file
+    /* the servlet security clashes with the WebFlux one of the 'reactive' profile (see ReactiveSecurity) */
+    @Configuration
+    @EnableWebSecurity
+    @Profile("!reactive")
+    static class ServletSecurity {
+    }
+
+}
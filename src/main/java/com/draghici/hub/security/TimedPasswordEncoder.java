@@ -0,0 +1,52 @@
+package com.draghici.hub.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * times the password verifications of the delegate, that is the BCrypt cost of an authentication.
+ * The timer is tagged with the result, a failed verification costs as much as a successful one.
+ */
+public class TimedPasswordEncoder implements PasswordEncoder {
+
+    public final static String VERIFICATION_TIMER = "hub.security.password.verification";
+
+    private final PasswordEncoder delegate;
+    private final Timer matchTimer;
+    private final Timer mismatchTimer;
+
+    public TimedPasswordEncoder(PasswordEncoder delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        matchTimer = timer(meterRegistry, "match");
+        mismatchTimer = timer(meterRegistry, "mismatch");
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        long start = System.nanoTime();
+        boolean matches = delegate.matches(rawPassword, encodedPassword);
+        (matches ? matchTimer : mismatchTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, String result) {
+        return Timer.builder(VERIFICATION_TIMER)
+                .description("Password verifications of the basic authentication")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,219 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import jakarta.annotation.PreDestroy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.draghici.hub.services.ProductValidation.CHANGE_TOKEN_EXPIRED_EXCEPTION;
+import static com.draghici.hub.services.ProductValidation.INVALID_CHANGE_TOKEN_EXCEPTION;
+
+/*
+ * modification sequence and tombstones of the delta sync (/api/product/changes).
+ *
+ * Every insert, update and delete of a product takes the next number of the sequence, stored in P_PRODUCTS.mod_seq
+ * or in the tombstone of the deleted product. The numbers are taken before the commit, so a number is 'in flight'
+ * until its transaction completes: a reader only goes up to the watermark, below the oldest number in flight,
+ * and never skips a change committed late with a lower number.
+ *
+ * A token is '<epoch>.<sequence>' at the end of the changes, '<epoch>.<sequence>.<productId>' after a page
+ * cut in the middle of them: the changes are read in (sequence, product id) order, so the rows sharing a sequence
+ * (inserted without one, like the SQL scripts) are still paged through one by one.
+ * The epoch is the start time of the application. A token of another run,
+ * or older than the compacted tombstones ('tombstone-retention'), has expired: the client syncs again without a token.
+ */
+@Component
+@Profile("!reactive")
+public class ProductChangeTracker {
+
+    private final static Logger logger = LogManager.getLogger(ProductChangeTracker.class);
+
+    private final ProductRepository productRepository;
+    private final ProductTombstoneRepository tombstoneRepository;
+    private final Duration tombstoneRetention;
+    private final Duration compactionInterval;
+
+    private final long epoch = System.currentTimeMillis();
+
+    // guards 'last' and 'inFlight', held for a few instructions only
+    private final ReentrantLock lock = new ReentrantLock();
+    private long last;
+    // first number of the blocks taken by the transactions not completed yet
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+
+    // the tombstones up to this number were removed, an older token cannot see all the deletions
+    private volatile long compactedThrough;
+
+    private ScheduledExecutorService scheduler;
+
+    /* the position of a client in the changes: after the change of 'productId' at 'sequence' */
+    public record Cursor(long sequence, long productId) {
+
+        /* a full sync */
+        public final static Cursor START = after(-1);
+
+        /* after every change up to 'sequence' */
+        public static Cursor after(long sequence) {
+            return new Cursor(sequence, Long.MAX_VALUE);
+        }
+    }
+
+    public ProductChangeTracker(ProductRepository productRepository,
+                                ProductTombstoneRepository tombstoneRepository,
+                                @Value("${hub.product.changes.tombstone-retention:7d}") Duration tombstoneRetention,
+                                @Value("${hub.product.changes.compaction-interval:1h}") Duration compactionInterval) {
+        this.productRepository = productRepository;
+        this.tombstoneRepository = tombstoneRepository;
+        this.tombstoneRetention = tombstoneRetention;
+        this.compactionInterval = compactionInterval;
+    }
+
+    /* continues after the numbers already in the database, then compacts the tombstones every 'compaction-interval' */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long stored = Math.max(productRepository.getLastModSeq(), tombstoneRepository.getLastModSeq());
+        lock.lock();
+        try {
+            last = Math.max(last, stored);
+        } finally {
+            lock.unlock();
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("product-tombstone-compaction").daemon().factory());
+        long interval = compactionInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Delta sync continues after modification sequence {}, tombstones kept for {}", stored, tombstoneRetention);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /*
+     * the first of 'count' consecutive numbers, in flight until the current transaction completes.
+     * Without a transaction the statement commits on its own and the numbers are released right away
+     */
+    public long next(int count) {
+        long first = begin(count);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    end(first);
+                }
+            });
+        } else {
+            end(first);
+        }
+        return first;
+    }
+
+    /* the first of 'count' consecutive numbers, in flight until end() is called with it */
+    public long begin(int count) {
+        lock.lock();
+        try {
+            long first = last + 1;
+            last += count;
+            inFlight.add(first);
+            return first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* the write that took 'first' was committed or rolled back */
+    public void end(long first) {
+        lock.lock();
+        try {
+            inFlight.remove(first);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* every change up to this number is committed or rolled back */
+    public long watermark() {
+        lock.lock();
+        try {
+            return inFlight.isEmpty() ? last : inFlight.first() - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* the position after which the changes are read, Cursor.START without a token */
+    public Cursor parseToken(String token) {
+        if (token == null || token.isBlank()) {
+            return Cursor.START;
+        }
+        int dot = token.indexOf('.');
+        int productDot = dot < 0 ? -1 : token.indexOf('.', dot + 1);
+        long tokenEpoch;
+        long sequence;
+        long productId;
+        try {
+            if (dot < 0) {
+                throw INVALID_CHANGE_TOKEN_EXCEPTION;
+            }
+            tokenEpoch = Long.parseLong(token, 0, dot, 10);
+            sequence = Long.parseLong(token, dot + 1, productDot < 0 ? token.length() : productDot, 10);
+            productId = productDot < 0 ? Long.MAX_VALUE : Long.parseLong(token, productDot + 1, token.length(), 10);
+        } catch (NumberFormatException e) {
+            throw INVALID_CHANGE_TOKEN_EXCEPTION;
+        }
+        if (tokenEpoch != epoch) {
+            throw CHANGE_TOKEN_EXPIRED_EXCEPTION;
+        }
+        if (sequence < 0 || sequence > watermark()) {
+            throw INVALID_CHANGE_TOKEN_EXCEPTION;
+        }
+        checkNotCompacted(sequence);
+        return new Cursor(sequence, productId);
+    }
+
+    /* checked again after the reads, a compaction running meanwhile may have removed tombstones they needed */
+    public void checkNotCompacted(long sequence) {
+        if (sequence >= 0 && sequence < compactedThrough) {
+            throw CHANGE_TOKEN_EXPIRED_EXCEPTION;
+        }
+    }
+
+    public String token(Cursor cursor) {
+        return cursor.productId() == Long.MAX_VALUE ? epoch + "." + cursor.sequence() : epoch + "." + cursor.sequence() + "." + cursor.productId();
+    }
+
+    /* removes the tombstones older than 'tombstone-retention' */
+    void compact() {
+        try {
+            var through = tombstoneRepository.getLastModSeqBefore(Instant.now().minus(tombstoneRetention));
+            if (through == null || through <= compactedThrough) {
+                return;
+            }
+            // raised first, so a reader never misses a tombstone without noticing it
+            compactedThrough = through;
+            int removed = tombstoneRepository.deleteTombstonesThrough(through);
+            logger.info("{} tombstones compacted, the change tokens up to {} expired", removed, through);
+        } catch (RuntimeException e) {
+            logger.error("Tombstone compaction failed", e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.repositories.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static com.draghici.hub.services.ProductValidation.WRITE_QUEUE_EXCEPTION;
+import static com.draghici.hub.services.ProductValidation.WRITE_TIMEOUT_EXCEPTION;
+
+/*
+ * write-behind group commit of the new products, enabled with 'hub.product.group-commit.enabled'.
+ *
+ * The concurrent add() calls queue their product and wait. A single writer thread inserts the queued products
+ * in one transaction once 'max-batch-size' of them are queued, or 'max-delay' after the first one, then wakes the callers:
+ * a caller gets its id only once its batch is committed, as with a transaction of its own.
+ * The queue is bounded, a caller waits at most 'enqueue-timeout' for a free slot and then fails with a 503.
+ * The writer takes the modification sequence of the products in their transaction and runs the 'onCommit' callback
+ * of each caller once the batch is committed, so the change events and the watermark never run ahead of the rows.
+ * A caller waits at most 'commit-timeout' for its commit and then fails with a 503, unless the writer already claimed
+ * its product: the product is then committed, and the caller keeps waiting for it, so a 503 always means 'not saved'.
+ * Once the writer stops, on shutdown or after an error, the products left in the queue are failed with a 503.
+ */
+@Component
+@Profile("!reactive")
+public class ProductGroupCommit {
+
+    private final static Logger logger = LogManager.getLogger(ProductGroupCommit.class);
+
+    private final ProductRepository productRepository;
+    private final EntityManager entityManager;
+    private final ProductChangeTracker changeTracker;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long enqueueTimeoutNanos;
+    private final long commitTimeoutNanos;
+    private final BlockingQueue<PendingProduct> queue;
+
+    private final DistributionSummary batchSizes;
+    private final Timer commitTimer;
+    private final Timer latencyTimer;
+    private final Counter rejected;
+
+    private final Thread writer;
+    private volatile boolean running;
+
+    public ProductGroupCommit(ProductRepository productRepository,
+                              EntityManager entityManager,
+                              ProductChangeTracker changeTracker,
+                              PlatformTransactionManager transactionManager,
+                              MeterRegistry meterRegistry,
+                              @Value("${hub.product.group-commit.enabled:false}") boolean enabled,
+                              @Value("${hub.product.group-commit.max-batch-size:500}") int maxBatchSize,
+                              @Value("${hub.product.group-commit.max-delay:5ms}") Duration maxDelay,
+                              @Value("${hub.product.group-commit.queue-capacity:10000}") int queueCapacity,
+                              @Value("${hub.product.group-commit.enqueue-timeout:100ms}") Duration enqueueTimeout,
+                              @Value("${hub.product.group-commit.commit-timeout:30s}") Duration commitTimeout) {
+        this.productRepository = productRepository;
+        this.entityManager = entityManager;
+        this.changeTracker = changeTracker;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.enqueueTimeoutNanos = enqueueTimeout.toNanos();
+        this.commitTimeoutNanos = commitTimeout.toNanos();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("hub.product.group.commit.queue", queue, BlockingQueue::size)
+                .description("Products waiting for their group commit")
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("hub.product.group.commit.batch.size")
+                .description("Products inserted by a group commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        commitTimer = Timer.builder("hub.product.group.commit.duration")
+                .description("Transaction of a group commit, inserts and commit")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        latencyTimer = Timer.builder("hub.product.group.commit.latency")
+                .description("Time from the queuing of a product to the commit of its batch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        rejected = Counter.builder("hub.product.group.commit.rejected")
+                .description("Products rejected because the queue was full")
+                .register(meterRegistry);
+
+        writer = Thread.ofPlatform().name("product-group-commit").daemon().unstarted(this::writeLoop);
+        if (enabled) {
+            running = true;
+            writer.start();
+            logger.info("Group commit of the new products enabled, batches of up to {} products every {} ms", maxBatchSize, maxDelay.toMillis());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /*
+     * queues the product and blocks until its batch is committed. Return the saved product, with its id.
+     * 'onCommit' is called by the writer with the saved product, after the commit and before the caller wakes up
+     */
+    public Product save(Product product, Consumer<Product> onCommit) {
+        var pending = new PendingProduct(product, onCommit);
+        try {
+            if (!running || !queue.offer(pending, enqueueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                rejected.increment();
+                throw WRITE_QUEUE_EXCEPTION;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw WRITE_QUEUE_EXCEPTION;
+        }
+        // the writer may have stopped between the check and the offer, after its last drain of the queue
+        if (!running && queue.remove(pending)) {
+            rejected.increment();
+            throw WRITE_QUEUE_EXCEPTION;
+        }
+
+        try {
+            return pending.committed.get(commitTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return giveUp(pending);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return giveUp(pending);
+        }
+    }
+
+    /* a product still queued is skipped by the writer, one it already claimed is committed and waited for */
+    private Product giveUp(PendingProduct pending) {
+        if (pending.claimed.compareAndSet(false, true)) {
+            logger.warn("A product was not committed within {} ms", TimeUnit.NANOSECONDS.toMillis(commitTimeoutNanos));
+            throw WRITE_TIMEOUT_EXCEPTION;
+        }
+        try {
+            return pending.committed.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        return cause instanceof RuntimeException runtime ? runtime : new IllegalStateException(cause);
+    }
+
+    /* the products already queued are still committed, the new ones are rejected */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (running) {
+            running = false;
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        failQueued();
+    }
+
+    private void writeLoop() {
+        try {
+            writeBatches();
+        } finally {
+            // on shutdown or when the writer dies of an Error, nobody would ever commit the products still queued
+            running = false;
+            failQueued();
+        }
+    }
+
+    private void writeBatches() {
+        List<PendingProduct> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                var first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fill(batch, first.enqueuedAt + maxDelayNanos);
+                commit(batch);
+            } catch (InterruptedException e) {
+                // stops taking new products, the queued ones are still committed
+                logger.warn("The group commit writer was interrupted");
+                running = false;
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Group commit failed", e);
+            } finally {
+                // not committed, only after an unexpected error
+                batch.forEach(pending -> pending.committed.completeExceptionally(WRITE_QUEUE_EXCEPTION));
+                batch.clear();
+            }
+        }
+    }
+
+    private void failQueued() {
+        for (PendingProduct pending; (pending = queue.poll()) != null; ) {
+            pending.committed.completeExceptionally(WRITE_QUEUE_EXCEPTION);
+        }
+    }
+
+    /* takes what is already queued, then waits for more until the batch is full or its deadline is reached */
+    private void fill(List<PendingProduct> batch, long deadline) throws InterruptedException {
+        while (batch.size() < maxBatchSize) {
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() == maxBatchSize || remaining <= 0) {
+                return;
+            }
+            var next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /*
+     * inserts the whole batch in one transaction, in JDBC batches.
+     * When it fails, the products are inserted one by one so a single bad product only fails its own caller.
+     * The committed products are removed from the batch.
+     */
+    private void commit(List<PendingProduct> batch) {
+        // the callers that timed out already failed, their products are not inserted. The others can no longer time out
+        batch.removeIf(pending -> !pending.claimed.compareAndSet(false, true));
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchSizes.record(batch.size());
+        long start = System.nanoTime();
+        try {
+            var saved = transactionTemplate.execute(status -> insert(batch));
+            commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            for (int i = 0; i < batch.size(); i++) {
+                complete(batch.get(i), saved.get(i));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Group commit of {} products failed, they are committed one by one: {}", batch.size(), e.getMessage());
+            for (var pending : batch) {
+                // the ids and versions assigned by the failed insert are discarded
+                pending.product.setId(null);
+                pending.product.setVersion(null);
+                try {
+                    complete(pending, transactionTemplate.execute(status -> {
+                        pending.product.setModSeq(changeTracker.next(1));
+                        return productRepository.save(pending.product);
+                    }));
+                } catch (RuntimeException single) {
+                    pending.committed.completeExceptionally(single);
+                }
+            }
+        }
+        batch.clear();
+    }
+
+    /* the modification sequence is in flight until the transaction completes */
+    private List<Product> insert(List<PendingProduct> batch) {
+        long modSeq = changeTracker.next(batch.size());
+        for (var pending : batch) {
+            pending.product.setModSeq(modSeq++);
+        }
+        List<Product> saved = new ArrayList<>(batch.size());
+        List<Product> chunk = new ArrayList<>(ProductServiceImpl.JDBC_BATCH_SIZE);
+        for (int from = 0; from < batch.size(); from += ProductServiceImpl.JDBC_BATCH_SIZE) {
+            chunk.clear();
+            batch.subList(from, Math.min(from + ProductServiceImpl.JDBC_BATCH_SIZE, batch.size())).forEach(pending -> chunk.add(pending.product));
+            saved.addAll(productRepository.saveAll(chunk));
+            entityManager.flush();
+            entityManager.clear();
+        }
+        return saved;
+    }
+
+    private void complete(PendingProduct pending, Product saved) {
+        latencyTimer.record(System.nanoTime() - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+        try {
+            pending.onCommit.accept(saved);
+        } catch (RuntimeException e) {
+            // the product is committed whatever its listeners do
+            logger.error("The commit callback of product {} failed", saved.getId(), e);
+        }
+        pending.committed.complete(saved);
+    }
+
+    private static final class PendingProduct {
+
+        private final Product product;
+        private final Consumer<Product> onCommit;
+        private final CompletableFuture<Product> committed = new CompletableFuture<>();
+        // set by the writer when it takes the product, or by the caller when it gives up first
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final long enqueuedAt = System.nanoTime();
+
+        PendingProduct(Product product, Consumer<Product> onCommit) {
+            this.product = product;
+            this.onCommit = onCommit;
+        }
+    }
+}
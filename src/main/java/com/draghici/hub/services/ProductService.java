@@ -1,19 +1,68 @@
 package com.draghici.hub.services;
 
 import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductChanges;
 import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductLookupResult;
+import com.draghici.hub.dto.ProductPage;
+import com.draghici.hub.dto.ProductPrice;
+import com.draghici.hub.dto.ProductSearchHit;
+import com.fasterxml.jackson.databind.JsonSerializable;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface ProductService {
 
     List<Product> getAll();
 
+    /* the JSON of getAll() written straight from the column store, empty when it is disabled (see ProductColumnStore) */
+    Optional<JsonSerializable> getAllAsJson();
+
+    /* changes on every committed write of the catalogue, without reading the table */
+    long getCatalogueVersion();
+
+    ProductPage getPage(Long after, int limit);
+
+    /* the changes after 'token' (all the products without one), up to 'limit' inserts, updates and deletions */
+    ProductChanges getChanges(String token, int limit);
+
+    /* any of 'namePrefix', 'minPrice', 'maxPrice' and 'sort' can be null */
+    List<Product> query(String namePrefix, Double minPrice, Double maxPrice, String sort, int limit);
+
+    /* number of products with a price between 'minPrice' and 'maxPrice', any of them can be null */
+    int countByPrice(Double minPrice, Double maxPrice);
+
+    /* the cheapest first */
+    List<ProductPrice> getByPrice(Double minPrice, Double maxPrice, int limit);
+
+    List<ProductPrice> getCheapest(int limit);
+
+    List<ProductPrice> getMostExpensive(int limit);
+
+    /* ranked fuzzy matches of 'term' in the product names */
+    List<ProductSearchHit> search(String term, int limit);
+
+    long exportAll(Consumer<Product> consumer);
+
     Product getById(Long id);
 
+    /* the products of many ids at once, the missing and invalid ids are reported in the result */
+    ProductLookupResult getByIds(List<Long> ids);
+
     Product add(ProductDTO productDto);
 
+    ProductBatchResult addAll(List<ProductDTO> productDtos);
+
     Product update(Long id, ProductDTO productDto);
 
+    /* a non null 'expectedVersion' must match the current version of the product */
+    Product update(Long id, ProductDTO productDto, Long expectedVersion);
+
+    /* same as update, without reading the updated product back */
+    void updateInPlace(Long id, ProductDTO productDto, Long expectedVersion);
+
     void delete(Long id);
 }
@@ -1,105 +1,534 @@
 package com.draghici.hub.services;
 
 import com.draghici.hub.beans.Product;
+import com.draghici.hub.beans.ProductTombstone;
+import com.draghici.hub.config.CacheConfig;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductChanges;
 import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductLookupFailure;
+import com.draghici.hub.dto.ProductLookupResult;
+import com.draghici.hub.dto.ProductPage;
+import com.draghici.hub.dto.ProductPrice;
+import com.draghici.hub.dto.ProductSearchHit;
+import com.draghici.hub.events.ProductChangedEvent;
 import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.logging.LogMarkers;
 import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import com.draghici.hub.search.ProductPriceIndex;
+import com.draghici.hub.search.ProductSearchIndex;
+import com.draghici.hub.store.ProductColumnStore;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import io.micrometer.core.annotation.Timed;
+import jakarta.persistence.EntityManager;
 import lombok.AllArgsConstructor;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+import static com.draghici.hub.services.ProductValidation.*;
+
+/* every public method is timed as 'hub.product.service', tagged with its name (see MetricsConfig) */
 @Service
+@Profile("!reactive")
 @AllArgsConstructor
+@Timed(value = ProductServiceImpl.SERVICE_TIMER, histogram = true)
 public class ProductServiceImpl implements ProductService {
 
+    final static String SERVICE_TIMER = "hub.product.service";
+
     private final static Logger logger = LogManager.getLogger(ProductServiceImpl.class);
-    private final static int HTTP_NOT_FOUND = 404;
-    private final static int HTTP_UNPROCESSABLE_ENTITY = 422;
+    // matches 'hibernate.jdbc.batch_size', the persistence context is flushed and cleared after each chunk
+    final static int JDBC_BATCH_SIZE = 50;
+    // ids per IN list of a multi-get, below the bind parameter limits of the databases (1000 for Oracle)
+    final static int IN_LIST_SIZE = 500;
+    private final static String SORT_ID = "id";
+    private final static Set<String> SORTABLE_FIELDS = Set.of(SORT_ID, "name", "price");
 
     private final ProductRepository productRepository;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ProductSearchIndex searchIndex;
+    private final ProductPriceIndex priceIndex;
+    private final ProductGroupCommit groupCommit;
+    private final ProductColumnStore columnStore;
+    private final ProductTombstoneRepository tombstoneRepository;
+    private final ProductChangeTracker changeTracker;
+
+    // bumped once a write is committed, the catalogue ETag is derived from it
+    private final AtomicLong catalogueVersion = new AtomicLong();
 
     @Override
     public List<Product> getAll() {
-        logger.info("API Request: get all products");
-        return productRepository.findAll();
+        logger.info(LogMarkers.API_REQUEST, "API Request: get all products");
+        return columnStore.isEnabled() ? columnStore.getAll() : productRepository.findAll();
+    }
+
+    @Override
+    public Optional<JsonSerializable> getAllAsJson() {
+        if (!columnStore.isEnabled()) {
+            return Optional.empty();
+        }
+        logger.info(LogMarkers.API_REQUEST, "API Request: get all products");
+        return Optional.of(columnStore.json());
+    }
+
+    @Override
+    public long getCatalogueVersion() {
+        return catalogueVersion.get();
+    }
+
+    @Override
+    public ProductPage getPage(Long after, int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get a page of products");
+
+        if (after != null && after < 0) {
+            throw productNegativeIdException();
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw PAGE_SIZE_EXCEPTION;
+        }
+
+        // read one extra row to know if there is a next page without another round trip
+        var products = productRepository.getProductsAfter(after == null ? 0L : after, Limit.of(limit + 1));
+        if (products.size() <= limit) {
+            return new ProductPage(products, null);
+        }
+
+        var page = products.subList(0, limit);
+        return new ProductPage(page, page.get(limit - 1).getId());
+    }
+
+    /*
+     * the products and the tombstones changed after the token, up to the watermark of the tracker, merged in sequence order.
+     * Each side reads one row more than the limit, to know if more changes are waiting without another query.
+     * A product changed again meanwhile moves after the watermark, it comes with its latest state in a next call.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public ProductChanges getChanges(String token, int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get the product changes");
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw PAGE_SIZE_EXCEPTION;
+        }
+        var since = changeTracker.parseToken(token);
+        long upTo = changeTracker.watermark();
+
+        var products = productRepository.getProductsChangedBetween(since.sequence(), since.productId(), upTo, Limit.of(limit + 1));
+        // a full sync has nothing to delete
+        List<ProductTombstone> tombstones = since.sequence() < 0 ? List.of()
+                : tombstoneRepository.getTombstonesBetween(since.sequence(), since.productId(), upTo, Limit.of(limit + 1));
+        changeTracker.checkNotCompacted(since.sequence());
+
+        List<Product> changed = new ArrayList<>();
+        List<Long> deletedIds = new ArrayList<>();
+        int p = 0;
+        int t = 0;
+        var last = since;
+        while (p + t < limit && (p < products.size() || t < tombstones.size())) {
+            if (t == tombstones.size() || (p < products.size() && isBefore(products.get(p), tombstones.get(t)))) {
+                var product = products.get(p++);
+                changed.add(product);
+                last = new ProductChangeTracker.Cursor(product.getModSeq(), product.getId());
+            } else {
+                var tombstone = tombstones.get(t++);
+                deletedIds.add(tombstone.getProductId());
+                last = new ProductChangeTracker.Cursor(tombstone.getModSeq(), tombstone.getProductId());
+            }
+        }
+
+        var more = p < products.size() || t < tombstones.size();
+        return new ProductChanges(changed, deletedIds, changeTracker.token(more ? last : ProductChangeTracker.Cursor.after(upTo)), more);
+    }
+
+    /* the (sequence, id) order of the changes */
+    private static boolean isBefore(Product product, ProductTombstone tombstone) {
+        return product.getModSeq() < tombstone.getModSeq()
+                || (product.getModSeq() == tombstone.getModSeq() && product.getId() < tombstone.getProductId());
+    }
+
+    /*
+     * filters and sorts in the database, on the name and price indexes of P_PRODUCTS.
+     * A missing bound is replaced by the widest one, so a single query serves all the combinations.
+     */
+    @Override
+    public List<Product> query(String namePrefix, Double minPrice, Double maxPrice, String sort, int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: query products");
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw PAGE_SIZE_EXCEPTION;
+        }
+        double min = toMinPrice(minPrice, maxPrice);
+        double max = toMaxPrice(maxPrice);
+
+        return productRepository.queryProducts(toNamePattern(namePrefix), min, max, toSort(sort), Limit.of(limit));
+    }
+
+    /* the price queries are served from the in-memory price index, the database is not queried */
+    @Override
+    public int countByPrice(Double minPrice, Double maxPrice) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: count products by price");
+
+        return priceIndex.count(toMinPrice(minPrice, maxPrice), toMaxPrice(maxPrice));
+    }
+
+    @Override
+    public List<ProductPrice> getByPrice(Double minPrice, Double maxPrice, int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get products by price");
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw PAGE_SIZE_EXCEPTION;
+        }
+        return priceIndex.range(toMinPrice(minPrice, maxPrice), toMaxPrice(maxPrice), limit);
+    }
+
+    @Override
+    public List<ProductPrice> getCheapest(int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get the cheapest products");
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw PAGE_SIZE_EXCEPTION;
+        }
+        return priceIndex.cheapest(limit);
     }
 
     @Override
+    public List<ProductPrice> getMostExpensive(int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get the most expensive products");
+
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw PAGE_SIZE_EXCEPTION;
+        }
+        return priceIndex.mostExpensive(limit);
+    }
+
+    /* served from the in-memory n-gram index, the database is not queried */
+    @Override
+    public List<ProductSearchHit> search(String term, int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: search products");
+
+        if (limit <= 0 || limit > MAX_SEARCH_RESULTS) {
+            throw SEARCH_LIMIT_EXCEPTION;
+        }
+        return searchIndex.search(term, limit);
+    }
+
+    /*
+     * walks the whole catalogue with a forward-only cursor.
+     * Each product is detached once consumed, so the persistence context never grows with the table.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public long exportAll(Consumer<Product> consumer) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: export all products");
+
+        long count = 0;
+        try (var products = productRepository.streamAll()) {
+            for (var iterator = products.iterator(); iterator.hasNext(); count++) {
+                var product = iterator.next();
+                consumer.accept(product);
+                entityManager.detach(product);
+            }
+        }
+
+        logger.info("{} products were exported", count);
+        return count;
+    }
+
+    /*
+     * read-through cache, 'sync' makes the load atomic per id so an eviction cannot be overwritten by a stale load.
+     * The negative and missing ids throw and are never cached.
+     */
+    @Override
+    @Cacheable(cacheNames = CacheConfig.PRODUCTS_CACHE, key = "#id", sync = true)
     public Product getById(Long id) {
-        logger.info("API Request: get one product by id");
+        logger.info(LogMarkers.API_REQUEST, "API Request: get one product by id");
 
         if (id < 0) {
             throw productNegativeIdException();
         }
+        if (columnStore.isEnabled()) {
+            var product = columnStore.get(id);
+            if (product == null) {
+                throw productMissingException(id);
+            }
+            return product;
+        }
         return productRepository.getProductById(id).orElseThrow(() -> productMissingException(id));
     }
 
+    /*
+     * one IN query per IN_LIST_SIZE ids, or the column store when it is enabled.
+     * The product cache of getById is bypassed, a multi-get would mostly evict the products read one by one.
+     * A product requested twice is returned once.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public ProductLookupResult getByIds(List<Long> ids) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get many products by id");
+
+        List<ProductLookupFailure> failures = new ArrayList<>();
+        var requested = validateLookup(ids, failures);
+
+        Map<Long, Product> found = new HashMap<>(requested.size() * 2);
+        if (columnStore.isEnabled()) {
+            for (var id : requested) {
+                var product = columnStore.get(id);
+                if (product != null) {
+                    found.put(id, product);
+                }
+            }
+        } else {
+            List<Long> chunk = new ArrayList<>(Math.min(requested.size(), IN_LIST_SIZE));
+            for (var id : requested) {
+                chunk.add(id);
+                if (chunk.size() == IN_LIST_SIZE) {
+                    productRepository.getProductsByIds(chunk).forEach(product -> found.put(product.getId(), product));
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                productRepository.getProductsByIds(chunk).forEach(product -> found.put(product.getId(), product));
+            }
+        }
+
+        List<Product> products = new ArrayList<>(found.size());
+        for (var id : requested) {
+            var product = found.get(id);
+            if (product != null) {
+                products.add(product);
+            } else {
+                failures.add(new ProductLookupFailure(id, productMissingMessage(id), HTTP_NOT_FOUND));
+            }
+        }
+        return new ProductLookupResult(products, failures);
+    }
+
     @Override
     public Product add(ProductDTO productDto) {
-        logger.info("API Request: add new product");
+        logger.info(LogMarkers.API_REQUEST, "API Request: add new product");
 
         if (productDto == null) {
-            throw new ProductException("Cannot add a null product", HTTP_UNPROCESSABLE_ENTITY);
+            throw NULL_PRODUCT_EXCEPTION;
         }
-        if ("".equals(productDto.getName()) || productDto.getPrice() < 0.0d) {
-            throw new ProductException("Please provide a name and a positive price for the product", HTTP_UNPROCESSABLE_ENTITY);
+        if (isInvalid(productDto)) {
+            throw INVALID_PRODUCT_EXCEPTION;
         }
 
-        var product = new Product();
-        product.setName(productDto.getName());
-        product.setPrice(productDto.getPrice());
-        var newProduct = productRepository.save(product);
+        // with the group commit the product is inserted and committed along with the concurrent ones,
+        // the writer takes its modification sequence and announces it once the batch is committed
+        var product = toProduct(productDto);
+        Product newProduct;
+        if (groupCommit.isEnabled()) {
+            newProduct = groupCommit.save(product, this::created);
+        } else {
+            long modSeq = changeTracker.begin(1);
+            product.setModSeq(modSeq);
+            try {
+                newProduct = productRepository.save(product);
+            } finally {
+                changeTracker.end(modSeq);
+            }
+            created(newProduct);
+        }
 
         logger.info("A product was added with id {}", newProduct.getId());
         return newProduct;
     }
 
+    /*
+     * validates all the items first, then inserts the valid ones in a single transaction.
+     * The invalid items are reported back by their index instead of failing the whole batch.
+     */
     @Override
-    public Product update(Long id, ProductDTO productDto) {
-        logger.info("API Request: update product");
+    @Transactional
+    public ProductBatchResult addAll(List<ProductDTO> productDtos) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: add a batch of products");
 
-        if (productDto == null) {
-            throw new ProductException("Cannot update a null product", HTTP_UNPROCESSABLE_ENTITY);
+        List<Product> products = new ArrayList<>();
+        var failures = validateBatch(productDtos, products);
+        if (!products.isEmpty()) {
+            long modSeq = changeTracker.next(products.size());
+            for (var product : products) {
+                product.setModSeq(modSeq++);
+            }
         }
 
-        if ("".equals(productDto.getName()) || productDto.getPrice() < 0.0d) {
-            throw new ProductException("Please provide a name and a positive price for the product", HTTP_UNPROCESSABLE_ENTITY);
+        List<Product> created = new ArrayList<>(products.size());
+        for (int from = 0; from < products.size(); from += JDBC_BATCH_SIZE) {
+            var chunk = products.subList(from, Math.min(from + JDBC_BATCH_SIZE, products.size()));
+            created.addAll(productRepository.saveAll(chunk));
+            entityManager.flush();
+            entityManager.clear();
+        }
+        if (!created.isEmpty()) {
+            created.forEach(product -> eventPublisher.publishEvent(ProductChangedEvent.created(product)));
+            catalogueChanged();
         }
 
-        var product = productRepository.getProductById(id).orElseThrow(() -> productMissingException(id));
+        logger.info("{} products were added, {} were rejected", created.size(), failures.size());
+        return new ProductBatchResult(created, failures);
+    }
 
-        Optional.ofNullable(productDto.getName()).ifPresent(product::setName);
-        Optional.ofNullable(productDto.getPrice()).ifPresent(product::setPrice);
-        var updatedProduct = productRepository.save(product);
+    @Override
+    @Transactional
+    @CachePut(cacheNames = CacheConfig.PRODUCTS_CACHE, key = "#id")
+    public Product update(Long id, ProductDTO productDto) {
+        return update(id, productDto, null);
+    }
 
-        logger.info("Product with id {} updated", id);
-        return updatedProduct;
+    /* the product is read back in the same transaction as the update */
+    @Override
+    @Transactional
+    @CachePut(cacheNames = CacheConfig.PRODUCTS_CACHE, key = "#id")
+    public Product update(Long id, ProductDTO productDto, Long expectedVersion) {
+        applyUpdate(id, productDto, expectedVersion);
+        return productRepository.getProductById(id).orElseThrow(() -> productMissingException(id));
+    }
 
+    @Override
+    @Transactional
+    @CacheEvict(cacheNames = CacheConfig.PRODUCTS_CACHE, key = "#id")
+    public void updateInPlace(Long id, ProductDTO productDto, Long expectedVersion) {
+        applyUpdate(id, productDto, expectedVersion);
     }
 
+    /* the row and its tombstone are written in the same transaction */
     @Override
+    @Transactional
+    @CacheEvict(cacheNames = CacheConfig.PRODUCTS_CACHE, key = "#id")
     public void delete(Long id) {
-        logger.info("API Request: delete product");
+        logger.info(LogMarkers.API_REQUEST, "API Request: delete product");
 
         if (id < 0) {
             throw productNegativeIdException();
         }
 
-        var product = productRepository.getProductById(id).orElseThrow(() -> productMissingException(id));
-        productRepository.delete(product);
+        if (productRepository.deleteProductById(id) == 0) {
+            throw productMissingException(id);
+        }
+        long modSeq = changeTracker.next(1);
+        tombstoneRepository.insertTombstone(id, modSeq, Instant.now());
+        eventPublisher.publishEvent(ProductChangedEvent.deleted(id, modSeq));
+        catalogueChanged();
 
         logger.info("Product with id {} was deleted", id);
     }
 
-    private static ProductException productMissingException(Long id) {
-        return new ProductException("Product with id " + id + " not found", HTTP_NOT_FOUND);
+    /*
+     * a single UPDATE statement, the missing product is detected by the affected-row count.
+     * Only that failure path reads the table again, to tell a missing product from a version mismatch.
+     * The updated row is locked until the commit, so its columns read back here are the committed ones of the event.
+     */
+    private void applyUpdate(Long id, ProductDTO productDto, Long expectedVersion) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: update product");
+
+        if (productDto == null) {
+            throw NULL_UPDATE_EXCEPTION;
+        }
+
+        if (isInvalid(productDto)) {
+            throw INVALID_PRODUCT_EXCEPTION;
+        }
+
+        long modSeq = changeTracker.next(1);
+        if (productRepository.updateProductById(id, productDto.getName(), productDto.getPrice(), expectedVersion, modSeq) == 0) {
+            throw expectedVersion != null && productRepository.existsById(id) ? productVersionMismatchException(id) : productMissingException(id);
+        }
+        var row = productRepository.getRowById(id);
+        eventPublisher.publishEvent(ProductChangedEvent.updated(id, row.getName(), row.getPrice(), row.getVersion(), modSeq));
+        catalogueChanged();
+
+        logger.info("Product with id {} updated", id);
+    }
+
+    /* a product committed by add() */
+    private void created(Product product) {
+        eventPublisher.publishEvent(ProductChangedEvent.created(product));
+        catalogueChanged();
+    }
+
+    /* inside a transaction the version moves after the commit, so a reader never pairs the new version with old rows */
+    private void catalogueChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    catalogueVersion.incrementAndGet();
+                }
+            });
+        } else {
+            catalogueVersion.incrementAndGet();
+        }
+    }
+
+    /* a missing bound is replaced by the widest one */
+    private static double toMinPrice(Double minPrice, Double maxPrice) {
+        double min = minPrice == null ? 0.0d : minPrice;
+        if (maxPrice != null && min > maxPrice) {
+            throw PRICE_RANGE_EXCEPTION;
+        }
+        return min;
+    }
+
+    private static double toMaxPrice(Double maxPrice) {
+        return maxPrice == null ? Double.MAX_VALUE : maxPrice;
+    }
+
+    /* a LIKE prefix pattern, the wildcards of the prefix itself are escaped */
+    private static String toNamePattern(String namePrefix) {
+        if (namePrefix == null) {
+            return "%";
+        }
+        var pattern = new StringBuilder(namePrefix.length() + 1);
+        for (char c : namePrefix.toCharArray()) {
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /* 'field' or '-field' for a descending order, the id breaks the ties so the order is stable */
+    private static Sort toSort(String sort) {
+        if (sort == null || sort.isBlank()) {
+            return Sort.by(SORT_ID);
+        }
+
+        var descending = sort.startsWith("-");
+        var field = descending ? sort.substring(1) : sort;
+        if (!SORTABLE_FIELDS.contains(field)) {
+            throw SORT_EXCEPTION;
+        }
+
+        var order = Sort.by(descending ? Sort.Direction.DESC : Sort.Direction.ASC, field);
+        return field.equals(SORT_ID) ? order : order.and(Sort.by(SORT_ID));
     }
 
     private static ProductException productNegativeIdException() {
-        return new ProductException("A product with negative id cannot exist", HTTP_UNPROCESSABLE_ENTITY);
+        return NEGATIVE_ID_EXCEPTION;
     }
 }
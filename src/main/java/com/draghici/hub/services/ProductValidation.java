@@ -0,0 +1,126 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchFailure;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductLookupFailure;
+import com.draghici.hub.exceptions.ProductException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/* validation rules and errors shared by the blocking and the reactive product services */
+final class ProductValidation {
+
+    final static int HTTP_NOT_FOUND = 404;
+    final static int HTTP_GONE = 410;
+    final static int HTTP_PRECONDITION_FAILED = 412;
+    final static int HTTP_UNPROCESSABLE_ENTITY = 422;
+    final static int HTTP_SERVICE_UNAVAILABLE = 503;
+    final static int MAX_PAGE_SIZE = 1000;
+    final static int MAX_BATCH_SIZE = 10000;
+    final static int MAX_SEARCH_RESULTS = 100;
+    final static int MAX_LOOKUP_SIZE = 10000;
+
+    final static String NULL_PRODUCT_MESSAGE = "Cannot add a null product";
+    final static String INVALID_PRODUCT_MESSAGE = "Please provide a name and a positive price for the product";
+    final static String NEGATIVE_ID_MESSAGE = "A product with negative id cannot exist";
+    final static String NULL_ID_MESSAGE = "A product id cannot be null";
+
+    // the validation errors do not depend on the request, they are thrown preallocated
+    final static ProductException NULL_PRODUCT_EXCEPTION = new ProductException(NULL_PRODUCT_MESSAGE, HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException NULL_UPDATE_EXCEPTION = new ProductException("Cannot update a null product", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException INVALID_PRODUCT_EXCEPTION = new ProductException(INVALID_PRODUCT_MESSAGE, HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException NEGATIVE_ID_EXCEPTION = new ProductException(NEGATIVE_ID_MESSAGE, HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException PAGE_SIZE_EXCEPTION = new ProductException("The page size must be between 1 and " + MAX_PAGE_SIZE, HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException PRICE_RANGE_EXCEPTION = new ProductException("The minimum price cannot be greater than the maximum price", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException SORT_EXCEPTION = new ProductException("The products can only be sorted by id, name or price, prefixed by '-' for a descending order", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException SEARCH_LIMIT_EXCEPTION = new ProductException("The number of search results must be between 1 and " + MAX_SEARCH_RESULTS, HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException WRITE_QUEUE_EXCEPTION = new ProductException("Too many products are waiting to be saved, please retry later", HTTP_SERVICE_UNAVAILABLE);
+    final static ProductException WRITE_TIMEOUT_EXCEPTION = new ProductException("The product was not saved in time, please retry", HTTP_SERVICE_UNAVAILABLE);
+    final static ProductException EMPTY_BATCH_EXCEPTION = new ProductException("Cannot add an empty batch of products", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException BATCH_SIZE_EXCEPTION = new ProductException("A batch cannot contain more than " + MAX_BATCH_SIZE + " products", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException EMPTY_LOOKUP_EXCEPTION = new ProductException("Please provide the ids of the products", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException LOOKUP_SIZE_EXCEPTION = new ProductException("Cannot look up more than " + MAX_LOOKUP_SIZE + " products at once", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException INVALID_CHANGE_TOKEN_EXCEPTION = new ProductException("Invalid change token, please use the token of the previous changes", HTTP_UNPROCESSABLE_ENTITY);
+    final static ProductException CHANGE_TOKEN_EXPIRED_EXCEPTION = new ProductException("The change token expired, please sync again without a token", HTTP_GONE);
+
+    private ProductValidation() {
+    }
+
+    static boolean isInvalid(ProductDTO productDto) {
+        return "".equals(productDto.getName()) || productDto.getPrice() < 0.0d;
+    }
+
+    static ProductException productMissingException(Long id) {
+        return new ProductException(productMissingMessage(id), HTTP_NOT_FOUND);
+    }
+
+    static String productMissingMessage(Long id) {
+        return "Product with id " + id + " not found";
+    }
+
+    static ProductException productVersionMismatchException(Long id) {
+        return new ProductException("Product with id " + id + " was modified, its version does not match If-Match", HTTP_PRECONDITION_FAILED);
+    }
+
+    static Product toProduct(ProductDTO productDto) {
+        var product = new Product();
+        product.setName(productDto.getName());
+        product.setPrice(productDto.getPrice());
+        return product;
+    }
+
+    /*
+     * checks every item of a batch, the valid ones are converted and added to 'products'.
+     * Return the rejected items with their index in the batch.
+     */
+    static List<ProductBatchFailure> validateBatch(List<ProductDTO> productDtos, List<Product> products) {
+        if (productDtos == null || productDtos.isEmpty()) {
+            throw EMPTY_BATCH_EXCEPTION;
+        }
+        if (productDtos.size() > MAX_BATCH_SIZE) {
+            throw BATCH_SIZE_EXCEPTION;
+        }
+
+        List<ProductBatchFailure> failures = new ArrayList<>();
+        for (int i = 0; i < productDtos.size(); i++) {
+            var productDto = productDtos.get(i);
+            if (productDto == null) {
+                failures.add(new ProductBatchFailure(i, NULL_PRODUCT_MESSAGE, HTTP_UNPROCESSABLE_ENTITY));
+            } else if (productDto.getName() == null || isInvalid(productDto)) {
+                failures.add(new ProductBatchFailure(i, INVALID_PRODUCT_MESSAGE, HTTP_UNPROCESSABLE_ENTITY));
+            } else {
+                products.add(toProduct(productDto));
+            }
+        }
+        return failures;
+    }
+
+    /*
+     * checks the ids of a multi-get as getById does, a null or negative id is reported instead of failing the call.
+     * Return the distinct valid ids, in the order of the request
+     */
+    static Set<Long> validateLookup(List<Long> ids, List<ProductLookupFailure> failures) {
+        if (ids == null || ids.isEmpty()) {
+            throw EMPTY_LOOKUP_EXCEPTION;
+        }
+        if (ids.size() > MAX_LOOKUP_SIZE) {
+            throw LOOKUP_SIZE_EXCEPTION;
+        }
+
+        Set<Long> valid = new LinkedHashSet<>(ids.size() * 2);
+        for (var id : ids) {
+            if (id == null) {
+                failures.add(new ProductLookupFailure(null, NULL_ID_MESSAGE, HTTP_UNPROCESSABLE_ENTITY));
+            } else if (id < 0) {
+                failures.add(new ProductLookupFailure(id, NEGATIVE_ID_MESSAGE, HTTP_UNPROCESSABLE_ENTITY));
+            } else {
+                valid.add(id);
+            }
+        }
+        return valid;
+    }
+}
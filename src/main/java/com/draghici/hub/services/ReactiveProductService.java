@@ -0,0 +1,27 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductPage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface ReactiveProductService {
+
+    Flux<Product> getAll();
+
+    Mono<ProductPage> getPage(Long after, int limit);
+
+    Mono<Product> getById(Long id);
+
+    Mono<Product> add(ProductDTO productDto);
+
+    Mono<ProductBatchResult> addAll(List<ProductDTO> productDtos);
+
+    Mono<Product> update(Long id, ProductDTO productDto);
+
+    Mono<Void> delete(Long id);
+}
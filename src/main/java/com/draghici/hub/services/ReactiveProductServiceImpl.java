@@ -0,0 +1,138 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductPage;
+import com.draghici.hub.logging.LogMarkers;
+import com.draghici.hub.repositories.ReactiveProductRepository;
+import lombok.AllArgsConstructor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.draghici.hub.services.ProductValidation.*;
+
+/* the same rules and errors as ProductServiceImpl, on top of R2DBC */
+@Service
+@Profile("reactive")
+@AllArgsConstructor
+public class ReactiveProductServiceImpl implements ReactiveProductService {
+
+    private final static Logger logger = LogManager.getLogger(ReactiveProductServiceImpl.class);
+
+    private final ReactiveProductRepository productRepository;
+    private final TransactionalOperator transactionalOperator;
+
+    /* rows are read from the cursor only as fast as the client consumes them */
+    @Override
+    public Flux<Product> getAll() {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get all products");
+        return productRepository.findAll();
+    }
+
+    @Override
+    public Mono<ProductPage> getPage(Long after, int limit) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get a page of products");
+
+        if (after != null && after < 0) {
+            return Mono.error(NEGATIVE_ID_EXCEPTION);
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            return Mono.error(PAGE_SIZE_EXCEPTION);
+        }
+
+        // read one extra row to know if there is a next page without another round trip
+        return productRepository.findAfter(after == null ? 0L : after, limit + 1)
+                .collectList()
+                .map(products -> {
+                    if (products.size() <= limit) {
+                        return new ProductPage(products, null);
+                    }
+                    var page = products.subList(0, limit);
+                    return new ProductPage(page, page.get(limit - 1).getId());
+                });
+    }
+
+    @Override
+    public Mono<Product> getById(Long id) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: get one product by id");
+
+        if (id < 0) {
+            return Mono.error(NEGATIVE_ID_EXCEPTION);
+        }
+        return productRepository.findById(id).switchIfEmpty(Mono.error(() -> productMissingException(id)));
+    }
+
+    @Override
+    public Mono<Product> add(ProductDTO productDto) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: add new product");
+
+        if (productDto == null) {
+            return Mono.error(NULL_PRODUCT_EXCEPTION);
+        }
+        if (isInvalid(productDto)) {
+            return Mono.error(INVALID_PRODUCT_EXCEPTION);
+        }
+
+        return productRepository.insert(toProduct(productDto))
+                .doOnNext(newProduct -> logger.info("A product was added with id {}", newProduct.getId()));
+    }
+
+    @Override
+    public Mono<ProductBatchResult> addAll(List<ProductDTO> productDtos) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: add a batch of products");
+
+        List<Product> products = new ArrayList<>();
+        var failures = validateBatch(productDtos, products);
+        if (products.isEmpty()) {
+            return Mono.just(new ProductBatchResult(products, failures));
+        }
+
+        return productRepository.insertAll(products)
+                .collectList()
+                .as(transactionalOperator::transactional)
+                .map(created -> new ProductBatchResult(created, failures))
+                .doOnNext(result -> logger.info("{} products were added, {} were rejected", result.getCreated().size(), failures.size()));
+    }
+
+    @Override
+    public Mono<Product> update(Long id, ProductDTO productDto) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: update product");
+
+        if (productDto == null) {
+            return Mono.error(NULL_UPDATE_EXCEPTION);
+        }
+        if (isInvalid(productDto)) {
+            return Mono.error(INVALID_PRODUCT_EXCEPTION);
+        }
+
+        return productRepository.update(id, productDto.getName(), productDto.getPrice())
+                .flatMap(updatedRows -> updatedRows == 0
+                        ? Mono.<Product>error(productMissingException(id))
+                        : productRepository.findById(id))
+                .doOnNext(product -> logger.info("Product with id {} updated", id));
+    }
+
+    @Override
+    public Mono<Void> delete(Long id) {
+        logger.info(LogMarkers.API_REQUEST, "API Request: delete product");
+
+        if (id < 0) {
+            return Mono.error(NEGATIVE_ID_EXCEPTION);
+        }
+
+        return productRepository.deleteById(id)
+                .flatMap(deletedRows -> deletedRows == 0
+                        ? Mono.<Void>error(productMissingException(id))
+                        : Mono.<Void>empty())
+                .doOnSuccess(ignored -> logger.info("Product with id {} was deleted", id));
+    }
+}
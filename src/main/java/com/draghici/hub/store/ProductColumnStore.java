@@ -0,0 +1,594 @@
+package com.draghici.hub.store;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.events.ProductChangedEvent;
+import com.draghici.hub.repositories.ProductRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteCapability;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * off-heap columnar copy of P_PRODUCTS, enabled with 'hub.product.column-store.enabled'.
+ *
+ * The rows are kept sorted by id in blocks of direct buffers: an id, a price and a version column,
+ * and the UTF-8 names with an offset and a length per row. The heap only holds a few objects per block,
+ * whatever the size of the catalogue, so the collector has nothing to trace.
+ * The store is built once the application is ready, then kept up to date by the ProductChangedEvents:
+ * a row takes the committed version of an event, and an event not newer than the row is ignored,
+ * so two updates applied out of order or an update already read by build() leave the latest state.
+ * The ids are never reused: the deleted ones are remembered and a late creation or update of them is ignored.
+ */
+@Component
+@Profile("!reactive")
+public class ProductColumnStore {
+
+    private final static Logger logger = LogManager.getLogger(ProductColumnStore.class);
+
+    // a full block is split in two when a row is inserted in the middle, a delete shifts the rest of one block
+    static final int BLOCK_ROWS = 4096;
+
+    // rows copied out of the store under the read lock, then serialized without holding it
+    private static final int CHUNK_ROWS = 256;
+
+    private static final SerializedString ID = new SerializedString("id");
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString PRICE = new SerializedString("price");
+    private static final SerializedString VERSION = new SerializedString("version");
+
+    private final ProductRepository productRepository;
+    private final boolean enabled;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // sorted by id, never empty
+    private final List<Block> blocks = new ArrayList<>();
+    private int size;
+    // the ids of the deleted products, few next to the rows
+    private final Set<Long> deletedIds = new HashSet<>();
+
+    // the readers use the database until the store is built
+    private volatile boolean built;
+
+    public ProductColumnStore(ProductRepository productRepository,
+                              MeterRegistry meterRegistry,
+                              @Value("${hub.product.column-store.enabled:false}") boolean enabled) {
+        this.productRepository = productRepository;
+        this.enabled = enabled;
+        blocks.add(new Block());
+
+        if (enabled) {
+            Gauge.builder("hub.product.column.store.rows", this, ProductColumnStore::size)
+                    .description("Products in the column store")
+                    .register(meterRegistry);
+            Gauge.builder("hub.product.column.store.bytes", this, ProductColumnStore::offHeapBytes)
+                    .description("Direct memory reserved by the column store")
+                    .baseUnit("bytes")
+                    .register(meterRegistry);
+        }
+    }
+
+    /* enabled and built */
+    public boolean isEnabled() {
+        return built;
+    }
+
+    /* the products are read in id order, so every row is appended */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void build() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try (var products = productRepository.streamAllRows()) {
+            products.forEach(product -> put(product.getId(), product.getName(), product.getPrice(), product.getVersion()));
+            built = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Column store built with {} products, {} KB off-heap, in {} ms", size(), offHeapBytes() / 1024, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /* the write was committed, or there was no transaction */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        switch (event.getType()) {
+            case CREATED -> add(event.getProductId(), event.getName(), event.getPrice(), event.getVersion());
+            case UPDATED -> update(event.getProductId(), event.getName(), event.getPrice(), event.getVersion());
+            case DELETED -> remove(event.getProductId());
+        }
+    }
+
+    /* a new product. An existing row was already updated by a later event and is kept, a deleted product is not added back */
+    public void add(long id, String name, double price, long version) {
+        lock.writeLock().lock();
+        try {
+            var block = blockOf(id);
+            if (block.find(id) < 0 && !deletedIds.contains(id)) {
+                put(id, name, price, version);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * the committed state of the product at the given version, ignored when the row is already at that version or a later one.
+     * A null name keeps the current one. A product not stored yet is inserted when its creation event is late,
+     * and ignored when it was deleted since: the update is late then
+     */
+    public void update(long id, String name, double price, long version) {
+        lock.writeLock().lock();
+        try {
+            var block = blockOf(id);
+            int row = block.find(id);
+            if (row < 0) {
+                if (name != null && !deletedIds.contains(id)) {
+                    put(id, name, price, version);
+                }
+                return;
+            }
+            if (block.versions.getLong(row << 3) >= version) {
+                return;
+            }
+            block.prices.putDouble(row << 3, price);
+            block.versions.putLong(row << 3, version);
+            if (name != null) {
+                block.setName(row, name.getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            deletedIds.add(id);
+            int index = blockIndexOf(id);
+            var block = blocks.get(index);
+            int row = block.find(id);
+            if (row >= 0) {
+                block.remove(row);
+                size--;
+                if (block.size == 0 && blocks.size() > 1) {
+                    blocks.remove(index);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* a new Product, or null when the id is not stored */
+    public Product get(long id) {
+        lock.readLock().lock();
+        try {
+            var block = blockOf(id);
+            int row = block.find(id);
+            if (row < 0) {
+                return null;
+            }
+            var product = new Product();
+            product.setId(id);
+            product.setName(block.name(row));
+            product.setPrice(block.prices.getDouble(row << 3));
+            product.setVersion(block.versions.getLong(row << 3));
+            return product;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* every product as a new Product, for the callers that need a list */
+    public List<Product> getAll() {
+        List<Product> products = new ArrayList<>(size());
+        var chunk = new Chunk();
+        for (long after = Long.MIN_VALUE; copy(after, chunk) > 0; after = chunk.ids[chunk.size - 1]) {
+            for (int i = 0; i < chunk.size; i++) {
+                var product = new Product();
+                product.setId(chunk.ids[i]);
+                product.setName(new String(chunk.names, chunk.nameOffsets[i], chunk.nameLengths[i], StandardCharsets.UTF_8));
+                product.setPrice(chunk.prices[i]);
+                product.setVersion(chunk.versions[i]);
+                products.add(product);
+            }
+        }
+        return products;
+    }
+
+    /* the JSON array of the products, as the Product entities are serialized, without creating them */
+    public JsonSerializable json() {
+        return new JsonView();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (var block : blocks) {
+                bytes += block.capacity();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * writes the products chunk by chunk, a chunk is consistent but a write can land between two chunks:
+     * a product is written once, with its state at the time its chunk was copied
+     */
+    void writeAll(JsonGenerator generator) throws IOException {
+        var chunk = new Chunk();
+        char[] price = new char[32];
+        // the JSON generators copy the digits as they are, a binary format encodes the double itself
+        boolean textNumbers = generator.getWriteCapabilities().isEnabled(StreamWriteCapability.CAN_WRITE_FORMATTED_NUMBERS);
+        boolean utf8Names = utf8Names(generator);
+        generator.writeStartArray();
+        for (long after = Long.MIN_VALUE; copy(after, chunk) > 0; after = chunk.ids[chunk.size - 1]) {
+            for (int i = 0; i < chunk.size; i++) {
+                generator.writeStartObject();
+                generator.writeFieldName(ID);
+                generator.writeNumber(chunk.ids[i]);
+                generator.writeFieldName(NAME);
+                if (utf8Names) {
+                    generator.writeUTF8String(chunk.names, chunk.nameOffsets[i], chunk.nameLengths[i]);
+                } else {
+                    generator.writeString(new String(chunk.names, chunk.nameOffsets[i], chunk.nameLengths[i], StandardCharsets.UTF_8));
+                }
+                generator.writeFieldName(PRICE);
+                int length = textNumbers ? formatPrice(chunk.prices[i], price) : -1;
+                if (length > 0) {
+                    generator.writeNumber(price, 0, length);
+                } else {
+                    generator.writeNumber(chunk.prices[i]);
+                }
+                generator.writeFieldName(VERSION);
+                generator.writeNumber(chunk.versions[i]);
+                generator.writeEndObject();
+            }
+        }
+        generator.writeEndArray();
+    }
+
+    /* the generators writing bytes take the UTF-8 names as they are, one writing chars or tokens (no stream) needs a String */
+    private static boolean utf8Names(JsonGenerator generator) {
+        return generator.getOutputTarget() instanceof OutputStream;
+    }
+
+    /*
+     * the text of Double.toString(value) for the prices with at most 2 decimals, written without a String.
+     * Such a price is the double closest to cents / 100, so no shorter decimal maps to it and Double.toString
+     * prints those digits. Return the length, or -1 for the other values (E notation, more decimals, negative)
+     */
+    static int formatPrice(double value, char[] out) {
+        if (!(value >= 0.0d && value < 1e7) || Double.doubleToRawLongBits(value) == Long.MIN_VALUE) {
+            return -1;
+        }
+        long cents = Math.round(value * 100.0d);
+        if (cents / 100.0d != value) {
+            return -1;
+        }
+        long units = cents / 100;
+        int fraction = (int) (cents % 100);
+
+        int length = 0;
+        if (units == 0) {
+            out[length++] = '0';
+        } else {
+            int digits = 0;
+            for (long rest = units; rest > 0; rest /= 10) {
+                digits++;
+            }
+            for (int i = digits - 1; i >= 0; i--) {
+                out[length + i] = (char) ('0' + units % 10);
+                units /= 10;
+            }
+            length += digits;
+        }
+        out[length++] = '.';
+        out[length++] = (char) ('0' + fraction / 10);
+        if (fraction % 10 != 0) {
+            out[length++] = (char) ('0' + fraction % 10);
+        }
+        return length;
+    }
+
+    /* copies the rows after the given id into the chunk. Return the number of rows copied */
+    private int copy(long after, Chunk chunk) {
+        chunk.size = 0;
+        chunk.namesLength = 0;
+        lock.readLock().lock();
+        try {
+            if (after == Long.MAX_VALUE) {
+                return 0;
+            }
+            int index = blockIndexOf(after + 1);
+            int row = blocks.get(index).find(after + 1);
+            row = row < 0 ? -row - 1 : row;
+            for (; index < blocks.size() && chunk.size < CHUNK_ROWS; index++, row = 0) {
+                var block = blocks.get(index);
+                for (; row < block.size && chunk.size < CHUNK_ROWS; row++) {
+                    chunk.add(block, row);
+                }
+            }
+            return chunk.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* inserts or replaces a row, under the write lock */
+    private void put(long id, String name, double price, long version) {
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        int index = blockIndexOf(id);
+        var block = blocks.get(index);
+        int row = block.find(id);
+        if (row >= 0) {
+            block.prices.putDouble(row << 3, price);
+            block.versions.putLong(row << 3, version);
+            block.setName(row, bytes);
+            return;
+        }
+
+        row = -row - 1;
+        if (block.size == BLOCK_ROWS) {
+            if (row == BLOCK_ROWS && index == blocks.size() - 1) {
+                // appended after the last row, the full blocks stay full
+                block = new Block();
+                blocks.add(block);
+                row = 0;
+            } else {
+                var halves = block.split();
+                blocks.set(index, halves[0]);
+                blocks.add(index + 1, halves[1]);
+                block = row <= halves[0].size ? halves[0] : halves[1];
+                row = block == halves[0] ? row : row - halves[0].size;
+            }
+        }
+        block.insert(row, id, bytes, price, version);
+        size++;
+    }
+
+    private Block blockOf(long id) {
+        return blocks.get(blockIndexOf(id));
+    }
+
+    /* the last block whose first id is not greater than the given id, or the first block */
+    private int blockIndexOf(long id) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            var block = blocks.get(middle);
+            if (block.size > 0 && block.id(0) <= id) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /* the columns of up to BLOCK_ROWS rows, sorted by id, in direct buffers */
+    private static final class Block {
+
+        private final ByteBuffer ids = ByteBuffer.allocateDirect(BLOCK_ROWS * Long.BYTES);
+        private final ByteBuffer prices = ByteBuffer.allocateDirect(BLOCK_ROWS * Double.BYTES);
+        private final ByteBuffer versions = ByteBuffer.allocateDirect(BLOCK_ROWS * Long.BYTES);
+        private final ByteBuffer nameOffsets = ByteBuffer.allocateDirect(BLOCK_ROWS * Integer.BYTES);
+        private final ByteBuffer nameLengths = ByteBuffer.allocateDirect(BLOCK_ROWS * Integer.BYTES);
+        private ByteBuffer names;
+        private int size;
+        private int namesEnd;
+        // bytes of the replaced and deleted names, reclaimed by compactNames()
+        private int garbage;
+
+        Block() {
+            this(BLOCK_ROWS * 16);
+        }
+
+        Block(int namesCapacity) {
+            names = ByteBuffer.allocateDirect(namesCapacity);
+        }
+
+        long id(int row) {
+            return ids.getLong(row << 3);
+        }
+
+        /* the row of the id, or -(insertion point) - 1 */
+        int find(long id) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long middleId = id(middle);
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -low - 1;
+        }
+
+        String name(int row) {
+            var bytes = new byte[nameLengths.getInt(row << 2)];
+            names.get(nameOffsets.getInt(row << 2), bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void insert(int row, long id, byte[] name, double price, long version) {
+            shift(row, size, 1);
+            size++;
+            ids.putLong(row << 3, id);
+            prices.putDouble(row << 3, price);
+            versions.putLong(row << 3, version);
+            nameLengths.putInt(row << 2, 0);
+            setName(row, name);
+        }
+
+        void remove(int row) {
+            garbage += nameLengths.getInt(row << 2);
+            shift(row + 1, size, -1);
+            size--;
+        }
+
+        /* the new name is appended, the old bytes become garbage */
+        void setName(int row, byte[] name) {
+            garbage += nameLengths.getInt(row << 2);
+            nameLengths.putInt(row << 2, 0);
+            if (garbage > namesEnd / 2 && garbage > 4096) {
+                compactNames(0);
+            }
+            if (names.capacity() - namesEnd < name.length) {
+                compactNames(name.length);
+            }
+            names.put(namesEnd, name);
+            nameOffsets.putInt(row << 2, namesEnd);
+            nameLengths.putInt(row << 2, name.length);
+            namesEnd += name.length;
+        }
+
+        /* the two halves of a full block, with their names packed */
+        Block[] split() {
+            int half = size / 2;
+            return new Block[]{copy(0, half), copy(half, size)};
+        }
+
+        long capacity() {
+            return ids.capacity() + prices.capacity() + versions.capacity() + nameOffsets.capacity() + nameLengths.capacity() + names.capacity();
+        }
+
+        private Block copy(int from, int to) {
+            var block = new Block(Math.max(names.capacity() / 2, BLOCK_ROWS * 16));
+            int rows = to - from;
+            block.ids.put(0, ids, from << 3, rows << 3);
+            block.prices.put(0, prices, from << 3, rows << 3);
+            block.versions.put(0, versions, from << 3, rows << 3);
+            for (int row = from; row < to; row++) {
+                int length = nameLengths.getInt(row << 2);
+                if (block.names.capacity() - block.namesEnd < length) {
+                    block.compactNames(length);
+                }
+                block.names.put(block.namesEnd, names, nameOffsets.getInt(row << 2), length);
+                block.nameOffsets.putInt((row - from) << 2, block.namesEnd);
+                block.nameLengths.putInt((row - from) << 2, length);
+                block.namesEnd += length;
+            }
+            block.size = rows;
+            return block;
+        }
+
+        /* moves the rows [from, to) by 'distance' rows, the bulk puts copy overlapping ranges correctly */
+        private void shift(int from, int to, int distance) {
+            int rows = to - from;
+            if (rows == 0) {
+                return;
+            }
+            ids.put((from + distance) << 3, ids, from << 3, rows << 3);
+            prices.put((from + distance) << 3, prices, from << 3, rows << 3);
+            versions.put((from + distance) << 3, versions, from << 3, rows << 3);
+            nameOffsets.put((from + distance) << 2, nameOffsets, from << 2, rows << 2);
+            nameLengths.put((from + distance) << 2, nameLengths, from << 2, rows << 2);
+        }
+
+        /* rewrites the live names in row order into a buffer with room for 'extra' more bytes */
+        private void compactNames(int extra) {
+            int live = namesEnd - garbage;
+            var packed = ByteBuffer.allocateDirect(Math.max(names.capacity(), (live + extra) * 2));
+            int end = 0;
+            for (int row = 0; row < size; row++) {
+                int length = nameLengths.getInt(row << 2);
+                packed.put(end, names, nameOffsets.getInt(row << 2), length);
+                nameOffsets.putInt(row << 2, end);
+                end += length;
+            }
+            names = packed;
+            namesEnd = end;
+            garbage = 0;
+        }
+    }
+
+    /* reusable heap copy of up to CHUNK_ROWS rows, the names as UTF-8 bytes */
+    private static final class Chunk {
+
+        private final long[] ids = new long[CHUNK_ROWS];
+        private final double[] prices = new double[CHUNK_ROWS];
+        private final long[] versions = new long[CHUNK_ROWS];
+        private final int[] nameOffsets = new int[CHUNK_ROWS];
+        private final int[] nameLengths = new int[CHUNK_ROWS];
+        private byte[] names = new byte[CHUNK_ROWS * 32];
+        private int size;
+        private int namesLength;
+
+        void add(Block block, int row) {
+            int length = block.nameLengths.getInt(row << 2);
+            if (names.length - namesLength < length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + length));
+            }
+            block.names.get(block.nameOffsets.getInt(row << 2), names, namesLength, length);
+            ids[size] = block.id(row);
+            prices[size] = block.prices.getDouble(row << 3);
+            versions[size] = block.versions.getLong(row << 3);
+            nameOffsets[size] = namesLength;
+            nameLengths[size] = length;
+            namesLength += length;
+            size++;
+        }
+    }
+
+    private final class JsonView implements JsonSerializable {
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            writeAll(generator);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer) throws IOException {
+            writeAll(generator);
+        }
+    }
+}
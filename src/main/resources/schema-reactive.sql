@@ -0,0 +1,14 @@
+-- same schema as the one hibernate creates for Product
+CREATE SEQUENCE IF NOT EXISTS P_PRODUCTS_SEQ START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS P_PRODUCTS (
+    id      BIGINT           NOT NULL PRIMARY KEY,
+    name    VARCHAR(255)     NOT NULL,
+    price   DOUBLE PRECISION NOT NULL,
+    version BIGINT           DEFAULT 0 NOT NULL,
+    mod_seq BIGINT           DEFAULT 0 NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS IDX_P_PRODUCTS_NAME ON P_PRODUCTS (name);
+CREATE INDEX IF NOT EXISTS IDX_P_PRODUCTS_PRICE ON P_PRODUCTS (price);
+CREATE INDEX IF NOT EXISTS IDX_P_PRODUCTS_MOD_SEQ ON P_PRODUCTS (mod_seq);
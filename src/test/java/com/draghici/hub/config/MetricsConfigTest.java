@@ -0,0 +1,94 @@
+package com.draghici.hub.config;
+
+import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.services.ProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/* the service timers of TimedMethodInterceptor and the access rules of the actuator endpoints, on the whole application */
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class MetricsConfigTest {
+
+    private final static Logger logger = LogManager.getLogger(MetricsConfigTest.class);
+
+    // the @Timed of ProductServiceImpl
+    private final static String SERVICE_TIMER = "hub.product.service";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    @Order(1)
+    void test_serviceTimers() {
+        logger.info("test the ProductService calls are recorded by method and exception");
+
+        long successes = count("getAll", "none");
+        long failures = count("getById", "ProductException");
+
+        productService.getAll();
+        productService.getAll();
+        assertThrows(ProductException.class, () -> productService.getById(-1L));
+
+        assertEquals(successes + 2, count("getAll", "none"), "Both calls should be timed");
+        assertEquals(failures + 1, count("getById", "ProductException"), "The failed call should be timed with its exception");
+        assertEquals(1, meterRegistry.find(SERVICE_TIMER).tag("method", "getAll").timers().size(), "A successful method should have a single timer");
+    }
+
+    @Test
+    @Order(2)
+    void test_actuatorRequiresAdmin() throws Exception {
+        logger.info("test only the ADMIN role reads the metrics");
+
+        mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/prometheus").header(HttpHeaders.AUTHORIZATION, basicAuth("user", "user")))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/metrics").header(HttpHeaders.AUTHORIZATION, basicAuth("user", "user")))
+                .andExpect(status().isForbidden());
+
+        mockMvc.perform(get("/actuator/prometheus").header(HttpHeaders.AUTHORIZATION, basicAuth("admin", "admin")))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("hub_product_service_seconds_bucket")));
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+    }
+
+    private static String basicAuth(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long count(String method, String exception) {
+        var timer = meterRegistry.find(SERVICE_TIMER)
+                .tag("class", "com.draghici.hub.services.ProductServiceImpl")
+                .tag("method", method)
+                .tag("exception", exception)
+                .timer();
+        return timer == null ? 0 : timer.count();
+    }
+}
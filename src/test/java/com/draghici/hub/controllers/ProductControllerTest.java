@@ -1,32 +1,70 @@
 package com.draghici.hub.controllers;
 
 import com.draghici.hub.beans.Product;
+import com.draghici.hub.beans.ProductTombstone;
+import com.draghici.hub.config.ContentNegotiationConfig;
+import com.draghici.hub.config.JacksonProtobufHttpMessageConverter;
+import com.draghici.hub.dto.ProductBatchResult;
 import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductRowView;
+import com.draghici.hub.events.ProductChangeFeed;
+import com.draghici.hub.events.ProductChangedEvent;
+import com.draghici.hub.exceptions.GlobalExceptionHandler;
+import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.logging.CorrelationIdFilter;
 import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import com.draghici.hub.search.ProductPriceIndex;
+import com.draghici.hub.search.ProductSearchIndex;
+import com.draghici.hub.services.ProductChangeTracker;
+import com.draghici.hub.services.ProductGroupCommit;
 import com.draghici.hub.services.ProductServiceImpl;
+import com.draghici.hub.store.ProductColumnStore;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.protobuf.ProtobufMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.*;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -39,6 +77,11 @@ public class ProductControllerTest {
 
     private final static Logger logger = LogManager.getLogger(ProductControllerTest.class);
 
+    /* a body without protobuf field numbers */
+    public static class Unpinned {
+        public String name;
+    }
+
     @InjectMocks
     private ProductController productController;
 
@@ -48,9 +91,32 @@ public class ProductControllerTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private EntityManager entityManager;
+
     @Mock
     private MockMvc mockMvc;
 
+    private ProductSearchIndex searchIndex;
+
+    private ProductPriceIndex priceIndex;
+
+    // disabled unless a test builds one, the products are read from the repository
+    private ProductColumnStore columnStore;
+
+    // disabled, the products are saved by the repository
+    @Mock
+    private ProductGroupCommit groupCommit;
+
+    private ProductChangeFeed changeFeed;
+
+    @Mock
+    private ProductTombstoneRepository tombstoneRepository;
+
+    // every write gets the modification sequence 0
+    @Mock
+    private ProductChangeTracker changeTracker;
+
     // mock 2 DB products
     Product productA;
     Product productB;
@@ -64,18 +130,42 @@ public class ProductControllerTest {
         productA.setId(1L);
         productA.setName("Product A test");
         productA.setPrice(19.2);
+        productA.setVersion(0L);
 
         productB = new Product();
         productB.setId(2L);
         productB.setName("Product B test");
         productB.setPrice(7.09);
+        productB.setVersion(0L);
 
         productRepository.saveAll(List.of(productA, productB));
 
-        productService = new ProductServiceImpl(productRepository);
-        productController = new ProductController(productService);
+        // the events of the service are delivered to the indexes right away, as without a transaction
+        searchIndex = new ProductSearchIndex(productRepository);
+        priceIndex = new ProductPriceIndex(productRepository);
+        columnStore = new ProductColumnStore(productRepository, new SimpleMeterRegistry(), false);
+        changeFeed = new ProductChangeFeed(new SimpleMeterRegistry(), 16, Duration.ofSeconds(30), Duration.ofSeconds(15));
+        start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        changeFeed.stop();
+    }
 
-        mockMvc = MockMvcBuilders.standaloneSetup(productController).build();
+    /* the service and the controller over the current indexes and column store */
+    private void start() {
+        ApplicationEventPublisher eventPublisher = event -> {
+            searchIndex.onProductChanged((ProductChangedEvent) event);
+            priceIndex.onProductChanged((ProductChangedEvent) event);
+            columnStore.onProductChanged((ProductChangedEvent) event);
+            changeFeed.onProductChanged((ProductChangedEvent) event);
+        };
+        productService = new ProductServiceImpl(productRepository, entityManager, eventPublisher, searchIndex, priceIndex, groupCommit, columnStore,
+                tombstoneRepository, changeTracker);
+        productController = new ProductController(productService, new ObjectMapper(), new ProductListCache(new ObjectMapper(), true), changeFeed);
+
+        mockMvc = MockMvcBuilders.standaloneSetup(productController).setControllerAdvice(new GlobalExceptionHandler()).addFilters(new CorrelationIdFilter()).build();
     }
 
     @Test
@@ -141,14 +231,17 @@ public class ProductControllerTest {
 
         ProductDTO productDTO = ProductDTO.builder().name(productB.getName()).price(237.8).build();
 
-        when(productRepository.getProductById(productB.getId())).thenReturn(Optional.ofNullable(productA));
+        productB.setPrice(237.8);
+        when(productRepository.updateProductById(productB.getId(), productB.getName(), 237.8, null, 0L)).thenReturn(1);
+        when(productRepository.getRowById(productB.getId())).thenReturn(row(productB.getId(), productB.getName(), 237.8, 1L));
+        when(productRepository.getProductById(productB.getId())).thenReturn(Optional.ofNullable(productB));
 
         MvcResult result = mockMvc.perform(patch("/api/product/" + productB.getId()).contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO))).andExpect(status().isOk()).andReturn();
 
         String expectedResponse = result.getResponse().getContentAsString();
 
         assertNotNull(expectedResponse);
-        assertEquals("", expectedResponse, "Response should be empty");
+        assertTrue(expectedResponse.contains("237.8"), "Updated product price should match");
     }
 
     @Test
@@ -157,12 +250,512 @@ public class ProductControllerTest {
         logger.info("test update() in ProductController");
 
         Long targetID = productA.getId();
-        when(productRepository.getProductById(targetID)).thenReturn(Optional.ofNullable(productA));
+        when(productRepository.deleteProductById(targetID)).thenReturn(1);
 
         mockMvc.perform(delete("/api/product/" + targetID).contentType(MediaType.APPLICATION_JSON)).andExpect(status().isOk()).andReturn();
 
         //verify the deletion
-        verify(productRepository).delete(productA);
+        verify(productRepository).deleteProductById(targetID);
+    }
+
+    @Test
+    @Order(6)
+    void test_getProductPage() throws Exception {
+        logger.info("test listProductPage() in ProductController");
+
+        when(productRepository.getProductsAfter(1L, Limit.of(2))).thenReturn(List.of(productB));
+
+        mockMvc.perform(get("/api/product/page").param("after", "1").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(1))
+                .andExpect(jsonPath("$.products[0].name").value(productB.getName()))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    @Order(7)
+    void test_exportProducts() throws Exception {
+        logger.info("test exportProducts() in ProductController");
+
+        when(productRepository.streamAll()).thenReturn(Stream.of(productA, productB));
+
+        MvcResult asyncResult = mockMvc.perform(get("/api/product/export")).andExpect(request().asyncStarted()).andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(asyncResult)).andExpect(status().isOk()).andReturn();
+
+        String[] lines = result.getResponse().getContentAsString().split("\n");
+
+        assertEquals(2, lines.length, "One line per product");
+        assertTrue(lines[0].startsWith("{") && lines[0].contains(productA.getName()), "First line should be product A");
+        assertTrue(lines[1].startsWith("{") && lines[1].contains(productB.getName()), "Second line should be product B");
+        verify(entityManager).detach(productA);
+        verify(entityManager).detach(productB);
+    }
+
+    @Test
+    @Order(8)
+    void test_addBatch() throws Exception {
+        logger.info("test addBatch() in ProductController");
+
+        String body = "[{\"name\":\"Product C test\",\"price\":3.2},{\"name\":\"\",\"price\":1.0}]";
+
+        // the ids are generated on save
+        AtomicLong nextId = new AtomicLong(10);
+        when(productRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Product> products = invocation.getArgument(0);
+            products.forEach(product -> {
+                product.setId(nextId.getAndIncrement());
+                product.setVersion(0L);
+            });
+            return products;
+        });
+
+        mockMvc.perform(post("/api/product/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created.length()").value(1))
+                .andExpect(jsonPath("$.created[0].name").value("Product C test"))
+                .andExpect(jsonPath("$.failures.length()").value(1))
+                .andExpect(jsonPath("$.failures[0].index").value(1))
+                .andExpect(jsonPath("$.failures[0].errorCode").value(422));
+    }
+
+    @Test
+    @Order(9)
+    void test_correlationId() throws Exception {
+        logger.info("test the correlation id of the requests");
+
+        when(productRepository.getProductById(1L)).thenReturn(Optional.ofNullable(productA));
+
+        mockMvc.perform(get("/api/product/1").header(CorrelationIdFilter.CORRELATION_ID_HEADER, "order-42"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(CorrelationIdFilter.CORRELATION_ID_HEADER, "order-42"));
+
+        MvcResult result = mockMvc.perform(get("/api/product/1").header(CorrelationIdFilter.CORRELATION_ID_HEADER, "bad id\n"))
+                .andExpect(status().isOk()).andReturn();
+        String generatedId = result.getResponse().getHeader(CorrelationIdFilter.CORRELATION_ID_HEADER);
+
+        assertNotNull(generatedId, "A correlation id should be generated");
+        assertNotEquals("bad id\n", generatedId, "An invalid correlation id should be replaced");
+    }
+
+    @Test
+    @Order(10)
+    void test_getOneProductNotModified() throws Exception {
+        logger.info("test getOne() with an If-None-Match ETag in ProductController");
+
+        productA.setVersion(3L);
+        when(productRepository.getProductById(1L)).thenReturn(Optional.ofNullable(productA));
+
+        mockMvc.perform(get("/api/product/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3\""))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+
+        MvcResult result = mockMvc.perform(get("/api/product/1").header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isNotModified()).andReturn();
+        assertEquals("", result.getResponse().getContentAsString(), "Response should be empty");
+
+        mockMvc.perform(get("/api/product/1").header(HttpHeaders.IF_NONE_MATCH, "\"2\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @Order(11)
+    void test_getListProductNotModified() throws Exception {
+        logger.info("test listProduct() with an If-None-Match ETag in ProductController");
+
+        when(productRepository.findAll()).thenReturn(List.of(productA, productB));
+        when(productRepository.save(any(Product.class))).thenReturn(productB);
+
+        String etag = mockMvc.perform(get("/api/product/all")).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag, "The catalogue should have an ETag");
+
+        mockMvc.perform(get("/api/product/all").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        // the 304 is decided without reading the table
+        verify(productRepository, times(1)).findAll();
+
+        ProductDTO productDTO = ProductDTO.builder().name(productB.getName()).price(productB.getPrice()).build();
+        mockMvc.perform(post("/api/product").contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO)))
+                .andExpect(status().isOk());
+
+        String newEtag = mockMvc.perform(get("/api/product/all").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, newEtag, "A write should change the ETag of the catalogue");
+    }
+
+    @Test
+    @Order(12)
+    void test_updateProductIfMatch() throws Exception {
+        logger.info("test update() with an If-Match ETag in ProductController");
+
+        productA.setPrice(237.8);
+        productA.setVersion(4L);
+        when(productRepository.updateProductById(1L, null, 237.8, 3L, 0L)).thenReturn(1);
+        when(productRepository.getRowById(1L)).thenReturn(row(1L, productA.getName(), 237.8, 4L));
+        when(productRepository.existsById(1L)).thenReturn(true);
+        when(productRepository.getProductById(1L)).thenReturn(Optional.ofNullable(productA));
+
+        ProductDTO productDTO = ProductDTO.builder().price(237.8).build();
+
+        mockMvc.perform(patch("/api/product/1").header(HttpHeaders.IF_MATCH, "\"2\"").contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO)))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.errorCode").value(412));
+        mockMvc.perform(patch("/api/product/1").header(HttpHeaders.IF_MATCH, "W/\"3\"").contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO)))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(patch("/api/product/1").header(HttpHeaders.IF_MATCH, "\"3\"").contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.price").value(237.8));
+    }
+
+    @Test
+    @Order(13)
+    void test_updateProductReturnMinimal() throws Exception {
+        logger.info("test update() with 'Prefer: return=minimal' in ProductController");
+
+        when(productRepository.updateProductById(1L, null, 237.8, 3L, 0L)).thenReturn(1);
+        when(productRepository.getRowById(1L)).thenReturn(row(1L, productA.getName(), 237.8, 4L));
+
+        ProductDTO productDTO = ProductDTO.builder().price(237.8).build();
+
+        mockMvc.perform(patch("/api/product/1").header("Prefer", "return=minimal").header(HttpHeaders.IF_MATCH, "\"3\"").contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO)))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""));
+
+        // the updated product is not read back
+        verify(productRepository, never()).getProductById(1L);
+    }
+
+    @Test
+    @Order(14)
+    void test_queryProducts() throws Exception {
+        logger.info("test queryProducts() in ProductController");
+
+        Sort expectedSort = Sort.by(Sort.Direction.ASC, "price").and(Sort.by("id"));
+        when(productRepository.queryProducts("Product%", 5.0, Double.MAX_VALUE, expectedSort, Limit.of(2))).thenReturn(List.of(productB, productA));
+
+        mockMvc.perform(get("/api/product/query").param("namePrefix", "Product").param("minPrice", "5").param("sort", "price").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].name").value(productB.getName()))
+                .andExpect(jsonPath("$[1].name").value(productA.getName()));
+
+        mockMvc.perform(get("/api/product/query").param("sort", "-version"))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    @Order(15)
+    void test_searchProducts() throws Exception {
+        logger.info("test searchProducts() in ProductController");
+
+        Product productC = new Product();
+        productC.setId(3L);
+        productC.setName("Product C test");
+        productC.setPrice(3.2);
+        productC.setVersion(0L);
+        when(productRepository.save(any(Product.class))).thenReturn(productC);
+
+        ProductDTO productDTO = ProductDTO.builder().name(productC.getName()).price(productC.getPrice()).build();
+        mockMvc.perform(post("/api/product").contentType(MediaType.APPLICATION_JSON).content(convertProductToJson(productDTO)))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/product/search").param("q", "prodct c"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(3))
+                .andExpect(jsonPath("$[0].name").value(productC.getName()));
+
+        when(productRepository.deleteProductById(3L)).thenReturn(1);
+        mockMvc.perform(delete("/api/product/3")).andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/product/search").param("q", "prodct c"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    @Order(16)
+    void test_productsByPrice() throws Exception {
+        logger.info("test the price queries in ProductController");
+
+        when(productRepository.saveAll(anyList())).thenReturn(List.of(productA, productB));
+        String body = "[{\"name\":\"Product A test\",\"price\":19.2},{\"name\":\"Product B test\",\"price\":7.09}]";
+        mockMvc.perform(post("/api/product/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/product/price/count").param("minPrice", "5").param("maxPrice", "10"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("1"));
+
+        mockMvc.perform(get("/api/product/price/cheapest").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(productB.getId()))
+                .andExpect(jsonPath("$[0].price").value(productB.getPrice()));
+
+        mockMvc.perform(get("/api/product/price/most-expensive"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(productA.getId()))
+                .andExpect(jsonPath("$[1].id").value(productB.getId()));
+
+        mockMvc.perform(get("/api/product/price/range").param("minPrice", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(productA.getId()));
+
+        mockMvc.perform(get("/api/product/price/range").param("minPrice", "10").param("maxPrice", "5"))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    @Order(17)
+    void test_getListProductFromColumnStore() throws Exception {
+        logger.info("test listProduct() in ProductController with the column store");
+
+        when(productRepository.streamAllRows()).thenReturn(Stream.empty());
+        columnStore = new ProductColumnStore(productRepository, new SimpleMeterRegistry(), true);
+        columnStore.build();
+        start();
+
+        when(productRepository.saveAll(anyList())).thenReturn(List.of(productA, productB));
+        String body = "[{\"name\":\"Product A test\",\"price\":19.2},{\"name\":\"Product B test\",\"price\":7.09}]";
+        mockMvc.perform(post("/api/product/batch").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk());
+        when(productRepository.updateProductById(productA.getId(), null, 21.5, null, 0L)).thenReturn(1);
+        when(productRepository.getRowById(productA.getId())).thenReturn(row(productA.getId(), productA.getName(), 21.5, 1L));
+        mockMvc.perform(patch("/api/product/" + productA.getId()).header("Prefer", "return=minimal")
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"price\":21.5}"))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/api/product/all"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"id\":1,\"name\":\"Product A test\",\"price\":21.5,\"version\":1},"
+                        + "{\"id\":2,\"name\":\"Product B test\",\"price\":7.09,\"version\":0}]", true));
+
+        mockMvc.perform(get("/api/product/" + productB.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.name").value(productB.getName()));
+        verify(productRepository, never()).findAll();
+        verify(productRepository, never()).getProductById(any());
+    }
+
+    @Test
+    @Order(18)
+    void test_getListProductEncoded() throws Exception {
+        logger.info("test listProduct() with the gzip and deflate encodings in ProductController");
+
+        when(productRepository.findAll()).thenReturn(List.of(productA, productB));
+        byte[] json = mockMvc.perform(get("/api/product/all"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        MvcResult gzip = mockMvc.perform(get("/api/product/all").header(HttpHeaders.ACCEPT_ENCODING, "deflate;q=0.5, gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, "Accept, Accept-Encoding"))
+                .andReturn();
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(gzip.getResponse().getContentAsByteArray()))) {
+            assertArrayEquals(json, in.readAllBytes(), "The gzip body should match");
+        }
+
+        MvcResult deflate = mockMvc.perform(get("/api/product/all").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "deflate"))
+                .andReturn();
+        try (var in = new InflaterInputStream(new ByteArrayInputStream(deflate.getResponse().getContentAsByteArray()))) {
+            assertArrayEquals(json, in.readAllBytes(), "The deflate body should match");
+        }
+
+        // every representation has its own ETag
+        String etag = gzip.getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, deflate.getResponse().getHeader(HttpHeaders.ETAG), "ETags should differ");
+        mockMvc.perform(get("/api/product/all").header(HttpHeaders.ACCEPT_ENCODING, "gzip").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        // the list is serialized once per catalogue version
+        verify(productRepository, times(1)).findAll();
+
+        when(productRepository.findAll()).thenReturn(List.of(productA));
+        when(productRepository.deleteProductById(2L)).thenReturn(1);
+        mockMvc.perform(delete("/api/product/2")).andExpect(status().isOk());
+        mockMvc.perform(get("/api/product/all").header(HttpHeaders.ACCEPT_ENCODING, "br"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(jsonPath("$.length()").value(1));
+        verify(productRepository, times(2)).findAll();
+    }
+
+    @Test
+    @Order(19)
+    void test_binaryEncodings() throws Exception {
+        logger.info("test the CBOR and protobuf request and response bodies in ProductController");
+
+        List<HttpMessageConverter<?>> converters = new ArrayList<>(List.of(new ByteArrayHttpMessageConverter(), new MappingJackson2HttpMessageConverter()));
+        new ContentNegotiationConfig(new Jackson2ObjectMapperBuilder()).extendMessageConverters(converters);
+        mockMvc = MockMvcBuilders.standaloneSetup(productController).setControllerAdvice(new GlobalExceptionHandler())
+                .setMessageConverters(converters.toArray(HttpMessageConverter[]::new)).build();
+        var protobuf = (JacksonProtobufHttpMessageConverter) converters.get(converters.size() - 1);
+        var protobufMapper = new ProtobufMapper();
+        var cborMapper = new CBORMapper();
+
+        when(productRepository.save(any(Product.class))).thenReturn(productB);
+        byte[] request = protobufMapper.writer(protobuf.schema(ProductDTO.class).orElseThrow())
+                .writeValueAsBytes(ProductDTO.builder().name(productB.getName()).price(productB.getPrice()).build());
+        byte[] response = mockMvc.perform(post("/api/product").contentType(JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF).content(request)
+                        .accept(JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF))
+                .andReturn().getResponse().getContentAsByteArray();
+        Product created = protobufMapper.readerFor(Product.class).with(protobuf.schema(Product.class).orElseThrow()).readValue(response);
+        assertEquals(productB, created, "Product should match");
+
+        when(productRepository.saveAll(anyList())).thenReturn(List.of(productA, productB));
+        request = cborMapper.writeValueAsBytes(List.of(new ProductDTO(productA.getName(), productA.getPrice()), new ProductDTO(productB.getName(), productB.getPrice())));
+        response = mockMvc.perform(post("/api/product/batch").contentType(MediaType.APPLICATION_CBOR).content(request).accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals(2, cborMapper.readValue(response, ProductBatchResult.class).getCreated().size(), "Size should match");
+
+        when(productRepository.findAll()).thenReturn(List.of(productA, productB));
+        var listType = new TypeReference<List<Product>>() {
+        }.getType();
+        response = mockMvc.perform(get("/api/product/all").accept(JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF))
+                .andReturn().getResponse().getContentAsByteArray();
+        JacksonProtobufHttpMessageConverter.Items<Product> items = protobufMapper.readerFor(new TypeReference<JacksonProtobufHttpMessageConverter.Items<Product>>() {
+        }).with(protobuf.schema(listType).orElseThrow()).readValue(response);
+        assertEquals(List.of(productA, productB), items.items, "Products should match");
+
+        var cbor = mockMvc.perform(get("/api/product/all").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn().getResponse();
+        assertEquals(List.of(productA, productB), cborMapper.readValue(cbor.getContentAsByteArray(), new TypeReference<List<Product>>() {
+        }), "Products should match");
+
+        // each encoding has a tag of its own, a client switching encodings does not get a 304 for other bytes
+        var protobufETag = mockMvc.perform(get("/api/product/all").accept(JacksonProtobufHttpMessageConverter.APPLICATION_PROTOBUF))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        var jsonETag = mockMvc.perform(get("/api/product/all").accept(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.VARY, "Accept, Accept-Encoding"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertEquals(3, Set.of(cbor.getHeader(HttpHeaders.ETAG), protobufETag, jsonETag).size(), "ETags should differ by encoding");
+        mockMvc.perform(get("/api/product/all").accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, protobufETag))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/product/all").accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, cbor.getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+
+        // a product too, and the tag of any encoding is a valid If-Match
+        productA.setVersion(3L);
+        when(productRepository.getProductById(1L)).thenReturn(Optional.ofNullable(productA));
+        mockMvc.perform(get("/api/product/1").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-cbor\""))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+        mockMvc.perform(get("/api/product/1").accept(MediaType.APPLICATION_CBOR).header(HttpHeaders.IF_NONE_MATCH, "\"3\""))
+                .andExpect(status().isOk());
+        assertEquals(3L, ProductETags.expectedVersion("\"3-cbor\""), "Version should match");
+        assertEquals(3L, ProductETags.expectedVersion("\"3\""), "Version should match");
+        assertEquals(ProductETags.UNMATCHABLE_VERSION, ProductETags.expectedVersion("\"-cbor\""), "A tag without a version should not match");
+
+        // the field numbers are pinned, a type without them is not encoded
+        assertTrue(protobuf.schema(Product.class).orElseThrow().getSource().toString().contains("optional int64 version = 4;"), "Field number should match");
+        assertTrue(protobuf.schema(Unpinned.class).isEmpty(), "A type without field numbers should have no schema");
+
+        // the errors are encoded as asked too
+        response = mockMvc.perform(get("/api/product/-1").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals(422, cborMapper.readTree(response).get("errorCode").asInt(), "Error code should match");
+    }
+
+    @Test
+    @Order(20)
+    void test_getManyProducts() throws Exception {
+        logger.info("test getMany() and lookup() in ProductController");
+
+        when(productRepository.getProductsByIds(List.of(2L, 1L, 9L))).thenReturn(List.of(productA, productB));
+
+        mockMvc.perform(get("/api/product").param("ids", "2,1,9,-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(2))
+                .andExpect(jsonPath("$.products[0].id").value(2))
+                .andExpect(jsonPath("$.products[1].id").value(1))
+                .andExpect(jsonPath("$.failures.length()").value(2))
+                .andExpect(jsonPath("$.failures[0].id").value(-1))
+                .andExpect(jsonPath("$.failures[0].errorCode").value(422))
+                .andExpect(jsonPath("$.failures[1].id").value(9))
+                .andExpect(jsonPath("$.failures[1].errorCode").value(404));
+
+        mockMvc.perform(post("/api/product/lookup").contentType(MediaType.APPLICATION_JSON).content("[2, 1, 9]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(2))
+                .andExpect(jsonPath("$.failures[0].errorMessage").value("Product with id 9 not found"));
+
+        mockMvc.perform(post("/api/product/lookup").contentType(MediaType.APPLICATION_JSON).content("[]"))
+                .andExpect(status().isUnprocessableEntity());
+    }
+
+    @Test
+    @Order(21)
+    void test_productEvents() throws Exception {
+        logger.info("test events() in ProductController");
+
+        var product = new Product();
+        product.setId(3L);
+        product.setName("Product C test");
+        product.setPrice(4.5);
+        product.setVersion(0L);
+        when(productRepository.save(any(Product.class))).thenReturn(product);
+        when(productRepository.deleteProductById(3L)).thenReturn(1);
+
+        MvcResult result = mockMvc.perform(get("/api/product/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        productService.add(new ProductDTO("Product C test", 4.5));
+        productService.delete(3L);
+
+        var response = result.getResponse();
+        for (int i = 0; i < 100 && !response.getContentAsString().contains("event:deleted"); i++) {
+            Thread.sleep(50);
+        }
+        String events = response.getContentAsString();
+        assertTrue(response.getContentType().startsWith(MediaType.TEXT_EVENT_STREAM_VALUE), "Content type should match");
+        assertTrue(events.contains("event:created"), "The creation should be sent");
+        assertTrue(events.contains("\"productId\":3"), "The product should be sent");
+        assertTrue(events.indexOf("event:created") < events.indexOf("event:deleted"), "The events should come in the commit order");
+        assertEquals(1, changeFeed.getSubscriberCount(), "The connection should stay open");
+    }
+
+    @Test
+    @Order(22)
+    void test_listChanges() throws Exception {
+        logger.info("test listChanges() in ProductController");
+
+        when(changeTracker.parseToken("7.1")).thenReturn(ProductChangeTracker.Cursor.after(1L));
+        when(changeTracker.parseToken("6.1")).thenThrow(new ProductException("The change token expired, please sync again without a token", 410));
+        when(changeTracker.watermark()).thenReturn(4L);
+        when(changeTracker.token(ProductChangeTracker.Cursor.after(4L))).thenReturn("7.4");
+        when(productRepository.getProductsChangedBetween(1L, Long.MAX_VALUE, 4L, Limit.of(11))).thenReturn(List.of(productB));
+        when(tombstoneRepository.getTombstonesBetween(1L, Long.MAX_VALUE, 4L, Limit.of(11))).thenReturn(List.of(new ProductTombstone(3L, 3L, Instant.now())));
+
+        mockMvc.perform(get("/api/product/changes").param("since", "7.1").param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.products.length()").value(1))
+                .andExpect(jsonPath("$.products[0].id").value(2))
+                .andExpect(jsonPath("$.products[0].modSeq").doesNotExist())
+                .andExpect(jsonPath("$.deletedIds[0]").value(3))
+                .andExpect(jsonPath("$.nextToken").value("7.4"))
+                .andExpect(jsonPath("$.more").value(false));
+
+        mockMvc.perform(get("/api/product/changes").param("since", "6.1"))
+                .andExpect(status().isGone());
     }
 
     private String convertProductToJson(ProductDTO productDTO) {
@@ -187,4 +780,28 @@ public class ProductControllerTest {
         }
         return null;
     }
-}
\ No newline at end of file
+
+    private static ProductRowView row(long id, String name, double price, long version) {
+        return new ProductRowView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public double getPrice() {
+                return price;
+            }
+
+            @Override
+            public Long getVersion() {
+                return version;
+            }
+        };
+    }
+}
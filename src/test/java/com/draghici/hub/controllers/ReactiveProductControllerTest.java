@@ -0,0 +1,176 @@
+package com.draghici.hub.controllers;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.repositories.ReactiveProductRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/* the reactive variant of the API, end to end on WebFlux and R2DBC */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("reactive")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ReactiveProductControllerTest {
+
+    private final static Logger logger = LogManager.getLogger(ReactiveProductControllerTest.class);
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private ReactiveProductRepository productRepository;
+
+    @Test
+    @Order(1)
+    void test_addNewProduct() {
+        logger.info("test add() in ReactiveProductController");
+
+        Product product = addProduct("{\"name\":\"Product A test\",\"price\":19.2}");
+
+        assertNotNull(product.getId(), "Product ID should be generated");
+        assertEquals("Product A test", product.getName(), "Product name should match");
+        assertEquals(19.2, product.getPrice(), "Product price should match");
+    }
+
+    @Test
+    @Order(2)
+    void test_getListProduct() {
+        logger.info("test listProduct() in ReactiveProductController");
+
+        webTestClient.get().uri("/api/product/all")
+                .header(HttpHeaders.AUTHORIZATION, basicAuth("user", "user"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].name").isEqualTo("Product A test");
+    }
+
+    @Test
+    @Order(3)
+    void test_getMissingProduct() {
+        logger.info("test getOne() for a missing product in ReactiveProductController");
+
+        webTestClient.get().uri("/api/product/153234123")
+                .header(HttpHeaders.AUTHORIZATION, basicAuth("user", "user"))
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.errorMessage").isEqualTo("Product with id 153234123 not found")
+                .jsonPath("$.errorCode").isEqualTo(404);
+    }
+
+    @Test
+    @Order(4)
+    void test_getNegativeProduct() {
+        logger.info("test getOne() for a negative id in ReactiveProductController");
+
+        webTestClient.get().uri("/api/product/-1")
+                .header(HttpHeaders.AUTHORIZATION, basicAuth("user", "user"))
+                .exchange()
+                .expectStatus().isEqualTo(422)
+                .expectBody()
+                .jsonPath("$.errorMessage").isEqualTo("A product with negative id cannot exist");
+    }
+
+    @Test
+    @Order(5)
+    void test_addBatch() {
+        logger.info("test addBatch() in ReactiveProductController");
+
+        webTestClient.post().uri("/api/product/batch")
+                .header(HttpHeaders.AUTHORIZATION, basicAuth("admin", "admin"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[{\"name\":\"Product B test\",\"price\":7.09},{\"name\":\"\",\"price\":1.0},{\"name\":\"Product C test\",\"price\":3.2}]")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.created.length()").isEqualTo(2)
+                .jsonPath("$.created[1].name").isEqualTo("Product C test")
+                .jsonPath("$.failures[0].index").isEqualTo(1)
+                .jsonPath("$.failures[0].errorCode").isEqualTo(422);
+    }
+
+    @Test
+    @Order(6)
+    void test_updateProduct() {
+        logger.info("test update() in ReactiveProductController");
+
+        Product product = addProduct("{\"name\":\"Product D test\",\"price\":1.0}");
+
+        webTestClient.patch().uri("/api/product/" + product.getId())
+                .header(HttpHeaders.AUTHORIZATION, basicAuth("admin", "admin"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"price\":237.8}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.name").isEqualTo("Product D test")
+                .jsonPath("$.price").isEqualTo(237.8);
+    }
+
+    @Test
+    @Order(7)
+    void test_deleteProduct() {
+        logger.info("test deleteById() in ReactiveProductController");
+
+        Product product = addProduct("{\"name\":\"Product E test\",\"price\":1.0}");
+        String uri = "/api/product/" + product.getId();
+
+        webTestClient.delete().uri(uri).header(HttpHeaders.AUTHORIZATION, basicAuth("user", "user"))
+                .exchange().expectStatus().isForbidden();
+        webTestClient.delete().uri(uri).header(HttpHeaders.AUTHORIZATION, basicAuth("admin", "admin"))
+                .exchange().expectStatus().isOk();
+        webTestClient.delete().uri(uri).header(HttpHeaders.AUTHORIZATION, basicAuth("admin", "admin"))
+                .exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    @Order(8)
+    void test_concurrentIds() {
+        logger.info("test the concurrent inserts share the blocks of ids, without losing one");
+
+        var ids = Flux.range(0, 120)
+                .flatMap(i -> {
+                    var product = new Product();
+                    product.setName("Product " + i);
+                    product.setPrice(1.0);
+                    return productRepository.insert(product);
+                }, 32)
+                .map(Product::getId)
+                .collectList()
+                .block();
+
+        assertEquals(120, new HashSet<>(ids).size(), "Every product should get its own id");
+        assertEquals(119L, Collections.max(ids) - Collections.min(ids), "No block of ids should be lost");
+    }
+
+    private Product addProduct(String json) {
+        return webTestClient.post().uri("/api/product")
+                .header(HttpHeaders.AUTHORIZATION, basicAuth("admin", "admin"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(json)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Product.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    private static String basicAuth(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,176 @@
+package com.draghici.hub.events;
+
+import com.draghici.hub.beans.Product;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductChangeFeedTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductChangeFeedTest.class);
+
+    private ProductChangeFeed changeFeed;
+
+    @BeforeEach
+    void setup() {
+        // the last 4 changes can be resumed
+        changeFeed = new ProductChangeFeed(new SimpleMeterRegistry(), 4, Duration.ofSeconds(30), Duration.ofSeconds(15));
+    }
+
+    @AfterEach
+    void tearDown() {
+        changeFeed.stop();
+    }
+
+    @Test
+    @Order(1)
+    void test_liveEvents() throws Exception {
+        logger.info("test the subscribers get the changes in order");
+
+        var first = new RecordingEmitter();
+        var second = new RecordingEmitter();
+        changeFeed.subscribe(null, first);
+        changeFeed.subscribe(null, second);
+
+        changeFeed.onProductChanged(ProductChangedEvent.created(product(1L, "Product A test", 19.2)));
+        changeFeed.onProductChanged(ProductChangedEvent.updated(1L, "Product A", 18.0, 1L, 2L));
+        changeFeed.onProductChanged(ProductChangedEvent.deleted(1L, 3L));
+
+        for (var emitter : new RecordingEmitter[]{first, second}) {
+            var created = emitter.next();
+            assertTrue(created.matches("id:\\d+\\.1\nevent:created\ndata:.*\n\n"), "The first event should be the creation");
+            assertTrue(created.contains("\"sequence\":1,\"type\":\"CREATED\",\"productId\":1,\"name\":\"Product A test\",\"price\":19.2"), "The product should be sent");
+            var updated = emitter.next();
+            assertTrue(updated.contains("event:updated\ndata:{\"sequence\":2"), "The second event should be the update");
+            assertTrue(updated.contains("\"name\":\"Product A\",\"price\":18.0"), "The update should carry the current product");
+            var deleted = emitter.next();
+            assertTrue(deleted.contains("event:deleted"), "The third event should be the deletion");
+            assertTrue(deleted.contains("\"name\":null,\"price\":null"), "A deleted product has no name and no price");
+        }
+        assertEquals(2, changeFeed.getSubscriberCount(), "Subscriber count should match");
+    }
+
+    @Test
+    @Order(2)
+    void test_resume() throws Exception {
+        logger.info("test a subscriber resumes after its Last-Event-ID");
+
+        var live = new RecordingEmitter();
+        changeFeed.subscribe(null, live);
+        changeFeed.onProductChanged(ProductChangedEvent.created(product(1L, "Product A test", 19.2)));
+        changeFeed.onProductChanged(ProductChangedEvent.created(product(2L, "Product B test", 7.09)));
+        var firstId = eventId(live.next());
+        var secondId = eventId(live.next());
+
+        var resumed = new RecordingEmitter();
+        changeFeed.subscribe(firstId, resumed);
+        assertEquals(secondId, eventId(resumed.next()), "The changes after the Last-Event-ID should be sent again");
+
+        var upToDate = new RecordingEmitter();
+        changeFeed.subscribe(secondId, upToDate);
+        changeFeed.onProductChanged(ProductChangedEvent.deleted(2L, 3L));
+        assertTrue(upToDate.next().contains("event:deleted"), "Only the new changes should be sent");
+    }
+
+    @Test
+    @Order(3)
+    void test_reset() throws Exception {
+        logger.info("test a subscriber that missed changes gets a reset event");
+
+        var live = new RecordingEmitter();
+        changeFeed.subscribe(null, live);
+        changeFeed.onProductChanged(ProductChangedEvent.created(product(1L, "Product A test", 19.2)));
+        var firstId = eventId(live.next());
+        for (long id = 2; id <= 6; id++) {
+            changeFeed.onProductChanged(ProductChangedEvent.created(product(id, "Product " + id, id)));
+        }
+
+        var tooOld = new RecordingEmitter();
+        changeFeed.subscribe(firstId, tooOld);
+        var reset = tooOld.next();
+        assertTrue(reset.contains("event:reset\ndata:6"), "The changes after 1 are not all kept, a reset should be sent");
+
+        var otherRun = new RecordingEmitter();
+        changeFeed.subscribe("123.1", otherRun);
+        assertTrue(otherRun.next().contains("event:reset"), "An id of another run should get a reset");
+
+        var malformed = new RecordingEmitter();
+        changeFeed.subscribe("not an id", malformed);
+        assertTrue(malformed.next().contains("event:reset"), "A malformed id should get a reset");
+
+        changeFeed.onProductChanged(ProductChangedEvent.deleted(6L, 7L));
+        assertTrue(tooOld.next().contains("event:deleted"), "The next changes should follow the reset");
+    }
+
+    @Test
+    @Order(4)
+    void test_disconnect() throws Exception {
+        logger.info("test a failed client is dropped without stopping the others");
+
+        var failing = new RecordingEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        var live = new RecordingEmitter();
+        changeFeed.subscribe(null, failing);
+        changeFeed.subscribe(null, live);
+
+        changeFeed.onProductChanged(ProductChangedEvent.created(product(1L, "Product A test", 19.2)));
+
+        assertTrue(live.next().contains("event:created"), "The other subscriber should get the change");
+        for (int i = 0; i < 100 && changeFeed.getSubscriberCount() > 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, changeFeed.getSubscriberCount(), "The failed subscriber should be removed");
+    }
+
+    private static String eventId(String event) {
+        return event.substring("id:".length(), event.indexOf('\n'));
+    }
+
+    private static Product product(long id, String name, double price) {
+        var product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setPrice(price);
+        product.setVersion(0L);
+        return product;
+    }
+
+    /* keeps the events as their text, the data objects are written as JSON */
+    private static class RecordingEmitter extends SseEmitter {
+
+        private final static ObjectMapper objectMapper = new ObjectMapper();
+
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            var event = new StringBuilder();
+            for (var part : builder.build()) {
+                event.append(part.getData() instanceof String text ? text : objectMapper.writeValueAsString(part.getData()));
+            }
+            events.add(event.toString());
+        }
+
+        String next() throws InterruptedException {
+            var event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event, "An event should be sent");
+            return event;
+        }
+    }
+}
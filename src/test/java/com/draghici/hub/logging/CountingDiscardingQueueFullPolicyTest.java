@@ -0,0 +1,68 @@
+package com.draghici.hub.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.async.EventRoute;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/* getRoute() is only called by the async loggers when their ring buffer is full */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CountingDiscardingQueueFullPolicyTest {
+
+    private final static Logger logger = LogManager.getLogger(CountingDiscardingQueueFullPolicyTest.class);
+
+    private CountingDiscardingQueueFullPolicy policy;
+
+    @BeforeEach
+    void setup() {
+        // log4j2.discardThreshold=DEBUG, from log4j2.component.properties
+        policy = new CountingDiscardingQueueFullPolicy();
+    }
+
+    @Test
+    @Order(1)
+    void test_discardCounting() {
+        logger.info("test the events at the threshold or below are dropped and counted on a full queue");
+
+        long before = CountingDiscardingQueueFullPolicy.getDiscardedEvents();
+        long otherThread = Thread.currentThread().threadId() + 1;
+
+        assertEquals(EventRoute.DISCARD, policy.getRoute(otherThread, Level.DEBUG), "A DEBUG event should be dropped");
+        assertEquals(EventRoute.DISCARD, policy.getRoute(otherThread, Level.TRACE), "A TRACE event should be dropped");
+        assertEquals(EventRoute.DISCARD, policy.getRoute(otherThread, Level.DEBUG), "A DEBUG event should be dropped");
+
+        assertEquals(before + 3, CountingDiscardingQueueFullPolicy.getDiscardedEvents(), "Every dropped event should be counted");
+        assertEquals(before + 3, new AsyncLoggingMetrics().getDiscardedEvents(), "The JMX attribute should report the count");
+    }
+
+    @Test
+    @Order(2)
+    void test_severeEventsWait() {
+        logger.info("test the events above the threshold are kept on a full queue");
+
+        long before = CountingDiscardingQueueFullPolicy.getDiscardedEvents();
+        long otherThread = Thread.currentThread().threadId() + 1;
+
+        assertEquals(EventRoute.ENQUEUE, policy.getRoute(otherThread, Level.INFO), "An INFO event should wait for a slot");
+        assertEquals(EventRoute.ENQUEUE, policy.getRoute(otherThread, Level.ERROR), "An ERROR event should wait for a slot");
+        // the background thread cannot wait for itself to free a slot
+        assertEquals(EventRoute.SYNCHRONOUS, policy.getRoute(Thread.currentThread().threadId(), Level.WARN),
+                "An event of the background thread should be written synchronously");
+
+        assertEquals(before, CountingDiscardingQueueFullPolicy.getDiscardedEvents(), "No event should be counted as dropped");
+    }
+
+    @Test
+    @Order(3)
+    void test_metricsWithoutAsyncLoggers() {
+        logger.info("test the ring buffer attributes when the async configuration is not active");
+
+        var metrics = new AsyncLoggingMetrics();
+
+        assertEquals(0L, metrics.getBufferSize(), "Buffer size should be 0 without the async loggers");
+        assertEquals(0L, metrics.getQueuedEvents(), "Queued events should be 0 without the async loggers");
+    }
+}
@@ -0,0 +1,86 @@
+package com.draghici.hub.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class SamplingFilterTest {
+
+    private final static Logger logger = LogManager.getLogger(SamplingFilterTest.class);
+
+    @Test
+    @Order(1)
+    void test_samplingRatio() {
+        logger.info("test one event out of 'oneIn' is kept among the marked ones");
+
+        var filter = SamplingFilter.createFilter(LogMarkers.API_REQUEST.getName(), 10);
+
+        int kept = 0;
+        for (int i = 0; i < 1000; i++) {
+            var result = filter.filter(null, Level.INFO, LogMarkers.API_REQUEST, "API Request: get all products");
+            assertNotEquals(Filter.Result.ACCEPT, result, "A kept event should go on to the next filters");
+            if (result == Filter.Result.NEUTRAL) {
+                kept++;
+            }
+        }
+        assertEquals(100, kept, "One event out of 10 should be kept");
+        assertEquals(Filter.Result.NEUTRAL, filter.filter(null, Level.INFO, LogMarkers.API_REQUEST, "API Request: get all products"),
+                "The first event of each round should be kept");
+        assertEquals(Filter.Result.DENY, filter.filter(null, Level.INFO, LogMarkers.API_REQUEST, "API Request: get all products"),
+                "The next ones should be dropped");
+    }
+
+    @Test
+    @Order(2)
+    void test_otherEvents() {
+        logger.info("test the events without the marker are never sampled");
+
+        var filter = SamplingFilter.createFilter(LogMarkers.API_REQUEST.getName(), 1000);
+        filter.filter(null, Level.INFO, LogMarkers.API_REQUEST, "API Request: get all products");
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Filter.Result.NEUTRAL, filter.filter(null, Level.INFO, null, "A product was added with id {}", i),
+                    "An event without a marker should not be sampled");
+            assertEquals(Filter.Result.NEUTRAL, filter.filter(null, Level.INFO, MarkerManager.getMarker("AUDIT"), "Product deleted"),
+                    "An event with another marker should not be sampled");
+        }
+        var event = Log4jLogEvent.newBuilder().setLevel(Level.INFO).setMessage(new SimpleMessage("Product updated")).build();
+        assertEquals(Filter.Result.NEUTRAL, filter.filter(event), "An event without a marker should not be sampled");
+    }
+
+    @Test
+    @Order(3)
+    void test_childMarker() {
+        logger.info("test a marker with the sampled marker as parent is sampled too");
+
+        var filter = SamplingFilter.createFilter(LogMarkers.API_REQUEST.getName(), 2);
+        var child = MarkerManager.getMarker("API_REQUEST_CHILD").setParents(LogMarkers.API_REQUEST);
+        var event = Log4jLogEvent.newBuilder().setLevel(Level.INFO).setMarker(child).setMessage(new SimpleMessage("API Request: search")).build();
+
+        assertEquals(Filter.Result.NEUTRAL, filter.filter(event), "The first event should be kept");
+        assertEquals(Filter.Result.DENY, filter.filter(event), "The second event should be dropped");
+        assertEquals(Filter.Result.NEUTRAL, filter.filter(event), "The third event should be kept");
+    }
+
+    @Test
+    @Order(4)
+    void test_configuration() {
+        logger.info("test the filter attributes");
+
+        assertNull(SamplingFilter.createFilter(null, 10), "A filter without a marker should not be created");
+
+        var keepAll = SamplingFilter.createFilter(LogMarkers.API_REQUEST.getName(), 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Filter.Result.NEUTRAL, keepAll.filter(null, Level.INFO, LogMarkers.API_REQUEST, "API Request: get all products"),
+                    "A ratio below 1 should keep every event");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.draghici.hub.persistence;
+
+import com.draghici.hub.dto.ProductChanges;
+import com.draghici.hub.services.ProductService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/* the delta sync of a catalogue restored at startup, on the whole application */
+@SpringBootTest(properties = {"hub.product.snapshot.enabled=true", "spring.datasource.url=jdbc:h2:mem:snapshot_changes"})
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductSnapshotChangesTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductSnapshotChangesTest.class);
+
+    private final static int PRODUCTS = 250;
+    private final static int PAGE_SIZE = 100;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /* the snapshot is written before the application starts and restores it */
+    @DynamicPropertySource
+    static void snapshot(DynamicPropertyRegistry registry) throws IOException {
+        var directory = Files.createTempDirectory("snapshot");
+        try (var writer = CatalogueSnapshot.writer(directory.resolve(ProductSnapshotStore.SNAPSHOT_FILE), 0)) {
+            for (long id = 1; id <= PRODUCTS; id++) {
+                writer.write(id, "Product " + id, id / 10.0, 0);
+            }
+            writer.complete();
+        }
+        registry.add("hub.product.snapshot.directory", directory::toString);
+    }
+
+    @Test
+    @Order(1)
+    void test_restoredChanges() {
+        logger.info("test a full sync pages through all the restored products");
+
+        var ids = sync();
+
+        assertEquals(PRODUCTS, ids.size(), "Every restored product should be sent");
+        assertEquals(PRODUCTS, ids.stream().distinct().count(), "Every restored product should be sent once");
+    }
+
+    @Test
+    @Order(2)
+    void test_sharedSequence() {
+        logger.info("test the products inserted without a modification sequence are paged through by id");
+
+        for (long id = PRODUCTS + 1; id <= PRODUCTS + 3; id++) {
+            jdbcTemplate.update("INSERT INTO P_PRODUCTS (id, name, price, version) VALUES (?, ?, 1.0, 0)", id, "Product " + id);
+        }
+
+        var first = productService.getChanges(null, 2);
+        var second = productService.getChanges(first.getNextToken(), 2);
+
+        assertEquals(List.of((long) PRODUCTS + 1, (long) PRODUCTS + 2), ids(first), "The rows of sequence 0 should come first, by id");
+        assertEquals(List.of((long) PRODUCTS + 3, 1L), ids(second), "The next page should continue within sequence 0");
+        assertEquals(PRODUCTS + 3, sync().size(), "Every product should be sent");
+    }
+
+    /* the ids of a full sync, page by page */
+    private List<Long> sync() {
+        List<Long> ids = new ArrayList<>();
+        ProductChanges page = null;
+        do {
+            page = productService.getChanges(page == null ? null : page.getNextToken(), PAGE_SIZE);
+            ids.addAll(ids(page));
+        } while (page.isMore());
+        return ids;
+    }
+
+    private static List<Long> ids(ProductChanges page) {
+        return page.getProducts().stream().map(product -> product.getId()).toList();
+    }
+}
@@ -0,0 +1,146 @@
+package com.draghici.hub.persistence;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.events.ProductChangedEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductSnapshotStoreTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductSnapshotStoreTest.class);
+
+    // every store gets a database of its own, as a restarted node
+    private final static AtomicInteger databases = new AtomicInteger();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @Order(1)
+    void test_snapshotAndRestore() throws IOException, InterruptedException {
+        logger.info("test snapshot() then restore() in an empty database");
+
+        var source = database();
+        for (long id = 1; id <= 2500; id++) {
+            source.update("INSERT INTO P_PRODUCTS (id, name, price, version) VALUES (?, ?, ?, ?)", id, "Product ü " + id, id / 100.0, id % 3);
+        }
+        var store = store(source);
+        store.start();
+        assertEquals(2500, store.snapshot().rows(), "Snapshot row count should match");
+        store.stop();
+
+        var target = database();
+        var restored = store(target).start();
+
+        assertEquals(2500, restored.products(), "Restored product count should match");
+        assertEquals(0, restored.changes(), "The shutdown snapshot should leave no change to replay");
+        assertEquals(rows(source), rows(target), "Restored rows should match");
+        assertEquals(Map.of("ROWS", 2500L, "FIRST", 1L, "LAST", 2500L),
+                target.queryForMap("SELECT COUNT(DISTINCT mod_seq) AS rows, MIN(mod_seq) AS first, MAX(mod_seq) AS last FROM P_PRODUCTS"),
+                "The restored rows should have a modification sequence each");
+        long next = target.queryForObject("SELECT NEXT VALUE FOR P_PRODUCTS_SEQ", Long.class);
+        assertTrue(next - 49 > 2500, "The new ids should come after the restored ones");
+    }
+
+    @Test
+    @Order(2)
+    void test_changeLogReplay() throws IOException {
+        logger.info("test restore() of the changes logged after the snapshot, up to a crash");
+
+        var source = database();
+        source.update("INSERT INTO P_PRODUCTS (id, name, price, version) VALUES (1, 'Apple', 1.5, 0), (2, 'Pear', 2.5, 4), (3, 'Plum', 3.5, 0)");
+        var store = store(source);
+        store.start();
+        store.snapshot();
+        store.onProductChanged(ProductChangedEvent.updated(2, "Green pear", 2.75, 5L, 1L));
+        store.onProductChanged(ProductChangedEvent.deleted(3, 2L));
+        store.onProductChanged(ProductChangedEvent.created(product(4, "Kiwi", 0.5)));
+        store.onProductChanged(ProductChangedEvent.updated(4, "Gold kiwi", 0.75, 1L, 4L));
+        store.onProductChanged(ProductChangedEvent.updated(1, "Apple", 1.25, 1L, 5L));
+        // a change logged twice, and a change the snapshot already holds, leave the versions as they are
+        store.onProductChanged(ProductChangedEvent.updated(2, "Green pear", 2.75, 5L, 1L));
+        store.onProductChanged(ProductChangedEvent.updated(2, "Pear", 2.5, 4L, 1L));
+
+        // the process dies while appending a record, without a last snapshot
+        try (var logs = Files.list(directory)) {
+            var log = logs.filter(file -> file.getFileName().toString().endsWith(".log")).max(Path::compareTo).orElseThrow();
+            Files.write(log, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+        }
+
+        var target = database();
+        var restored = store(target).restore();
+
+        assertEquals(7, restored.changes(), "The complete records should be replayed");
+        assertEquals(List.of(
+                Map.of("ID", 1L, "NAME", "Apple", "PRICE", 1.25, "VERSION", 1L),
+                Map.of("ID", 2L, "NAME", "Green pear", "PRICE", 2.75, "VERSION", 5L),
+                Map.of("ID", 4L, "NAME", "Gold kiwi", "PRICE", 0.75, "VERSION", 1L)), rows(target), "Restored rows should match");
+    }
+
+    @Test
+    @Order(3)
+    void test_restoreRejected() throws IOException {
+        logger.info("test restore() with a populated database and with a corrupted snapshot");
+
+        var source = database();
+        source.update("INSERT INTO P_PRODUCTS (id, name, price, version) VALUES (1, 'Apple', 1.5, 0)");
+        store(source).snapshot();
+
+        var populated = database();
+        populated.update("INSERT INTO P_PRODUCTS (id, name, price, version) VALUES (7, 'Melon', 4.0, 0)");
+        assertEquals(0, store(populated).restore().products(), "A populated database should be left as is");
+        assertEquals(1, rows(populated).size(), "Row count should match");
+
+        var snapshot = directory.resolve(ProductSnapshotStore.SNAPSHOT_FILE);
+        var bytes = Files.readAllBytes(snapshot);
+        bytes[CatalogueSnapshot.HEADER_SIZE + 9] ^= 1;
+        Files.write(snapshot, bytes);
+        var empty = database();
+        assertThrows(IOException.class, () -> store(empty).restore(), "A corrupted snapshot should not be restored");
+        assertEquals(0, rows(empty).size(), "Nothing should be inserted");
+    }
+
+    private ProductSnapshotStore store(JdbcTemplate jdbcTemplate) {
+        return new ProductSnapshotStore(jdbcTemplate, new DataSourceTransactionManager(jdbcTemplate.getDataSource()),
+                true, directory, Duration.ofHours(1));
+    }
+
+    /* the schema that hibernate creates for Product */
+    private static JdbcTemplate database() {
+        var dataSource = new DriverManagerDataSource("jdbc:h2:mem:snapshot_" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        var jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE SEQUENCE P_PRODUCTS_SEQ START WITH 1 INCREMENT BY 50");
+        jdbcTemplate.execute("CREATE TABLE P_PRODUCTS (id BIGINT PRIMARY KEY, name VARCHAR(255) NOT NULL, price DOUBLE NOT NULL, version BIGINT NOT NULL, mod_seq BIGINT DEFAULT 0 NOT NULL)");
+        return jdbcTemplate;
+    }
+
+    private static List<Map<String, Object>> rows(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.queryForList("SELECT id, name, price, version FROM P_PRODUCTS ORDER BY id");
+    }
+
+    private static Product product(long id, String name, double price) {
+        var product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setPrice(price);
+        product.setVersion(0L);
+        return product;
+    }
+}
@@ -0,0 +1,114 @@
+package com.draghici.hub.search;
+
+import com.draghici.hub.dto.ProductPrice;
+import com.draghici.hub.events.ProductChangedEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductPriceIndexTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductPriceIndexTest.class);
+
+    private ProductPriceIndex priceIndex;
+
+    @BeforeEach
+    void setup() {
+        // the repository is only used by build()
+        priceIndex = new ProductPriceIndex(null);
+        priceIndex.add(1L, 19.2, 0L);
+        priceIndex.add(2L, 7.09, 0L);
+        priceIndex.add(3L, 7.09, 0L);
+        priceIndex.add(4L, 120.0, 0L);
+    }
+
+    @Test
+    @Order(1)
+    void test_rangeCount() {
+        logger.info("test count() with inclusive bounds");
+
+        assertEquals(4, priceIndex.count(0.0, Double.MAX_VALUE), "Count should match");
+        assertEquals(2, priceIndex.count(7.09, 7.09), "Both bounds should be included");
+        assertEquals(3, priceIndex.count(7.09, 19.2), "Count should match");
+        assertEquals(0, priceIndex.count(20.0, 100.0), "An empty range should count 0");
+        assertEquals(0, priceIndex.count(30.0, 10.0), "An inverted range should count 0");
+    }
+
+    @Test
+    @Order(2)
+    void test_rangeAndTopK() {
+        logger.info("test range(), cheapest() and mostExpensive()");
+
+        assertEquals(List.of(new ProductPrice(2L, 7.09), new ProductPrice(3L, 7.09)), priceIndex.cheapest(2), "The cheapest should come first, then the lowest id");
+        assertEquals(List.of(new ProductPrice(4L, 120.0), new ProductPrice(1L, 19.2)), priceIndex.mostExpensive(2), "The most expensive should come first");
+        assertEquals(List.of(new ProductPrice(3L, 7.09), new ProductPrice(1L, 19.2)), priceIndex.range(7.09, 100.0, 10).subList(1, 3), "Products in the range should match");
+        assertEquals(3, priceIndex.range(7.09, 100.0, 10).size(), "The products above the range should be left out");
+        assertEquals(1, priceIndex.range(0.0, 100.0, 1).size(), "Only 'limit' products should be returned");
+        assertEquals(4, priceIndex.mostExpensive(10).size(), "All the products should be returned");
+    }
+
+    @Test
+    @Order(3)
+    void test_updateAndDelete() {
+        logger.info("test the index follows the product changes");
+
+        priceIndex.onProductChanged(ProductChangedEvent.updated(4L, "Product 4", 1.5, 1L, 1L));
+        priceIndex.onProductChanged(ProductChangedEvent.deleted(2L, 2L));
+        priceIndex.onProductChanged(ProductChangedEvent.deleted(99L, 3L));
+        // the events of the deleted products delivered after their deletion
+        priceIndex.onProductChanged(ProductChangedEvent.updated(2L, "Product 2", 3.0, 1L, 1L));
+        priceIndex.add(99L, 2.0, 0L);
+
+        assertEquals(3, priceIndex.size(), "Size should match");
+        assertEquals(List.of(new ProductPrice(4L, 1.5), new ProductPrice(3L, 7.09), new ProductPrice(1L, 19.2)), priceIndex.cheapest(10),
+                "The updated product should move to its new price");
+    }
+
+    @Test
+    @Order(4)
+    void test_outOfOrderUpdates() {
+        logger.info("test the index keeps the latest price when the update events come out of order");
+
+        priceIndex.onProductChanged(ProductChangedEvent.updated(1L, "Product 1", 25.0, 2L, 6L));
+        priceIndex.onProductChanged(ProductChangedEvent.updated(1L, "Product 1", 21.0, 1L, 5L));
+        // committed while build() read the table, the entry already has the version of the event
+        priceIndex.onProductChanged(ProductChangedEvent.updated(4L, "Product 4", 1.5, 0L, 7L));
+
+        assertEquals(List.of(new ProductPrice(4L, 120.0), new ProductPrice(1L, 25.0)), priceIndex.mostExpensive(2),
+                "An older update should be ignored");
+        assertEquals(1, priceIndex.count(25.0, 25.0), "The product should be indexed once");
+    }
+
+    @Test
+    @Order(5)
+    void test_manySegments() {
+        logger.info("test the index across many segments");
+
+        // 3 products per price, in a shuffled order so the segments split in the middle
+        for (long id = 100; id < 10_100; id++) {
+            priceIndex.add(id, (id * 7919 % 10_000) / 3 / 10.0, 0L);
+        }
+        for (long id = 100; id < 5_100; id++) {
+            priceIndex.remove(id);
+        }
+
+        assertEquals(5_004, priceIndex.size(), "Size should match");
+        var all = priceIndex.cheapest(10_000);
+        assertEquals(5_004, all.size(), "All the products should be returned");
+        for (int i = 1; i < all.size(); i++) {
+            var previous = all.get(i - 1);
+            var current = all.get(i);
+            assertTrue(previous.getPrice() < current.getPrice() || previous.getPrice() == current.getPrice() && previous.getId() < current.getId(),
+                    "Products should be sorted by price then id");
+        }
+        long between = all.stream().filter(price -> price.getPrice() >= 50.0 && price.getPrice() <= 150.0).count();
+        assertEquals(between, priceIndex.count(50.0, 150.0), "Count should match a scan");
+        assertEquals(all.stream().filter(price -> price.getPrice() >= 50.0).limit(20).toList(), priceIndex.range(50.0, 150.0, 20), "Range should match a scan");
+        assertEquals(all.get(all.size() - 1), priceIndex.mostExpensive(1).get(0), "Most expensive product should match");
+    }
+}
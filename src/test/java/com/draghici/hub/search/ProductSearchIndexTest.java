@@ -0,0 +1,121 @@
+package com.draghici.hub.search;
+
+import com.draghici.hub.dto.ProductSearchHit;
+import com.draghici.hub.events.ProductChangedEvent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductSearchIndexTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductSearchIndexTest.class);
+
+    private ProductSearchIndex searchIndex;
+
+    @BeforeEach
+    void setup() {
+        // the repository is only used by build()
+        searchIndex = new ProductSearchIndex(null);
+        searchIndex.add(1L, "Wireless Mouse", 0L);
+        searchIndex.add(2L, "Wireless Keyboard and Mouse Combo", 0L);
+        searchIndex.add(3L, "USB-C Charger", 0L);
+        searchIndex.add(4L, "Mouse Pad", 0L);
+    }
+
+    @Test
+    @Order(1)
+    void test_rankedSearch() {
+        logger.info("test search() ranks the best matches first");
+
+        List<ProductSearchHit> hits = searchIndex.search("mouse", 10);
+
+        assertEquals(List.of(4L, 1L, 2L), hits.stream().map(ProductSearchHit::getId).toList(), "The shortest full matches should come first");
+        assertEquals(1.0, hits.get(0).getScore(), "A full match should score 1");
+        assertEquals("Mouse Pad", hits.get(0).getName(), "Product name should match");
+    }
+
+    @Test
+    @Order(2)
+    void test_searchWithTypo() {
+        logger.info("test search() with a typo and a prefix being typed");
+
+        assertEquals(1L, searchIndex.search("wirelss mous", 10).get(0).getId(), "A typo should still match");
+        assertEquals(3L, searchIndex.search("usb c", 10).get(0).getId(), "The punctuation should be ignored");
+        assertEquals(List.of(3L), searchIndex.search("cha", 10).stream().map(ProductSearchHit::getId).toList(), "A word prefix should match");
+        assertTrue(searchIndex.search("tablet", 10).isEmpty(), "An unknown term should not match");
+        assertTrue(searchIndex.search("m", 10).isEmpty(), "A single letter is too short to search");
+    }
+
+    @Test
+    @Order(3)
+    void test_limit() {
+        logger.info("test search() keeps only the best 'limit' matches");
+
+        List<ProductSearchHit> hits = searchIndex.search("mouse", 2);
+
+        assertEquals(List.of(4L, 1L), hits.stream().map(ProductSearchHit::getId).toList(), "Only the best matches should be kept");
+    }
+
+    @Test
+    @Order(4)
+    void test_updateAndDelete() {
+        logger.info("test the index follows the product changes");
+
+        searchIndex.onProductChanged(ProductChangedEvent.updated(4L, "Desk Mat", 9.9, 1L, 1L));
+        searchIndex.onProductChanged(ProductChangedEvent.updated(3L, "USB-C Charger", 12.5, 1L, 2L));
+        searchIndex.onProductChanged(ProductChangedEvent.deleted(1L, 3L));
+
+        assertEquals(List.of(2L), searchIndex.search("mouse", 10).stream().map(ProductSearchHit::getId).toList(), "Renamed and deleted products should not match");
+        assertEquals(4L, searchIndex.search("desk", 10).get(0).getId(), "The new name should match");
+        assertEquals(3L, searchIndex.search("charger", 10).get(0).getId(), "An update keeping the name should still match");
+        assertEquals(3, searchIndex.size(), "Size should match");
+    }
+
+    @Test
+    @Order(5)
+    void test_outOfOrderEvents() {
+        logger.info("test the index keeps the latest name when the events come out of order");
+
+        searchIndex.onProductChanged(ProductChangedEvent.updated(4L, "Desk Mat", 9.9, 2L, 6L));
+        searchIndex.onProductChanged(ProductChangedEvent.updated(4L, "Mouse Mat", 9.9, 1L, 5L));
+        // a price change keeps the name, it still moves the version past the late rename
+        searchIndex.onProductChanged(ProductChangedEvent.updated(3L, null, 15.0, 2L, 7L));
+        searchIndex.onProductChanged(ProductChangedEvent.updated(3L, "Wall Charger", 12.5, 1L, 4L));
+
+        assertEquals(List.of(1L, 2L), searchIndex.search("mouse", 10).stream().map(ProductSearchHit::getId).toList(), "An older rename should be ignored");
+        assertEquals(3L, searchIndex.search("usb c", 10).get(0).getId(), "A rename older than a price change should be ignored");
+
+        // the events of a deleted product delivered after its deletion
+        searchIndex.onProductChanged(ProductChangedEvent.deleted(1L, 8L));
+        searchIndex.onProductChanged(ProductChangedEvent.updated(1L, "Wireless Mouse", 25.0, 1L, 3L));
+        searchIndex.add(9L, "Mouse Bungee", 0L);
+        searchIndex.remove(9L);
+        searchIndex.add(9L, "Mouse Bungee", 0L);
+
+        assertEquals(List.of(2L), searchIndex.search("mouse", 10).stream().map(ProductSearchHit::getId).toList(), "A deleted product should not be indexed again");
+        assertEquals(3, searchIndex.size(), "Size should match");
+    }
+
+    @Test
+    @Order(6)
+    void test_compaction() {
+        logger.info("test the deleted documents are compacted");
+
+        for (long id = 100; id < 5100; id++) {
+            searchIndex.add(id, "Gadget " + id, 0L);
+        }
+        for (long id = 100; id < 5000; id++) {
+            searchIndex.remove(id);
+        }
+
+        assertEquals(104, searchIndex.size(), "Size should match");
+        assertEquals(5099L, searchIndex.search("gadget 5099", 1).get(0).getId(), "A live product should still match");
+        assertEquals(4L, searchIndex.search("mouse", 1).get(0).getId(), "A product indexed before the compaction should still match");
+        assertTrue(searchIndex.search("gadget 4999", 1).stream().noneMatch(hit -> hit.getId() == 4999L), "A deleted product should not match");
+    }
+}
@@ -0,0 +1,211 @@
+package com.draghici.hub.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class AdmissionControlFilterTest {
+
+    private final static Logger logger = LogManager.getLogger(AdmissionControlFilterTest.class);
+
+    private final static long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private SimpleMeterRegistry meterRegistry;
+    private AdmissionControlFilter filter;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        // 1 request per second, a burst of 2 and 1 request at a time
+        var admissionControl = new AdmissionControl(meterRegistry, true, 1.0, 2, 1, null, 1, 100, Duration.ofMinutes(1));
+        filter = new AdmissionControlFilter(admissionControl, new ObjectMapper());
+        SecurityContextHolder.getContext().setAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated("user", null, AuthorityUtils.createAuthorityList("USER")));
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @Order(1)
+    void test_tokenBucket() {
+        logger.info("test the rate limit allows a burst, then one request per interval");
+
+        long now = 0;
+        var limiter = new AdmissionLimiter(10.0, 3, 10, 1, 0, now);
+
+        assertEquals(0, limiter.tryTake(now), "The burst should be allowed");
+        assertEquals(0, limiter.tryTake(now), "The burst should be allowed");
+        assertEquals(0, limiter.tryTake(now), "The burst should be allowed");
+        assertEquals(100 * MILLIS, limiter.tryTake(now), "The next token should come after one interval");
+        assertEquals(0, limiter.tryTake(now + 100 * MILLIS), "A token should be back after one interval");
+        assertTrue(limiter.tryTake(now + 100 * MILLIS) > 0, "Only one token should be back");
+        assertEquals(0, limiter.tryTake(now + 10_000 * MILLIS), "An idle limiter should be full again");
+    }
+
+    @Test
+    @Order(2)
+    void test_adaptiveConcurrency() {
+        logger.info("test the adaptive mode lowers the concurrency limit on slow requests and raises it back");
+
+        long now = 0;
+        long target = 100 * MILLIS;
+        var limiter = new AdmissionLimiter(1000.0, 10, 10, 2, target, now);
+
+        assertTrue(limiter.tryEnter(), "A slot should be free");
+        limiter.exit(now, 2 * target);
+        assertEquals(9, limiter.getConcurrencyLimit(), "A slow request should cut the limit");
+
+        assertTrue(limiter.tryEnter(), "A slot should be free");
+        limiter.exit(now + MILLIS, 2 * target);
+        assertEquals(9, limiter.getConcurrencyLimit(), "The slow requests of one burst should count once");
+
+        for (int i = 0; i < 20; i++) {
+            now += target;
+            assertTrue(limiter.tryEnter(), "A slot should be free");
+            limiter.exit(now, 2 * target);
+        }
+        assertEquals(2, limiter.getConcurrencyLimit(), "The limit should stop at the minimum");
+        assertTrue(limiter.tryEnter(), "A slot should be free");
+        assertTrue(limiter.tryEnter(), "A slot should be free");
+        assertFalse(limiter.tryEnter(), "The lowered limit should be enforced");
+
+        limiter.exit(now, MILLIS);
+        assertEquals(3, limiter.getConcurrencyLimit(), "A fast request of a full limiter should raise the limit");
+        limiter.exit(now, MILLIS);
+        assertEquals(3, limiter.getConcurrencyLimit(), "A limiter that is not full should keep its limit");
+    }
+
+    @Test
+    @Order(3)
+    void test_rejections() throws Exception {
+        logger.info("test the filter answers 429 with a Retry-After over the limits");
+
+        assertEquals(200, call("/api/product/all").getStatus(), "The burst should be allowed");
+        assertEquals(200, call("/api/product/all").getStatus(), "The burst should be allowed");
+
+        var limited = call("/api/product/all");
+        assertEquals(429, limited.getStatus(), "The rate limit should be enforced");
+        assertEquals("1", limited.getHeader("Retry-After"), "Retry-After should match");
+        assertTrue(limited.getContentAsString().contains("\"errorCode\":429"), "The error should be in the body");
+
+        assertEquals(200, call("/api/product/1").getStatus(), "Another endpoint should have its own limiter");
+        assertEquals(200, call("/actuator/health").getStatus(), "The paths out of the API should not be limited");
+
+        // a request in progress takes the only slot
+        var request = new MockHttpServletRequest("GET", "/api/product/2");
+        var nested = new MockHttpServletResponse[1];
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain() {
+            @Override
+            public void doFilter(jakarta.servlet.ServletRequest request, jakarta.servlet.ServletResponse response) {
+                try {
+                    nested[0] = call("/api/product/3");
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        assertEquals(429, nested[0].getStatus(), "The concurrency limit should be enforced");
+
+        assertEquals(1.0, meterRegistry.get("hub.admission.rejected").tag("reason", "rate").tag("endpoint", "GET /api/product/all").counter().count(), "Rejections should be counted");
+        assertEquals(1.0, meterRegistry.get("hub.admission.rejected").tag("reason", "concurrency").tag("endpoint", "GET /api/product/{id}").counter().count(), "Rejections should be counted");
+        assertEquals(2.0, meterRegistry.get("hub.admission.limiters").gauge().value(), "Limiter count should match");
+    }
+
+    @Test
+    @Order(4)
+    void test_endpoint() {
+        logger.info("test the ids of the paths share one endpoint");
+
+        assertEquals("GET /api/product/{id}", AdmissionControlFilter.endpoint(new MockHttpServletRequest("GET", "/api/product/42")), "Endpoint should match");
+        assertEquals("PATCH /api/product/{id}", AdmissionControlFilter.endpoint(new MockHttpServletRequest("PATCH", "/api/product/7")), "Endpoint should match");
+        assertEquals("GET /api/product/price/range", AdmissionControlFilter.endpoint(new MockHttpServletRequest("GET", "/api/product/price/range")), "Endpoint should match");
+        assertEquals("GET /api/product/all", AdmissionControlFilter.endpoint(new MockHttpServletRequest("GET", "/api/product/%61ll")), "The path should be decoded");
+    }
+
+    @Test
+    @Order(5)
+    void test_evictionInFlight() throws InterruptedException {
+        logger.info("test a limiter evicted with a request in flight is kept until the request completes");
+
+        // 1 request at a time, and every limiter idle after 50 ms
+        var admissionControl = new AdmissionControl(meterRegistry, true, 1000.0, 10, 1, null, 1, 100, Duration.ofMillis(50));
+        var limiter = admissionControl.limiter("user", "GET /api/product/{id}");
+        assertTrue(limiter.tryEnter(), "A slot should be free");
+        Thread.sleep(100);
+
+        assertSame(limiter, admissionControl.limiter("user", "GET /api/product/{id}"), "A limiter with a request in flight should be kept");
+        assertFalse(admissionControl.limiter("user", "GET /api/product/{id}").tryEnter(), "The concurrency limit should still be enforced");
+
+        limiter.exit();
+        Thread.sleep(100);
+        assertNotSame(limiter, admissionControl.limiter("user", "GET /api/product/{id}"), "An idle limiter should be dropped");
+    }
+
+    @Test
+    @Order(6)
+    void test_asyncRequest() throws Exception {
+        logger.info("test an async request gives its slot back when it completes, without a latency sample");
+
+        // every request is slower than the target latency
+        var admissionControl = new AdmissionControl(meterRegistry, true, 1000.0, 10, 10, Duration.ofNanos(1), 2, 100, Duration.ofMinutes(1));
+        var adaptive = new AdmissionControlFilter(admissionControl, new ObjectMapper());
+        var limiter = admissionControl.limiter("user", "GET /api/product/events");
+
+        var request = new MockHttpServletRequest("GET", "/api/product/events");
+        request.setAsyncSupported(true);
+        adaptive.doFilter(request, new MockHttpServletResponse(), new MockFilterChain() {
+            @Override
+            public void doFilter(jakarta.servlet.ServletRequest request, jakarta.servlet.ServletResponse response) {
+                request.startAsync();
+            }
+        });
+        assertEquals(1, limiter.getInFlight(), "The slot should be kept while the response is streamed");
+
+        request.getAsyncContext().complete();
+        assertEquals(0, limiter.getInFlight(), "The slot should be given back once the response completes");
+        assertEquals(10, limiter.getConcurrencyLimit(), "An async request should not adapt the limit");
+
+        adaptive.doFilter(new MockHttpServletRequest("GET", "/api/product/events"), new MockHttpServletResponse(), new MockFilterChain());
+        assertEquals(9, limiter.getConcurrencyLimit(), "A slow request should cut the limit");
+    }
+
+    @Test
+    @Order(7)
+    void test_rejectionMeters() {
+        logger.info("test the rejection meters are capped whatever the endpoints requested");
+
+        var admissionControl = new AdmissionControl(meterRegistry, true, 1.0, 1, 1, null, 1, 100, Duration.ofMinutes(1));
+        for (int i = 0; i < AdmissionControl.MAX_REJECTION_METERS + 50; i++) {
+            admissionControl.rejected("GET /api/unknown" + (char) ('a' + i % 26) + i / 26, AdmissionControl.RATE);
+        }
+
+        assertEquals(AdmissionControl.MAX_REJECTION_METERS + 1, meterRegistry.find("hub.admission.rejected").counters().size(), "Meter count should match");
+        assertEquals(50.0, meterRegistry.get("hub.admission.rejected").tag("endpoint", AdmissionControl.OTHER_ENDPOINT).counter().count(),
+                "The rejections past the cap should be counted together");
+    }
+
+    private MockHttpServletResponse call(String path) throws Exception {
+        var response = new MockHttpServletResponse();
+        response.setStatus(HttpServletResponse.SC_OK);
+        filter.doFilter(new MockHttpServletRequest("GET", path), response, new MockFilterChain());
+        return response;
+    }
+}
@@ -0,0 +1,147 @@
+package com.draghici.hub.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class CachingAuthenticationProviderTest {
+
+    private final static Logger logger = LogManager.getLogger(CachingAuthenticationProviderTest.class);
+
+    private PasswordEncoder passwordEncoder;
+    private CredentialCache credentialCache;
+    private CredentialCachingUserDetailsManager userDetailsManager;
+    private CachingAuthenticationProvider authenticationProvider;
+
+    @BeforeEach
+    void setup() {
+        // a plain text encoder spied to count the expensive verifications
+        passwordEncoder = spy(new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                return rawPassword.toString().equals(encodedPassword);
+            }
+        });
+
+        credentialCache = new CredentialCache(Duration.ofMinutes(1), 100);
+        userDetailsManager = new CredentialCachingUserDetailsManager(credentialCache);
+        userDetailsManager.createUser(User.withUsername("admin").password("admin").authorities("ADMIN").build());
+
+        var daoProvider = new DaoAuthenticationProvider(passwordEncoder);
+        daoProvider.setUserDetailsService(userDetailsManager);
+        authenticationProvider = new CachingAuthenticationProvider(daoProvider, credentialCache);
+    }
+
+    @Test
+    @Order(1)
+    void test_cachedVerification() {
+        logger.info("test authenticate() twice with the same credentials");
+
+        Authentication first = authenticationProvider.authenticate(token("admin", "admin"));
+        Authentication second = authenticationProvider.authenticate(token("admin", "admin"));
+
+        assertTrue(first.isAuthenticated(), "User should be authenticated");
+        assertTrue(second.isAuthenticated(), "User should be authenticated");
+        assertEquals(first.getPrincipal(), second.getPrincipal(), "Principal should match");
+        assertEquals(first.getAuthorities(), second.getAuthorities(), "Authorities should match");
+        verify(passwordEncoder, times(1)).matches(any(), anyString());
+
+        // the manager sets the details of each request on the token it gets back
+        var third = authenticationProvider.authenticate(token("admin", "admin"));
+        ((UsernamePasswordAuthenticationToken) second).setDetails("second request");
+        assertNotSame(second, third, "Each request should get a token of its own");
+        assertNull(third.getDetails(), "The details of another request should not be shared");
+    }
+
+    @Test
+    @Order(2)
+    void test_wrongPasswordNotCached() {
+        logger.info("test authenticate() with a wrong password after a cached verification");
+
+        authenticationProvider.authenticate(token("admin", "admin"));
+
+        assertThrows(BadCredentialsException.class, () -> authenticationProvider.authenticate(token("admin", "wrong")));
+        assertThrows(BadCredentialsException.class, () -> authenticationProvider.authenticate(token("admin", "wrong")));
+        verify(passwordEncoder, times(3)).matches(any(), anyString());
+    }
+
+    @Test
+    @Order(3)
+    void test_evictOnUserChange() {
+        logger.info("test authenticate() after the user password was changed");
+
+        authenticationProvider.authenticate(token("admin", "admin"));
+        userDetailsManager.updateUser(User.withUsername("admin").password("secret").authorities("ADMIN").build());
+
+        assertThrows(BadCredentialsException.class, () -> authenticationProvider.authenticate(token("admin", "admin")));
+        assertTrue(authenticationProvider.authenticate(token("admin", "secret")).isAuthenticated(), "New password should work");
+    }
+
+    @Test
+    @Order(4)
+    void test_evictOnUserDelete() {
+        logger.info("test authenticate() after the user was deleted");
+
+        authenticationProvider.authenticate(token("admin", "admin"));
+        userDetailsManager.deleteUser("admin");
+
+        assertThrows(BadCredentialsException.class, () -> authenticationProvider.authenticate(token("admin", "admin")));
+    }
+
+    @Test
+    @Order(5)
+    void test_evictDuringVerification() {
+        logger.info("test a verification in flight while the user is changed is not cached");
+
+        // the password changes while the old one is being verified
+        long generation = credentialCache.generation("admin");
+        var result = authenticationProvider.authenticate(token("admin", "admin"));
+        userDetailsManager.updateUser(User.withUsername("admin").password("secret").authorities("ADMIN").build());
+        credentialCache.put("admin", "admin", result, generation);
+
+        assertNull(credentialCache.get("admin", "admin"), "A verification older than the change should not be cached");
+        assertThrows(BadCredentialsException.class, () -> authenticationProvider.authenticate(token("admin", "admin")));
+    }
+
+    @Test
+    @Order(6)
+    void test_timedVerification() {
+        logger.info("test the password verifications are timed, the cached ones are not");
+
+        var meterRegistry = new SimpleMeterRegistry();
+        var daoProvider = new DaoAuthenticationProvider(new TimedPasswordEncoder(passwordEncoder, meterRegistry));
+        daoProvider.setUserDetailsService(userDetailsManager);
+        var timedProvider = new CachingAuthenticationProvider(daoProvider, new CredentialCache(Duration.ofMinutes(1), 100));
+
+        timedProvider.authenticate(token("admin", "admin"));
+        timedProvider.authenticate(token("admin", "admin"));
+        assertThrows(BadCredentialsException.class, () -> timedProvider.authenticate(token("admin", "wrong")));
+
+        assertEquals(1, meterRegistry.get(TimedPasswordEncoder.VERIFICATION_TIMER).tag("result", "match").timer().count(), "Successful verifications should match");
+        assertEquals(1, meterRegistry.get(TimedPasswordEncoder.VERIFICATION_TIMER).tag("result", "mismatch").timer().count(), "Failed verifications should match");
+    }
+
+    private static UsernamePasswordAuthenticationToken token(String username, String password) {
+        return UsernamePasswordAuthenticationToken.unauthenticated(username, password);
+    }
+}
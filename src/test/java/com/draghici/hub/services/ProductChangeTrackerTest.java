@@ -0,0 +1,96 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductChangeTrackerTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductChangeTrackerTest.class);
+
+    private ProductTombstoneRepository tombstoneRepository;
+
+    private ProductChangeTracker changeTracker;
+
+    @BeforeEach
+    void setup() {
+        tombstoneRepository = mock(ProductTombstoneRepository.class);
+        changeTracker = new ProductChangeTracker(mock(ProductRepository.class), tombstoneRepository, Duration.ofDays(7), Duration.ofHours(1));
+    }
+
+    @Test
+    @Order(1)
+    void test_watermark() {
+        logger.info("test the watermark stays below the writes in flight");
+
+        long first = changeTracker.begin(1);
+        long batch = changeTracker.begin(3);
+        long last = changeTracker.begin(1);
+        assertEquals(1L, first, "Sequence should match");
+        assertEquals(2L, batch, "Sequence should match");
+        assertEquals(5L, last, "A batch should take consecutive numbers");
+        assertEquals(0L, changeTracker.watermark(), "Nothing is committed yet");
+
+        changeTracker.end(batch);
+        changeTracker.end(last);
+        assertEquals(0L, changeTracker.watermark(), "The first write is still in flight");
+
+        changeTracker.end(first);
+        assertEquals(5L, changeTracker.watermark(), "All the writes are committed");
+
+        // without a transaction the number is released right away
+        assertEquals(6L, changeTracker.next(1), "Sequence should match");
+        assertEquals(6L, changeTracker.watermark(), "The write is committed");
+    }
+
+    @Test
+    @Order(2)
+    void test_tokens() {
+        logger.info("test the change tokens are parsed and checked");
+
+        changeTracker.next(3);
+        var token = changeTracker.token(ProductChangeTracker.Cursor.after(2));
+        var withinSequence = changeTracker.token(new ProductChangeTracker.Cursor(2, 42));
+
+        assertEquals(ProductChangeTracker.Cursor.after(2), changeTracker.parseToken(token), "Cursor should match");
+        assertEquals(new ProductChangeTracker.Cursor(2, 42), changeTracker.parseToken(withinSequence), "Cursor should match");
+        assertEquals(ProductChangeTracker.Cursor.START, changeTracker.parseToken(null), "Without a token, everything should be read");
+
+        var otherRun = assertThrows(ProductException.class, () -> changeTracker.parseToken("1." + 2));
+        assertEquals(410, otherRun.getErrorCode(), "A token of another run should expire");
+        var malformed = assertThrows(ProductException.class, () -> changeTracker.parseToken("abc"));
+        assertEquals(422, malformed.getErrorCode(), "A malformed token should be rejected");
+        var malformedId = assertThrows(ProductException.class, () -> changeTracker.parseToken(token + ".x"));
+        assertEquals(422, malformedId.getErrorCode(), "A malformed token should be rejected");
+        var future = assertThrows(ProductException.class, () -> changeTracker.parseToken(changeTracker.token(ProductChangeTracker.Cursor.after(4))));
+        assertEquals(422, future.getErrorCode(), "A token after the watermark should be rejected");
+    }
+
+    @Test
+    @Order(3)
+    void test_compaction() {
+        logger.info("test the compaction expires the older tokens");
+
+        changeTracker.next(10);
+        when(tombstoneRepository.getLastModSeqBefore(any())).thenReturn(6L);
+
+        changeTracker.compact();
+
+        verify(tombstoneRepository).deleteTombstonesThrough(6L);
+        var expired = assertThrows(ProductException.class, () -> changeTracker.parseToken(changeTracker.token(ProductChangeTracker.Cursor.after(5))));
+        assertEquals(410, expired.getErrorCode(), "A token older than the compacted tombstones should expire");
+        assertEquals(6L, changeTracker.parseToken(changeTracker.token(ProductChangeTracker.Cursor.after(6))).sequence(), "Sequence should match");
+    }
+}
@@ -0,0 +1,227 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductGroupCommitTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductGroupCommitTest.class);
+
+    private ProductRepository productRepository;
+    private PlatformTransactionManager transactionManager;
+    private SimpleMeterRegistry meterRegistry;
+    private ProductGroupCommit groupCommit;
+    private Duration commitTimeout;
+    // the products passed to the commit callback
+    private List<Product> announced;
+
+    // the ids are generated on save
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    @BeforeEach
+    void setup() {
+        productRepository = mock(ProductRepository.class);
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(productRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Product> products = invocation.getArgument(0);
+            products.forEach(product -> product.setId(nextId.getAndIncrement()));
+            return new ArrayList<>(products);
+        });
+        meterRegistry = new SimpleMeterRegistry();
+        commitTimeout = Duration.ofSeconds(5);
+        announced = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        groupCommit.stop();
+    }
+
+    @Test
+    @Order(1)
+    void test_concurrentSavesShareACommit() throws Exception {
+        logger.info("test save() from concurrent callers is committed in batches");
+
+        groupCommit = groupCommit(8, Duration.ofMillis(50), 100);
+
+        List<Future<Product>> saved = new ArrayList<>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; i++) {
+                var product = product("Product " + i);
+                saved.add(executor.submit(() -> save(product)));
+            }
+        }
+
+        for (var future : saved) {
+            assertNotNull(future.get().getId(), "Every caller should get its id");
+        }
+        assertEquals(20, saved.stream().map(future -> future.resultNow().getId()).distinct().count(), "The ids should be distinct");
+        assertEquals(20, saved.stream().map(future -> future.resultNow().getModSeq()).distinct().count(), "The modification sequences should be distinct");
+        assertEquals(20, announced.size(), "Every committed product should be announced");
+        var batchSizes = meterRegistry.get("hub.product.group.commit.batch.size").summary();
+        assertEquals(20, batchSizes.totalAmount(), "All the products should be committed");
+        assertTrue(batchSizes.count() < 20, "The products should be committed in batches");
+        assertTrue(batchSizes.max() <= 8, "A batch should not exceed the max batch size");
+        verify(transactionManager, times((int) batchSizes.count())).commit(any());
+    }
+
+    @Test
+    @Order(2)
+    void test_failedBatchCommittedOneByOne() {
+        logger.info("test save() when the batch insert fails");
+
+        when(productRepository.saveAll(anyList())).thenThrow(new IllegalStateException("Batch insert failed"));
+        when(productRepository.save(any(Product.class))).thenAnswer(invocation -> {
+            Product product = invocation.getArgument(0);
+            product.setId(nextId.getAndIncrement());
+            return product;
+        });
+        groupCommit = groupCommit(8, Duration.ofMillis(1), 100);
+
+        Product result = save(product("Product A"));
+
+        assertNotNull(result.getId(), "The product should be saved alone");
+        verify(productRepository).save(any(Product.class));
+    }
+
+    @Test
+    @Order(3)
+    void test_backpressure() throws Exception {
+        logger.info("test save() when the queue is full");
+
+        // the writer is blocked in its first batch, so the queue of 1 product fills up
+        var insertStarted = new CountDownLatch(1);
+        var releaseInsert = new CountDownLatch(1);
+        when(productRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            insertStarted.countDown();
+            releaseInsert.await();
+            List<Product> products = invocation.getArgument(0);
+            products.forEach(product -> product.setId(nextId.getAndIncrement()));
+            return new ArrayList<>(products);
+        });
+        groupCommit = groupCommit(1, Duration.ofMillis(1), 1);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var first = executor.submit(() -> save(product("Product A")));
+            assertTrue(insertStarted.await(5, TimeUnit.SECONDS), "The first batch should be inserted");
+            var second = executor.submit(() -> save(product("Product B")));
+            while (meterRegistry.get("hub.product.group.commit.queue").gauge().value() < 1) {
+                Thread.onSpinWait();
+            }
+
+            ProductException exception = assertThrows(ProductException.class, () -> save(product("Product C")));
+            assertEquals(503, exception.getErrorCode(), "Error code should match");
+            assertEquals(1, meterRegistry.get("hub.product.group.commit.rejected").counter().count(), "Rejected count should match");
+
+            releaseInsert.countDown();
+            assertNotNull(first.get().getId(), "The first product should be saved");
+            assertNotNull(second.get().getId(), "The queued product should be saved");
+        }
+    }
+
+    @Test
+    @Order(4)
+    void test_commitTimeout() throws Exception {
+        logger.info("test save() when the commit takes longer than the commit timeout");
+
+        var insertStarted = new CountDownLatch(1);
+        var releaseInsert = new CountDownLatch(1);
+        when(productRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            insertStarted.countDown();
+            releaseInsert.await();
+            List<Product> products = invocation.getArgument(0);
+            products.forEach(product -> product.setId(nextId.getAndIncrement()));
+            return new ArrayList<>(products);
+        });
+        commitTimeout = Duration.ofMillis(50);
+        groupCommit = groupCommit(1, Duration.ofMillis(1), 10);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var first = executor.submit(() -> save(product("Product A")));
+            assertTrue(insertStarted.await(5, TimeUnit.SECONDS), "The first batch should be inserted");
+
+            ProductException exception = assertThrows(ProductException.class, () -> save(product("Product B")));
+            assertEquals(503, exception.getErrorCode(), "Error code should match");
+
+            // the product in the transaction was claimed by the writer, its caller waits for the commit
+            releaseInsert.countDown();
+            var saved = first.get();
+            assertNotNull(saved.getId(), "The claimed product should be saved past its timeout");
+            assertEquals(List.of(saved), announced, "Only the committed product should be announced");
+        }
+        groupCommit.stop();
+        // the product of the second caller was skipped once it timed out
+        verify(productRepository, times(1)).saveAll(anyList());
+    }
+
+    @Test
+    @Order(5)
+    void test_writerError() throws Exception {
+        logger.info("test save() when the writer dies of an Error");
+
+        when(productRepository.saveAll(anyList())).thenThrow(new OutOfMemoryError("Writer died"));
+        groupCommit = groupCommit(8, Duration.ofMillis(1), 100);
+
+        ProductException exception = assertThrows(ProductException.class, () -> save(product("Product A")));
+        assertEquals(503, exception.getErrorCode(), "The product of the failed batch should fail");
+
+        exception = assertThrows(ProductException.class, () -> save(product("Product B")));
+        assertEquals(503, exception.getErrorCode(), "A product saved after the writer died should be rejected");
+    }
+
+    @Test
+    @Order(6)
+    void test_saveAfterStop() throws Exception {
+        logger.info("test save() after stop() is rejected");
+
+        groupCommit = groupCommit(8, Duration.ofMillis(1), 100);
+        groupCommit.stop();
+
+        ProductException exception = assertThrows(ProductException.class, () -> save(product("Product A")));
+        assertEquals(503, exception.getErrorCode(), "Error code should match");
+        assertEquals(1, meterRegistry.get("hub.product.group.commit.rejected").counter().count(), "Rejected count should match");
+    }
+
+    private Product save(Product product) {
+        return groupCommit.save(product, announced::add);
+    }
+
+    private ProductGroupCommit groupCommit(int maxBatchSize, Duration maxDelay, int queueCapacity) {
+        var changeTracker = new ProductChangeTracker(productRepository, mock(ProductTombstoneRepository.class), Duration.ofDays(7), Duration.ofHours(1));
+        return new ProductGroupCommit(productRepository, mock(EntityManager.class), changeTracker, transactionManager, meterRegistry,
+                true, maxBatchSize, maxDelay, queueCapacity, Duration.ofMillis(10), commitTimeout);
+    }
+
+    private static Product product(String name) {
+        var product = new Product();
+        product.setName(name);
+        product.setPrice(1.0);
+        return product;
+    }
+}
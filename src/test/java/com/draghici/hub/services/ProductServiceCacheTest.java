@@ -0,0 +1,216 @@
+package com.draghici.hub.services;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.config.CacheConfig;
+import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductRowView;
+import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import com.draghici.hub.search.ProductPriceIndex;
+import com.draghici.hub.search.ProductSearchIndex;
+import com.draghici.hub.store.ProductColumnStore;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.persistence.EntityManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/* the cache annotations of ProductServiceImpl, through the caching proxy. ProductServiceTest calls the class directly */
+@SpringJUnitConfig(ProductServiceCacheTest.CachingConfig.class)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductServiceCacheTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductServiceCacheTest.class);
+
+    @Configuration
+    @EnableCaching
+    static class CachingConfig {
+
+        @Bean
+        ProductRepository productRepository() {
+            return mock(ProductRepository.class);
+        }
+
+        @Bean
+        CacheManager cacheManager() {
+            var cacheManager = new CaffeineCacheManager(CacheConfig.PRODUCTS_CACHE);
+            cacheManager.setCacheSpecification("maximumSize=10000,expireAfterWrite=10m,recordStats");
+            return cacheManager;
+        }
+
+        @Bean
+        ProductService productService(ProductRepository productRepository) {
+            return new ProductServiceImpl(productRepository, mock(EntityManager.class), mock(ApplicationEventPublisher.class),
+                    mock(ProductSearchIndex.class), mock(ProductPriceIndex.class), mock(ProductGroupCommit.class),
+                    mock(ProductColumnStore.class), mock(ProductTombstoneRepository.class), mock(ProductChangeTracker.class));
+        }
+    }
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    private Product product;
+
+    @BeforeEach
+    void setup() {
+        reset(productRepository);
+        cacheManager.getCache(CacheConfig.PRODUCTS_CACHE).clear();
+
+        product = new Product();
+        product.setId(1L);
+        product.setName("Product A test");
+        product.setPrice(19.2);
+        product.setVersion(0L);
+    }
+
+    @Test
+    @Order(1)
+    void test_readThrough() {
+        logger.info("test getById() reads the database once, then the cache");
+
+        when(productRepository.getProductById(1L)).thenReturn(Optional.of(product));
+        long hits = stats().hitCount();
+        long misses = stats().missCount();
+
+        assertEquals("Product A test", productService.getById(1L).getName(), "Product name should match");
+        assertEquals("Product A test", productService.getById(1L).getName(), "Product name should match");
+
+        verify(productRepository, times(1)).getProductById(1L);
+        assertEquals(hits + 1, stats().hitCount(), "The second read should be a hit");
+        assertEquals(misses + 1, stats().missCount(), "The first read should be a miss");
+    }
+
+    @Test
+    @Order(2)
+    void test_missingIsNotCached() {
+        logger.info("test a missing product is not cached");
+
+        when(productRepository.getProductById(2L)).thenReturn(Optional.empty());
+
+        assertThrows(ProductException.class, () -> productService.getById(2L));
+        assertThrows(ProductException.class, () -> productService.getById(2L));
+
+        verify(productRepository, times(2)).getProductById(2L);
+    }
+
+    @Test
+    @Order(3)
+    void test_putOnUpdate() {
+        logger.info("test update() refreshes the cached product");
+
+        when(productRepository.getProductById(1L)).thenReturn(Optional.of(product));
+        productService.getById(1L);
+
+        var updated = new Product();
+        updated.setId(1L);
+        updated.setName("Product A");
+        updated.setPrice(87.2);
+        updated.setVersion(1L);
+        when(productRepository.updateProductById(eq(1L), eq("Product A"), eq(87.2), isNull(), anyLong())).thenReturn(1);
+        when(productRepository.getRowById(1L)).thenReturn(row(1L, "Product A", 87.2, 1L));
+        when(productRepository.getProductById(1L)).thenReturn(Optional.of(updated));
+
+        productService.update(1L, ProductDTO.builder().name("Product A").price(87.2).build());
+        var result = productService.getById(1L);
+
+        assertEquals(87.2, result.getPrice(), "The cache should hold the updated price");
+        assertEquals(1L, result.getVersion(), "The cache should hold the updated version");
+        // the first read and the read back of update(), the last read is a hit
+        verify(productRepository, times(2)).getProductById(1L);
+    }
+
+    @Test
+    @Order(4)
+    void test_evictOnUpdateInPlace() {
+        logger.info("test updateInPlace() evicts the cached product");
+
+        when(productRepository.getProductById(1L)).thenReturn(Optional.of(product));
+        productService.getById(1L);
+        when(productRepository.updateProductById(eq(1L), isNull(), eq(87.2), eq(0L), anyLong())).thenReturn(1);
+        when(productRepository.getRowById(1L)).thenReturn(row(1L, "Product A test", 87.2, 1L));
+
+        productService.updateInPlace(1L, ProductDTO.builder().price(87.2).build(), 0L);
+
+        assertNull(cacheManager.getCache(CacheConfig.PRODUCTS_CACHE).get(1L), "The product should be evicted");
+    }
+
+    @Test
+    @Order(5)
+    void test_evictOnDelete() {
+        logger.info("test getById() after delete() does not return the deleted product");
+
+        when(productRepository.getProductById(1L)).thenReturn(Optional.of(product));
+        productService.getById(1L);
+        when(productRepository.deleteProductById(1L)).thenReturn(1);
+
+        productService.delete(1L);
+        when(productRepository.getProductById(1L)).thenReturn(Optional.empty());
+
+        var exception = assertThrows(ProductException.class, () -> productService.getById(1L));
+        assertEquals(404, exception.getErrorCode(), "The deleted product should not be found");
+        verify(productRepository, times(2)).getProductById(1L);
+    }
+
+    @Test
+    @Order(6)
+    void test_failedDeleteKeepsEntry() {
+        logger.info("test a failed delete() leaves the cached product in place");
+
+        when(productRepository.getProductById(1L)).thenReturn(Optional.of(product));
+        productService.getById(1L);
+        when(productRepository.deleteProductById(1L)).thenReturn(0);
+
+        assertThrows(ProductException.class, () -> productService.delete(1L));
+
+        assertNotNull(cacheManager.getCache(CacheConfig.PRODUCTS_CACHE).get(1L), "A failed delete should not evict");
+    }
+
+    private CacheStats stats() {
+        return ((CaffeineCache) cacheManager.getCache(CacheConfig.PRODUCTS_CACHE)).getNativeCache().stats();
+    }
+
+    private static ProductRowView row(long id, String name, double price, long version) {
+        return new ProductRowView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public double getPrice() {
+                return price;
+            }
+
+            @Override
+            public Long getVersion() {
+                return version;
+            }
+        };
+    }
+}
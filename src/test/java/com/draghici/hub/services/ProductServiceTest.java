@@ -1,23 +1,54 @@
 package com.draghici.hub.services;
 
 import com.draghici.hub.beans.Product;
+import com.draghici.hub.beans.ProductTombstone;
+import com.draghici.hub.dto.ProductBatchResult;
+import com.draghici.hub.dto.ProductChanges;
 import com.draghici.hub.dto.ProductDTO;
+import com.draghici.hub.dto.ProductLookupFailure;
+import com.draghici.hub.dto.ProductLookupResult;
+import com.draghici.hub.dto.ProductPage;
+import com.draghici.hub.dto.ProductPrice;
+import com.draghici.hub.dto.ProductRowView;
+import com.draghici.hub.dto.ProductSearchHit;
 import com.draghici.hub.exceptions.ProductException;
+import com.draghici.hub.events.ProductChangedEvent;
 import com.draghici.hub.repositories.ProductRepository;
+import com.draghici.hub.repositories.ProductTombstoneRepository;
+import com.draghici.hub.search.ProductPriceIndex;
+import com.draghici.hub.search.ProductSearchIndex;
+import com.draghici.hub.store.ProductColumnStore;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import jakarta.persistence.EntityManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.*;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -30,6 +61,31 @@ public class ProductServiceTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private ProductSearchIndex searchIndex;
+
+    @Mock
+    private ProductPriceIndex priceIndex;
+
+    @Mock
+    private ProductGroupCommit groupCommit;
+
+    @Mock
+    private ProductColumnStore columnStore;
+
+    @Mock
+    private ProductTombstoneRepository tombstoneRepository;
+
+    // every write gets the modification sequence 0
+    @Mock
+    private ProductChangeTracker changeTracker;
+
     @InjectMocks
     private ProductServiceImpl productService;
 
@@ -44,11 +100,13 @@ public class ProductServiceTest {
         productA.setId(1L);
         productA.setName("Product A test");
         productA.setPrice(19.2);
+        productA.setVersion(0L);
 
         productB = new Product();
         productB.setId(2L);
         productB.setName("Product B test");
         productB.setPrice(7.09);
+        productB.setVersion(0L);
 
         productRepository.saveAll(List.of(productA, productB));
     }
@@ -123,6 +181,7 @@ public class ProductServiceTest {
         product.setId(4L);
         product.setName("Product C test");
         product.setPrice(87.2);
+        product.setVersion(0L);
 
         when(productRepository.save(any(Product.class))).thenReturn(product);
 
@@ -179,8 +238,9 @@ public class ProductServiceTest {
         product.setPrice(87.2);
         Long targetID = productA.getId();
 
+        when(productRepository.updateProductById(targetID, productA.getName(), 87.2, null, 0L)).thenReturn(1);
+        when(productRepository.getRowById(targetID)).thenReturn(row(targetID, productA.getName(), 87.2, 1L));
         when(productRepository.getProductById(targetID)).thenReturn(Optional.of(product));
-        when(productRepository.save(any(Product.class))).thenReturn(product);
 
         Product expectedResult = productService.update(targetID, productDTO);
 
@@ -208,7 +268,7 @@ public class ProductServiceTest {
         ProductDTO productDTO = ProductDTO.builder().name(productA.getName()).price(productA.getPrice()).build();
         Long targetID = 455689L;
 
-        when(productRepository.getProductById(targetID)).thenReturn(Optional.empty());
+        when(productRepository.updateProductById(targetID, productA.getName(), productA.getPrice(), null, 0L)).thenReturn(0);
 
         ProductException exception = assertThrows(ProductException.class, () -> productService.update(targetID, productDTO));
 
@@ -245,13 +305,15 @@ public class ProductServiceTest {
         logger.info("test delete() for a product");
 
         Long targetID = 1L;
-        when(productRepository.getProductById(targetID)).thenReturn(Optional.ofNullable(productA));
+        when(productRepository.deleteProductById(targetID)).thenReturn(1);
 
         //act
         productService.delete(targetID);
 
-        //verify the deletion
-        verify(productRepository).delete(productA);
+        //verify the deletion, in a single statement, and its tombstone
+        verify(productRepository).deleteProductById(targetID);
+        verify(tombstoneRepository).insertTombstone(eq(targetID), eq(0L), any());
+        verify(productRepository, never()).getProductById(targetID);
 
         //mock the updated product list
         when(productRepository.findAll()).thenReturn(Collections.singletonList(productB));
@@ -276,10 +338,408 @@ public class ProductServiceTest {
         logger.info("test delete() for a missing product");
 
         Long targetID = 1231231L;
-        when(productRepository.getProductById(targetID)).thenReturn(Optional.empty());
+        when(productRepository.deleteProductById(targetID)).thenReturn(0);
 
         ProductException exception = assertThrows(ProductException.class, () -> productService.delete(targetID));
 
         assertEquals("Product with id " + targetID + " not found", exception.getMessage(), "Exception message should match");
     }
+
+    @Test
+    @Order(17)
+    void test_getPage() {
+        logger.info("test getPage() with a next page");
+
+        when(productRepository.getProductsAfter(0L, Limit.of(2))).thenReturn(List.of(productA, productB));
+
+        ProductPage result = productService.getPage(null, 1);
+
+        assertEquals(1, result.getProducts().size(), "Page size should match");
+        assertEquals(productA.getId(), result.getProducts().get(0).getId(), "Product ID should match");
+        assertEquals(productA.getId(), result.getNextCursor(), "Next cursor should match");
+    }
+
+    @Test
+    @Order(18)
+    void test_getLastPage() {
+        logger.info("test getPage() for the last page");
+
+        when(productRepository.getProductsAfter(1L, Limit.of(11))).thenReturn(List.of(productB));
+
+        ProductPage result = productService.getPage(1L, 10);
+
+        assertEquals(1, result.getProducts().size(), "Page size should match");
+        assertNull(result.getNextCursor(), "Next cursor should be null on the last page");
+    }
+
+    @Test
+    @Order(19)
+    void test_getPageWrongLimit() {
+        logger.info("test getPage() for a wrong limit");
+
+        ProductException exception = assertThrows(ProductException.class, () -> productService.getPage(0L, 0));
+
+        assertEquals(422, exception.getErrorCode(), "Error code should match");
+    }
+
+    @Test
+    @Order(20)
+    void test_exportAll() {
+        logger.info("test exportAll()");
+
+        when(productRepository.streamAll()).thenReturn(Stream.of(productA, productB));
+
+        List<String> names = new ArrayList<>();
+        long count = productService.exportAll(product -> names.add(product.getName()));
+
+        assertEquals(2, count, "Exported count should match");
+        assertEquals(List.of("Product A test", "Product B test"), names, "Products should be exported in order");
+        verify(entityManager).detach(productA);
+    }
+
+    @Test
+    @Order(21)
+    void test_addAll() {
+        logger.info("test addAll() for a batch with invalid items");
+
+        List<ProductDTO> productDTOs = new ArrayList<>();
+        productDTOs.add(ProductDTO.builder().name("Product C test").price(87.2).build());
+        productDTOs.add(ProductDTO.builder().name("").price(1.0).build());
+        productDTOs.add(null);
+        productDTOs.add(ProductDTO.builder().name("Product D test").price(3.5).build());
+
+        // the ids are generated on save
+        AtomicLong nextId = new AtomicLong(10);
+        when(productRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Product> products = invocation.getArgument(0);
+            products.forEach(product -> {
+                product.setId(nextId.getAndIncrement());
+                product.setVersion(0L);
+            });
+            return products;
+        });
+
+        ProductBatchResult result = productService.addAll(productDTOs);
+
+        assertEquals(2, result.getCreated().size(), "Created size should match");
+        assertEquals("Product D test", result.getCreated().get(1).getName(), "Product name should match");
+        assertEquals(2, result.getFailures().size(), "Failures size should match");
+        assertEquals(1, result.getFailures().get(0).getIndex(), "Failure index should match");
+        assertEquals("Please provide a name and a positive price for the product", result.getFailures().get(0).getErrorMessage(), "Failure message should match");
+        assertEquals(2, result.getFailures().get(1).getIndex(), "Failure index should match");
+        assertEquals("Cannot add a null product", result.getFailures().get(1).getErrorMessage(), "Failure message should match");
+        verify(entityManager).flush();
+    }
+
+    @Test
+    @Order(22)
+    void test_addAllEmpty() {
+        logger.info("test addAll() for an empty batch");
+
+        ProductException exception = assertThrows(ProductException.class, () -> productService.addAll(List.of()));
+
+        assertEquals("Cannot add an empty batch of products", exception.getMessage(), "Exception message should match");
+    }
+
+    @Test
+    @Order(23)
+    void test_stacklessValidationError() {
+        logger.info("test the validation errors are preallocated and stackless");
+
+        ProductException first = assertThrows(ProductException.class, () -> productService.getById(-1L));
+        ProductException second = assertThrows(ProductException.class, () -> productService.delete(-5L));
+
+        assertSame(first, second, "The same exception should be reused");
+        assertEquals(0, first.getStackTrace().length, "The exception should not have a stack trace");
+        assertEquals(422, first.getHubException().getErrorCode(), "Error code of the body should match");
+    }
+
+    @Test
+    @Order(24)
+    void test_updateStaleVersion() {
+        logger.info("test update() with a stale expected version");
+
+        when(productRepository.updateProductById(productA.getId(), null, 87.2, 2L, 0L)).thenReturn(0);
+        when(productRepository.existsById(productA.getId())).thenReturn(true);
+
+        ProductDTO productDTO = ProductDTO.builder().price(87.2).build();
+        ProductException exception = assertThrows(ProductException.class, () -> productService.update(productA.getId(), productDTO, 2L));
+
+        assertEquals(412, exception.getErrorCode(), "Error code should match");
+        assertEquals("Product with id 1 was modified, its version does not match If-Match", exception.getMessage(), "Exception message should match");
+    }
+
+    @Test
+    @Order(25)
+    void test_catalogueVersion() {
+        logger.info("test getCatalogueVersion() after the writes");
+
+        long initialVersion = productService.getCatalogueVersion();
+
+        when(productRepository.save(any(Product.class))).thenReturn(productB);
+        productService.add(ProductDTO.builder().name(productB.getName()).price(productB.getPrice()).build());
+        assertEquals(initialVersion + 1, productService.getCatalogueVersion(), "An add should change the version");
+
+        assertThrows(ProductException.class, () -> productService.add(null));
+        assertEquals(initialVersion + 1, productService.getCatalogueVersion(), "A rejected add should not change the version");
+
+        when(productRepository.deleteProductById(productA.getId())).thenReturn(1);
+        productService.delete(productA.getId());
+        assertEquals(initialVersion + 2, productService.getCatalogueVersion(), "A delete should change the version");
+    }
+
+    @Test
+    @Order(26)
+    void test_updateInPlace() {
+        logger.info("test updateInPlace() for a product");
+
+        ProductDTO productDTO = ProductDTO.builder().price(87.2).build();
+        when(productRepository.updateProductById(productA.getId(), null, 87.2, 3L, 0L)).thenReturn(1);
+        when(productRepository.getRowById(productA.getId())).thenReturn(row(productA.getId(), productA.getName(), 87.2, 4L));
+
+        productService.updateInPlace(productA.getId(), productDTO, 3L);
+
+        // one UPDATE statement and the read of its columns for the event, the entity is never loaded
+        verify(productRepository).updateProductById(productA.getId(), null, 87.2, 3L, 0L);
+        verify(productRepository, never()).getProductById(productA.getId());
+    }
+
+    @Test
+    @Order(27)
+    void test_query() {
+        logger.info("test query() with a name prefix, a price range and a sort");
+
+        Sort expectedSort = Sort.by(Sort.Direction.DESC, "price").and(Sort.by("id"));
+        when(productRepository.queryProducts("Product\\_%", 5.0, 20.0, expectedSort, Limit.of(10))).thenReturn(List.of(productA, productB));
+
+        List<Product> products = productService.query("Product_", 5.0, 20.0, "-price", 10);
+
+        assertEquals(List.of(productA, productB), products, "Products should match");
+    }
+
+    @Test
+    @Order(28)
+    void test_queryDefaults() {
+        logger.info("test query() without any filter");
+
+        when(productRepository.queryProducts("%", 0.0, Double.MAX_VALUE, Sort.by("id"), Limit.of(100))).thenReturn(List.of(productA));
+
+        assertEquals(List.of(productA), productService.query(null, null, null, null, 100), "Products should match");
+    }
+
+    @Test
+    @Order(29)
+    void test_queryInvalid() {
+        logger.info("test query() with invalid parameters");
+
+        ProductException sortException = assertThrows(ProductException.class, () -> productService.query(null, null, null, "version", 10));
+        ProductException rangeException = assertThrows(ProductException.class, () -> productService.query(null, 20.0, 5.0, null, 10));
+        ProductException limitException = assertThrows(ProductException.class, () -> productService.query(null, null, null, null, 1001));
+
+        assertEquals("The products can only be sorted by id, name or price, prefixed by '-' for a descending order", sortException.getMessage(), "Exception message should match");
+        assertEquals("The minimum price cannot be greater than the maximum price", rangeException.getMessage(), "Exception message should match");
+        assertEquals("The page size must be between 1 and 1000", limitException.getMessage(), "Exception message should match");
+    }
+
+    @Test
+    @Order(30)
+    void test_search() {
+        logger.info("test search() in the n-gram index");
+
+        List<ProductSearchHit> hits = List.of(new ProductSearchHit(1L, "Product A test", 1.0));
+        when(searchIndex.search("product a", 5)).thenReturn(hits);
+
+        assertEquals(hits, productService.search("product a", 5), "Search hits should match");
+
+        ProductException exception = assertThrows(ProductException.class, () -> productService.search("product a", 101));
+        assertEquals("The number of search results must be between 1 and 100", exception.getMessage(), "Exception message should match");
+    }
+
+    @Test
+    @Order(31)
+    void test_productChangedEvents() {
+        logger.info("test the writes publish a ProductChangedEvent");
+
+        when(productRepository.save(any(Product.class))).thenReturn(productB);
+        when(productRepository.updateProductById(productA.getId(), null, 3.5, null, 0L)).thenReturn(1);
+        when(productRepository.getRowById(productA.getId())).thenReturn(row(productA.getId(), productA.getName(), 3.5, 1L));
+        when(productRepository.deleteProductById(productA.getId())).thenReturn(1);
+
+        productService.add(ProductDTO.builder().name(productB.getName()).price(productB.getPrice()).build());
+        productService.updateInPlace(productA.getId(), ProductDTO.builder().price(3.5).build(), null);
+        productService.delete(productA.getId());
+
+        verify(eventPublisher).publishEvent(argThat((ProductChangedEvent event) -> event.getType() == ProductChangedEvent.Type.CREATED
+                && event.getProductId() == productB.getId() && productB.getName().equals(event.getName())));
+        verify(eventPublisher).publishEvent(argThat((ProductChangedEvent event) -> event.getType() == ProductChangedEvent.Type.UPDATED
+                && event.getProductId() == productA.getId() && productA.getName().equals(event.getName()) && event.getPrice() == 3.5 && event.getVersion() == 1L));
+        verify(eventPublisher).publishEvent(argThat((ProductChangedEvent event) -> event.getType() == ProductChangedEvent.Type.DELETED
+                && event.getProductId() == productA.getId()));
+    }
+
+    @Test
+    @Order(32)
+    void test_priceQueries() {
+        logger.info("test the price queries in the price index");
+
+        List<ProductPrice> cheapest = List.of(new ProductPrice(2L, 7.09), new ProductPrice(1L, 19.2));
+        when(priceIndex.count(5.0, Double.MAX_VALUE)).thenReturn(2);
+        when(priceIndex.range(0.0, 10.0, 10)).thenReturn(cheapest.subList(0, 1));
+        when(priceIndex.cheapest(2)).thenReturn(cheapest);
+        when(priceIndex.mostExpensive(1)).thenReturn(cheapest.subList(1, 2));
+
+        assertEquals(2, productService.countByPrice(5.0, null), "Count should match");
+        assertEquals(cheapest.subList(0, 1), productService.getByPrice(null, 10.0, 10), "Products in the range should match");
+        assertEquals(cheapest, productService.getCheapest(2), "Cheapest products should match");
+        assertEquals(cheapest.subList(1, 2), productService.getMostExpensive(1), "Most expensive products should match");
+
+        ProductException rangeException = assertThrows(ProductException.class, () -> productService.countByPrice(10.0, 5.0));
+        ProductException limitException = assertThrows(ProductException.class, () -> productService.getCheapest(0));
+
+        assertEquals("The minimum price cannot be greater than the maximum price", rangeException.getMessage(), "Exception message should match");
+        assertEquals("The page size must be between 1 and 1000", limitException.getMessage(), "Exception message should match");
+    }
+
+    @Test
+    @Order(33)
+    void test_addWithGroupCommit() {
+        logger.info("test add() through the group commit");
+
+        when(groupCommit.isEnabled()).thenReturn(true);
+        // the writer runs the callback once the batch is committed
+        when(groupCommit.save(any(Product.class), any())).thenAnswer(invocation -> {
+            Consumer<Product> onCommit = invocation.getArgument(1);
+            onCommit.accept(productB);
+            return productB;
+        });
+
+        Product result = productService.add(ProductDTO.builder().name(productB.getName()).price(productB.getPrice()).build());
+
+        assertEquals(productB.getId(), result.getId(), "Product ID should match");
+        verify(productRepository, never()).save(any(Product.class));
+        // the modification sequence is taken by the writer, in the transaction of the batch
+        verify(changeTracker, never()).begin(anyInt());
+        verify(eventPublisher).publishEvent(argThat((ProductChangedEvent event) -> event.getProductId() == productB.getId()));
+    }
+
+    @Test
+    @Order(34)
+    void test_readFromColumnStore() {
+        logger.info("test getById() and getAll() served by the column store");
+
+        when(columnStore.isEnabled()).thenReturn(true);
+        when(columnStore.get(productA.getId())).thenReturn(productA);
+        when(columnStore.getAll()).thenReturn(List.of(productA, productB));
+        when(columnStore.json()).thenReturn(mock(JsonSerializable.class));
+
+        assertEquals(productA, productService.getById(productA.getId()), "Product should match");
+        assertEquals(2, productService.getAll().size(), "Size should match");
+        assertThrows(ProductException.class, () -> productService.getById(99L));
+        assertTrue(productService.getAllAsJson().isPresent(), "The JSON view should be used");
+        verify(productRepository, never()).getProductById(any());
+        verify(productRepository, never()).findAll();
+    }
+
+    @Test
+    @Order(35)
+    void test_getByIds() {
+        logger.info("test getByIds() with chunked IN lists, invalid and missing ids");
+
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 1200; id++) {
+            ids.add(id);
+        }
+        ids.add(2L);
+        ids.add(-5L);
+        ids.add(null);
+        when(productRepository.getProductsByIds(anyList())).thenAnswer(invocation -> {
+            List<Long> chunk = invocation.getArgument(0);
+            assertTrue(chunk.size() <= 500, "An IN list should hold at most 500 ids");
+            // the product 7 does not exist
+            return chunk.stream().filter(id -> id != 7L).map(id -> {
+                var product = new Product();
+                product.setId(id);
+                product.setName("Product " + id);
+                return product;
+            }).toList();
+        });
+
+        ProductLookupResult result = productService.getByIds(ids);
+
+        assertEquals(1199, result.getProducts().size(), "Size should match");
+        assertEquals(1L, result.getProducts().get(0).getId(), "The products should come in the order of the ids");
+        assertEquals(8L, result.getProducts().get(6).getId(), "Product ID should match");
+        assertEquals(List.of(
+                new ProductLookupFailure(-5L, "A product with negative id cannot exist", 422),
+                new ProductLookupFailure(null, "A product id cannot be null", 422),
+                new ProductLookupFailure(7L, "Product with id 7 not found", 404)), result.getFailures(), "Failures should match");
+        verify(productRepository, times(3)).getProductsByIds(anyList());
+
+        ProductException emptyException = assertThrows(ProductException.class, () -> productService.getByIds(List.of()));
+        assertEquals("Please provide the ids of the products", emptyException.getMessage(), "Exception message should match");
+    }
+
+    @Test
+    @Order(36)
+    void test_getChanges() {
+        logger.info("test getChanges() merges the products and the tombstones in sequence order");
+
+        productA.setModSeq(6);
+        productB.setModSeq(9);
+        when(changeTracker.parseToken("1.5")).thenReturn(ProductChangeTracker.Cursor.after(5L));
+        when(changeTracker.watermark()).thenReturn(20L);
+        when(changeTracker.token(any())).thenAnswer(invocation -> {
+            ProductChangeTracker.Cursor cursor = invocation.getArgument(0);
+            return "1." + cursor.sequence() + (cursor.productId() == Long.MAX_VALUE ? "" : "." + cursor.productId());
+        });
+        when(productRepository.getProductsChangedBetween(5L, Long.MAX_VALUE, 20L, Limit.of(3))).thenReturn(List.of(productA, productB));
+        when(tombstoneRepository.getTombstonesBetween(5L, Long.MAX_VALUE, 20L, Limit.of(3))).thenReturn(List.of(new ProductTombstone(3L, 7L, Instant.now())));
+
+        ProductChanges page = productService.getChanges("1.5", 2);
+
+        assertEquals(List.of(productA), page.getProducts(), "Products should match");
+        assertEquals(List.of(3L), page.getDeletedIds(), "Deleted ids should match");
+        assertEquals("1.7.3", page.getNextToken(), "The next page should start after the last change returned");
+        assertTrue(page.isMore(), "More changes should be waiting");
+
+        when(productRepository.getProductsChangedBetween(5L, Long.MAX_VALUE, 20L, Limit.of(6))).thenReturn(List.of(productA, productB));
+        when(tombstoneRepository.getTombstonesBetween(5L, Long.MAX_VALUE, 20L, Limit.of(6))).thenReturn(List.of(new ProductTombstone(3L, 7L, Instant.now())));
+        ProductChanges last = productService.getChanges("1.5", 5);
+
+        assertEquals(List.of(productA, productB), last.getProducts(), "Products should match");
+        assertEquals("1.20", last.getNextToken(), "The last page should end at the watermark");
+        assertFalse(last.isMore(), "No more changes should be waiting");
+
+        // a full sync reads no tombstones
+        when(changeTracker.parseToken(null)).thenReturn(ProductChangeTracker.Cursor.START);
+        when(productRepository.getProductsChangedBetween(-1L, Long.MAX_VALUE, 20L, Limit.of(1001))).thenReturn(List.of(productA));
+        assertEquals(List.of(productA), productService.getChanges(null, 1000).getProducts(), "Products should match");
+        verify(tombstoneRepository, never()).getTombstonesBetween(eq(-1L), anyLong(), anyLong(), any());
+
+        assertThrows(ProductException.class, () -> productService.getChanges("1.5", 0));
+    }
+
+    private static ProductRowView row(long id, String name, double price, long version) {
+        return new ProductRowView() {
+            @Override
+            public Long getId() {
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public double getPrice() {
+                return price;
+            }
+
+            @Override
+            public Long getVersion() {
+                return version;
+            }
+        };
+    }
 }
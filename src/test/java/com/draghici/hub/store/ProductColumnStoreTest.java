@@ -0,0 +1,175 @@
+package com.draghici.hub.store;
+
+import com.draghici.hub.beans.Product;
+import com.draghici.hub.events.ProductChangedEvent;
+import com.draghici.hub.repositories.ProductRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class ProductColumnStoreTest {
+
+    private final static Logger logger = LogManager.getLogger(ProductColumnStoreTest.class);
+
+    private ProductColumnStore columnStore;
+
+    @BeforeEach
+    void setup() {
+        var productRepository = mock(ProductRepository.class);
+        when(productRepository.streamAllRows()).thenReturn(Stream.empty());
+        columnStore = new ProductColumnStore(productRepository, new SimpleMeterRegistry(), true);
+        columnStore.build();
+    }
+
+    @Test
+    @Order(1)
+    void test_changes() {
+        logger.info("test the store follows the product changes and their versions");
+
+        columnStore.onProductChanged(ProductChangedEvent.created(product(2L, "Pear", 2.5, 0L)));
+        columnStore.onProductChanged(ProductChangedEvent.created(product(1L, "Apple", 1.5, 0L)));
+        columnStore.onProductChanged(ProductChangedEvent.updated(2L, "Pear", 2.75, 1L, 3L));
+        columnStore.onProductChanged(ProductChangedEvent.updated(3L, "Kiwi", 0.5, 1L, 5L));
+        columnStore.onProductChanged(ProductChangedEvent.created(product(3L, "Late kiwi", 0.25, 0L)));
+
+        assertTrue(columnStore.isEnabled(), "The store should be used once built");
+        assertEquals(3, columnStore.size(), "Size should match");
+        assertEquals(product(1L, "Apple", 1.5, 0L), columnStore.get(1L), "Product should match");
+        assertEquals(product(2L, "Pear", 2.75, 1L), columnStore.get(2L), "An update should take the committed version");
+        assertEquals(product(3L, "Kiwi", 0.5, 1L), columnStore.get(3L), "A late creation should not replace the update");
+
+        columnStore.onProductChanged(ProductChangedEvent.deleted(2L, 6L));
+        columnStore.onProductChanged(ProductChangedEvent.updated(2L, null, 9.0, 2L, 4L));
+        columnStore.onProductChanged(ProductChangedEvent.updated(2L, "Renamed pear", 9.5, 3L, 5L));
+
+        assertNull(columnStore.get(2L), "A deleted product should be missing");
+
+        // the creation event of a product already deleted comes last
+        columnStore.onProductChanged(ProductChangedEvent.deleted(4L, 8L));
+        columnStore.onProductChanged(ProductChangedEvent.created(product(4L, "Plum", 1.0, 0L)));
+
+        assertNull(columnStore.get(4L), "A late creation of a deleted product should be ignored");
+        assertEquals(List.of(1L, 3L), columnStore.getAll().stream().map(Product::getId).toList(), "Ids should match");
+    }
+
+    @Test
+    @Order(2)
+    void test_outOfOrderUpdates() {
+        logger.info("test the store keeps the latest version when the update events come out of order");
+
+        columnStore.add(1L, "Apple", 1.5, 0L);
+        columnStore.onProductChanged(ProductChangedEvent.updated(1L, "Green apple", 2.5, 2L, 8L));
+        columnStore.onProductChanged(ProductChangedEvent.updated(1L, "Apple", 2.0, 1L, 7L));
+
+        assertEquals(product(1L, "Green apple", 2.5, 2L), columnStore.get(1L), "An older update should be ignored");
+
+        // committed while build() read the table, the row already has the version of the event
+        columnStore.add(2L, "Pear", 3.0, 1L);
+        columnStore.onProductChanged(ProductChangedEvent.updated(2L, "Pear", 3.0, 1L, 9L));
+
+        assertEquals(product(2L, "Pear", 3.0, 1L), columnStore.get(2L), "An update already read should not move the version");
+    }
+
+    @Test
+    @Order(3)
+    void test_manyBlocks() {
+        logger.info("test inserts in random order over several blocks, removals and renames");
+
+        var random = new Random(7);
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 3L * ProductColumnStore.BLOCK_ROWS; id++) {
+            ids.add(id * 3);
+        }
+        Collections.shuffle(ids, random);
+
+        var expected = new TreeMap<Long, Product>();
+        for (long id : ids) {
+            var name = "Product " + id;
+            columnStore.add(id, name, id / 100.0, 0L);
+            expected.put(id, product(id, name, id / 100.0, 0L));
+        }
+        for (int i = 0; i < ids.size() / 2; i++) {
+            long id = ids.get(i);
+            if (i % 3 == 0) {
+                columnStore.remove(id);
+                expected.remove(id);
+            } else {
+                // longer names, so the name buffers are compacted and grown
+                var name = "Renamed product " + id + " ".repeat(i % 40);
+                columnStore.update(id, name, 1.0, 1L);
+                expected.put(id, product(id, name, 1.0, 1L));
+            }
+        }
+
+        assertEquals(expected.size(), columnStore.size(), "Size should match");
+        assertEquals(new ArrayList<>(expected.values()), columnStore.getAll(), "Products should match");
+        assertEquals(expected.get(ids.get(1)), columnStore.get(ids.get(1)), "Product should match");
+        assertNull(columnStore.get(ids.get(0)), "A removed product should be missing");
+        assertNull(columnStore.get(1L), "A product never added should be missing");
+        assertTrue(columnStore.offHeapBytes() > 0, "The store should reserve direct memory");
+    }
+
+    @Test
+    @Order(4)
+    void test_json() throws Exception {
+        logger.info("test json() writes the products as the entities are serialized");
+
+        columnStore.add(1L, "Plain", 19.2, 0L);
+        columnStore.add(2L, "Quote \" backslash \\ tab \t ü € 😀", 7.09, 0L);
+        columnStore.add(3L, "Cheap", 0.1, 0L);
+        columnStore.add(4L, "Precise", 1.0 / 3, 0L);
+        columnStore.add(5L, "Huge", 1.5e12, 0L);
+        columnStore.add(6L, "Round", 120.0, 0L);
+        columnStore.update(6L, null, 0.0, 1L);
+
+        var mapper = new ObjectMapper();
+        var expected = mapper.writeValueAsString(columnStore.getAll());
+        assertEquals(expected, new String(mapper.writeValueAsBytes(columnStore.json()), StandardCharsets.UTF_8), "JSON should match");
+        assertEquals(expected, mapper.writeValueAsString(columnStore.json()), "JSON written as chars should match");
+    }
+
+    @Test
+    @Order(5)
+    void test_formatPrice() {
+        logger.info("test formatPrice() prints the same digits as Double.toString");
+
+        char[] out = new char[32];
+        for (long cents = 0; cents < 2_000_000; cents += 7) {
+            double price = cents / 100.0;
+            int length = ProductColumnStore.formatPrice(price, out);
+            assertEquals(Double.toString(price), new String(out, 0, length), "Price should match");
+        }
+        assertEquals(-1, ProductColumnStore.formatPrice(1.0 / 3, out), "More decimals should be left to Jackson");
+        assertEquals(-1, ProductColumnStore.formatPrice(-0.0, out), "Negative zero should be left to Jackson");
+        assertEquals(-1, ProductColumnStore.formatPrice(2e7, out), "The E notation should be left to Jackson");
+    }
+
+    private static Product product(long id, String name, double price) {
+        var product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setPrice(price);
+        return product;
+    }
+
+    private static Product product(long id, String name, double price, long version) {
+        var product = product(id, name, price);
+        product.setVersion(version);
+        return product;
+    }
+}